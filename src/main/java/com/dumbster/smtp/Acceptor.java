@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Accepts connections on a server channel and passes them to a {@link ConnectionHandler}.
+ * <br>
+ * Blocks in accept, the loop ends when the server stops and the channel is closed
+ * or the accepting thread is interrupted.
+ */
+final class Acceptor implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(Acceptor.class);
+
+    private final SmtpServer server;
+    private final ServerSocketChannel serverChannel;
+    private final ConnectionHandler handler;
+
+    Acceptor(SmtpServer server, ServerSocketChannel serverChannel, ConnectionHandler handler)
+    {
+        this.server = server;
+        this.serverChannel = serverChannel;
+        this.handler = handler;
+    }
+
+    @Override
+    public void run()
+    {
+        do {
+            try {
+                SocketChannel clientChannel = serverChannel.accept();
+                handler.handle(clientChannel);
+            }
+            catch (ClosedChannelException e) {
+                if (server.isRunning()) {
+                    LOG.warn("Server channel closed: ", e);
+                }
+                break;
+            }
+            catch (IOException e) {
+                // Don't bother logging if we shut down, it is probably a
+                // socket closed exception
+                if (server.isRunning()) {
+                    LOG.warn("In accept loop: ", e);
+                }
+            }
+        }
+        while (server.isRunning());
+    }
+}
@@ -30,28 +30,73 @@ import java.util.regex.Pattern;
 public class AnonymisedMailMessageImpl extends MailMessageImpl
 {
 
-    private final Logger LOG = LoggerFactory.getLogger(AnonymisedMailMessageImpl.class);
+    private static final Logger LOG = LoggerFactory.getLogger(AnonymisedMailMessageImpl.class);
     private MailAddress From;
     private List<MailAddress> To = new ArrayList<>(1);
     private String Date = "";
     private String Attachments = "";
+    // characters received, the message keeps only a fraction of them
+    private long receivedLength = 0;
 
-    private final Pattern filenamePattern   = Pattern.compile("\\sname=\"{0,1}(([a-zA-Z0-9.-_-\\s]+)(\\.[a-zA-Z0-9]+))");
-    private final Pattern sizePattern       = Pattern.compile("\\ssize=\\\"{0,1}([0-9]+)");
+    private static final Pattern filenamePattern   = Pattern.compile("\\sname=\"{0,1}(([a-zA-Z0-9.-_-\\s]+)(\\.[a-zA-Z0-9]+))");
+    private static final Pattern sizePattern       = Pattern.compile("\\ssize=\\\"{0,1}([0-9]+)");
+    // reused for every body line, messages are filled by a single session thread
+    private Matcher filenameMatcher;
+    private ByteCharSequence bodyLine;
     public AnonymisedMailMessageImpl()
     {
         super();
     }
 
+    private AnonymisedMailMessageImpl(AnonymisedMailMessageImpl source)
+    {
+        super(source);
+        From        = source.From;
+        To          = new ArrayList<>(source.To);
+        Date        = source.Date;
+        Attachments = source.Attachments;
+        receivedLength = source.receivedLength;
+    }
+
+    @Override
+    public AnonymisedMailMessageImpl copy()
+    {
+        return new AnonymisedMailMessageImpl(this);
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        From        = null;
+        To.clear();
+        Date        = "";
+        Attachments = "";
+        receivedLength = 0;
+    }
+
     @Override
     public String getBody()
     {
         return "---removed---";
     }
 
+    @Override
+    public int getBodyLength()
+    {
+        return getBody().length();
+    }
+
+    @Override
+    public long getReceivedLength()
+    {
+        return receivedLength;
+    }
+
     @Override
     public void addHeader(String name, String value)
     {
+        receivedLength += name.length() + value.length();
         try{
             if      (name.startsWith("From")){
                 From    = new AnonymisedMailAddress(value);
@@ -67,7 +112,7 @@ public class AnonymisedMailMessageImpl extends MailMessageImpl
 //                 Attachments = "List: ";
 //             }
             else {
-                appendBody(value);
+                scanForAttachment(value);
             }
         }
         catch (Exception e)
@@ -78,10 +123,37 @@ public class AnonymisedMailMessageImpl extends MailMessageImpl
 
     @Override
     public void appendBody(String line) {
-        Matcher filename = filenamePattern.matcher(line);
+        receivedLength += line.length();
+        scanForAttachment(line);
+    }
+
+    @Override
+    public void appendBody(byte[] line, int offset, int length) {
+        receivedLength += length;
+        scanForAttachment(bodyLine().wrap(line, offset, length));
+    }
+
+    @Override
+    public void appendBodyChunk(byte[] chunk, int offset, int length) {
+        receivedLength += length;
+        Matcher filename = filenameMatcher(bodyLine().wrap(chunk, offset, length));
+        while(filename.find()) Attachments += AnonymisedMailAddress.anonymize(filename.group(2))+filename.group(3)+" ";
+    }
+
+    private void scanForAttachment(CharSequence line) {
+        Matcher filename = filenameMatcher(line);
         if(filename.find()) Attachments += AnonymisedMailAddress.anonymize(filename.group(2))+filename.group(3)+" ";
-        Matcher filesize = sizePattern.matcher("line");
-        if(filename.find()) Attachments += " ("+filesize.group(1)+" Bytes)";
+        if(filename.find()) Attachments += " ("+sizePattern.matcher("line").group(1)+" Bytes)";
+    }
+
+    private Matcher filenameMatcher(CharSequence line) {
+        if (filenameMatcher == null) filenameMatcher = filenamePattern.matcher(line);
+        return filenameMatcher.reset(line);
+    }
+
+    private ByteCharSequence bodyLine() {
+        if (bodyLine == null) bodyLine = new ByteCharSequence();
+        return bodyLine;
     }
 
     @Override
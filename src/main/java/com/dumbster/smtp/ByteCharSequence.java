@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Presents a slice of ISO-8859-1 encoded bytes as characters without copying them,
+ * so that patterns can be matched against raw input. Can be pointed at another slice.
+ */
+final class ByteCharSequence implements CharSequence
+{
+    private byte[] bytes = new byte[0];
+    private int offset = 0;
+    private int length = 0;
+
+    ByteCharSequence wrap(byte[] bytes, int offset, int length)
+    {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+
+        return this;
+    }
+
+    @Override
+    public int length()
+    {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index)
+    {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range " + length);
+        }
+        return (char) (bytes[offset + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end)
+    {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("range " + start + ".." + end + " out of range " + length);
+        }
+        return new ByteCharSequence().wrap(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString()
+    {
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+
+/**
+ * Adapts the character streams of an {@link IOSource} that does not provide byte streams itself
+ * to the byte streams the sessions use, mapping bytes to the characters of ISO-8859-1 one to one.
+ */
+final class CharStreams
+{
+    private CharStreams()
+    {
+    }
+
+    static InputStream asInputStream(final Reader reader)
+    {
+        return new InputStream() {
+            private char[] chars = new char[0];
+
+            @Override
+            public int read() throws IOException
+            {
+                int c = reader.read();
+                return c < 0 ? -1 : toByte(c) & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0) {
+                    return 0;
+                }
+                if (chars.length < len) {
+                    chars = new char[len];
+                }
+                int read = reader.read(chars, 0, len);
+                for (int i = 0; i < read; i++) {
+                    b[off + i] = toByte(chars[i]);
+                }
+                return read;
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                reader.close();
+            }
+        };
+    }
+
+    static OutputStream asOutputStream(final PrintWriter writer)
+    {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException
+            {
+                writer.write(b & 0xff);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                char[] chars = new char[len];
+                for (int i = 0; i < len; i++) {
+                    chars[i] = (char) (b[off + i] & 0xff);
+                }
+                writer.write(chars);
+            }
+
+            @Override
+            public void flush() throws IOException
+            {
+                // a PrintWriter swallows its exceptions
+                if (writer.checkError()) {
+                    throw new IOException("Writing to the client failed");
+                }
+            }
+
+            @Override
+            public void close() throws IOException
+            {
+                writer.close();
+            }
+        };
+    }
+
+    private static byte toByte(int c)
+    {
+        return c <= 0xff ? (byte) c : (byte) '?';
+    }
+}
@@ -16,65 +16,91 @@ package com.dumbster.smtp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.PrintWriter;
 
 public class ClientSession implements Runnable
 {
     private static final Logger LOG = LoggerFactory.getLogger(ClientSession.class);
 
     private IOSource socket;
-    private volatile MailStore mailStore;
-    private MailMessage msg;
+    private final SessionPool pool;
+    private SmtpConversation conversation;
     private Response smtpResponse;
-    private PrintWriter out;
-    private BufferedReader input;
-    private SmtpState smtpState;
-    private String line;
-    private String lastHeaderName = null;
-    private volatile boolean running = true;
+    private ResponseWriter out;
+    private byte[] outputBuffer;
+    private byte[] inputBuffer;
+    private LineReader input;
+    private boolean responsePending = false;
+    private final SessionTimeouts.Timer timer;
 
 
     protected ClientSession(IOSource socket, MailStore mailStore)
+    {
+        this(socket, new SessionPool(mailStore, 0));
+    }
+
+    ClientSession(IOSource socket, SessionPool pool)
+    {
+        this(socket, pool, null);
+    }
+
+    /**
+     * @param timer
+     *        is told when commands are awaited and received. Null for no timeouts.
+     */
+    ClientSession(IOSource socket, SessionPool pool, SessionTimeouts.Timer timer)
     {
         this.socket = socket;
-        this.mailStore = mailStore;
-        this.msg = new AnonymisedMailMessageImpl();
-        Request request = Request.initialRequest();
-        smtpResponse = request.execute(this.mailStore, msg);
+        this.pool = pool;
+        this.timer = timer;
     }
 
     @Override
     public void run()
     {
-        do {
-            try {
-                prepareSessionLoop();
-                sessionLoop();
-                running = false;
-            }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                running = false;
-            }
-            catch (IOException e) {
-                LOG.warn("Caught IO Exception", e);
-            }
+        conversation = pool.acquireConversation();
+        inputBuffer = pool.acquireBuffer();
+        outputBuffer = pool.acquireBuffer();
+        smtpResponse = conversation.connect();
+        try {
+            prepareSessionLoop();
+            sessionLoop();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            // Also the way a session ends once its socket has been closed after a timeout or by stop().
+            LOG.debug("Closing client connection: ", e);
         }
-        while (running);
 
         try {
-            socket.close();
+            if (conversation.isAborted()) {
+                socket.abort();
+            }
+            else {
+                socket.close();
+            }
         }
         catch (Exception e) {
             LOG.debug("While closing socket", e);
         }
+        pool.release(conversation);
+        pool.release(input != null ? input.buffer() : inputBuffer);
+        pool.release(outputBuffer);
     }
 
+    /**
+     * Ends the session by closing the connection, which fails a read the session is blocked in.
+     */
     public void stop()
     {
-        this.running = false;
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing socket", e);
+        }
     }
 
     protected void doWaitInResponse() throws InterruptedException
@@ -82,112 +108,85 @@ public class ClientSession implements Runnable
         // GNDN
     }
 
+    /**
+     * @return the conversation of the running session
+     */
+    SmtpConversation getConversation()
+    {
+        return conversation;
+    }
+
     protected boolean prepareSessionLoop() throws IOException, InterruptedException
     {
         prepareOutput();
         prepareInput();
         sendResponse();
-        updateSmtpState();
         return true;
     }
 
     private void prepareOutput() throws IOException
     {
-        out = socket.getOutputStream();
-        out.flush();
+        out = new ResponseWriter(socket.getResponseStream(), outputBuffer);
     }
 
     private void prepareInput() throws IOException
     {
-        input = socket.getInputStream();
+        input = socket.getLineReader(inputBuffer);
     }
 
+    /**
+     * Writes the current response, if any. Responses to pipelined commands (RFC 2920) are only
+     * buffered while further commands are waiting in the input and flushed all at once
+     * when the input is drained or the client has to wait for the reply anyway.
+     */
     private void sendResponse() throws InterruptedException
     {
         if (smtpResponse.getCode() > 0) {
             doWaitInResponse();
-            int code = smtpResponse.getCode();
-            String message = smtpResponse.getMessage();
-            out.print(code + " " + message + "\r\n");
+            out.write(smtpResponse);
+            responsePending = true;
+        }
+        if (responsePending && (isSynchronisationPoint() || !input.hasBufferedLine())) {
             out.flush();
+            responsePending = false;
         }
     }
 
-    private void updateSmtpState()
+    private boolean isSynchronisationPoint()
     {
-        smtpState = smtpResponse.getNextState();
+        return smtpResponse.getNextState() == SmtpState.DATA_HDR || conversation.isClosed();
     }
 
     protected void sessionLoop() throws IOException, InterruptedException
     {
-        while (smtpState != SmtpState.CONNECT && readNextLineReady()) {
-            Request request = Request.createRequest(smtpState, line);
-            smtpResponse = request.execute(mailStore, msg);
-            storeInputInMessage(request);
+        while (!conversation.isClosed() && receiveNextInput()) {
             sendResponse();
-            updateSmtpState();
-            saveAndRefreshMessageIfComplete();
         }
     }
 
-    private boolean readNextLineReady() throws IOException
+    private boolean receiveNextInput() throws IOException
     {
-        readLine();
-        return line != null;
-    }
-
-    private void readLine() throws IOException
-    {
-        line = input.readLine();
-    }
-
-    private void saveAndRefreshMessageIfComplete()
-    {
-        if (smtpState == SmtpState.QUIT) {
-            mailStore.addMessage(msg);
-            msg = new AnonymisedMailMessageImpl();
-        }
-    }
-
-    private void storeInputInMessage(Request request)
-    {
-        String params = request.getParams();
-        if (null == params) {
-            return;
-        }
-
-        if (SmtpState.DATA_HDR.equals(smtpResponse.getNextState())) {
-            addDataHeader(params);
-            return;
+        boolean receivingMessage = conversation.isReceivingMessage();
+        socket.receivingMessage(receivingMessage);
+        if (timer != null && !receivingMessage) {
+            timer.awaitingCommand();
         }
-
-        if (SmtpState.DATA_BODY == smtpResponse.getNextState()) {
-            msg.appendBody(params);
-            return;
-        }
-    }
-
-    private void addDataHeader(String params)
-    {
-        int headerNameEnd = params.indexOf(':');
-        if (headerNameEnd > 0 && !whiteSpacedLineStart(params)) {
-            lastHeaderName = params.substring(0, headerNameEnd).trim();
-            String value = params.substring(headerNameEnd + 1).trim();
-            msg.addHeader(lastHeaderName, value);
+        long chunkBytes = conversation.getPendingChunkBytes();
+        if (chunkBytes > 0) {
+            if (!input.readChunk(chunkBytes)) {
+                return false;
+            }
+            smtpResponse = conversation.receiveChunk(input.buffer(), input.lineStart(), input.lineLength());
         }
-        else if (whiteSpacedLineStart(params) && lastHeaderName != null) {
-            msg.appendHeader(lastHeaderName, params);
+        else {
+            if (!input.readLine()) {
+                return false;
+            }
+            smtpResponse = conversation.receive(input.buffer(), input.lineStart(), input.lineLength());
         }
-    }
-
-    private boolean whiteSpacedLineStart(String s)
-    {
-        if (s == null || "".equals(s)) {
-            return false;
+        if (timer != null) {
+            timer.commandReceived();
         }
-        char c = s.charAt(0);
-        return c == 32 || c == 0x0b || c == '\n' ||
-               c == '\r' || c == '\t' || c == '\f';
+        return true;
     }
-
 }
@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The source of time for every delay, sleep and timeout of the server.
+ * <br>
+ * {@link #SYSTEM} is the real time, {@link SimulatedClock} lets tests move time forward
+ * without waiting for it.
+ */
+public abstract class Clock
+{
+    /**
+     * The real time as measured by {@link System#nanoTime()}.
+     */
+    public static final Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void sleep(long nanos) throws InterruptedException
+        {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "SYSTEM";
+        }
+    };
+
+    /**
+     * @return the current time of this clock in nanoseconds, only meaningful relative to other values
+     */
+    public abstract long nanoTime();
+
+    /**
+     * Blocks the calling thread until the given time of this clock has passed.
+     */
+    public abstract void sleep(long nanos) throws InterruptedException;
+
+    /**
+     * @return the time the timeouts of the sessions measure, see {@link SessionTimeouts}. The same as
+     *         {@link #nanoTime()} unless a {@link SimulatedClock} skips time for a session on its own.
+     */
+    long timeoutNanoTime()
+    {
+        return nanoTime();
+    }
+
+    /**
+     * Waits for I/O on the selector until it is woken up or the earlier of the given times of this clock
+     * has come.
+     *
+     * @param deadlineNanos
+     *        the time a session waits for, e.g. the end of a delay, {@link Long#MAX_VALUE} for none
+     * @param timeoutDeadlineNanos
+     *        the {@link #timeoutNanoTime() time} a timeout is due, {@link Long#MAX_VALUE} for none. Unlike
+     *        a session waiting, a pending timeout never makes a {@link SimulatedClock} advance on its own.
+     * @return the number of keys that became ready
+     */
+    int select(Selector selector, long deadlineNanos, long timeoutDeadlineNanos) throws IOException
+    {
+        long deadline = Math.min(deadlineNanos, timeoutDeadlineNanos);
+        if (deadline == Long.MAX_VALUE) {
+            return selector.select();
+        }
+        long timeoutNanos = deadline - nanoTime();
+        if (timeoutNanos <= 0) {
+            return selector.selectNow();
+        }
+        return selector.select(TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + 1);
+    }
+}
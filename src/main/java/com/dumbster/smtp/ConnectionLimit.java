@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Limits the number of open connections of the non-blocking transport.
+ * Connections beyond the limit are answered with 421 and closed right away.
+ */
+final class ConnectionLimit
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ConnectionLimit.class);
+
+    private final int maxConnections;
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private final SessionStatistics statistics;
+
+    ConnectionLimit(int maxConnections, SessionStatistics statistics)
+    {
+        this.maxConnections = maxConnections;
+        this.statistics = statistics;
+    }
+
+    boolean tryAcquire()
+    {
+        if (openConnections.incrementAndGet() > maxConnections) {
+            openConnections.decrementAndGet();
+            return false;
+        }
+
+        statistics.sessionQueued();
+        statistics.sessionStarted(0);
+        return true;
+    }
+
+    void release()
+    {
+        statistics.sessionFinished();
+        openConnections.decrementAndGet();
+    }
+
+    void reject(SocketChannel channel)
+    {
+        statistics.sessionRejected();
+        Response response = Response.SERVICE_NOT_AVAILABLE;
+        try {
+            // A fresh socket always has room for a single short reply, so this write does not block.
+            channel.write(ByteBuffer.wrap(response.getReplyBytes()));
+        }
+        catch (IOException e) {
+            LOG.debug("While rejecting connection", e);
+        }
+
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing channel", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves any number of client connections from a single thread using a {@link Selector}.
+ * <br>
+ * Connections are handed over by the accepting thread through {@link #register(SocketChannel)}
+ * and are owned by this loop from then on.
+ */
+final class EventLoop implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(EventLoop.class);
+
+    private static final long TIMER_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int TIMER_SLOTS = 1024;
+
+    private final Selector selector;
+    private final SessionPool sessionPool;
+    private final ConnectionLimit connectionLimit;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    // delays and throttling of the sessions
+    private final TimingWheel timers;
+    private final TimingWheel timeoutTimers;
+    private final LatencyProfile latencyProfile;
+    private final Clock clock;
+    private final LinkProfile linkProfile;
+    private final SessionTimeouts timeouts;
+
+    private volatile boolean running = true;
+
+    EventLoop(SessionPool sessionPool, ConnectionLimit connectionLimit, LatencyProfile latencyProfile,
+            LinkProfile linkProfile, SessionTimeouts timeouts, Clock clock) throws IOException
+    {
+        this.selector = Selector.open();
+        this.sessionPool = sessionPool;
+        this.connectionLimit = connectionLimit;
+        this.latencyProfile = latencyProfile;
+        this.linkProfile = linkProfile;
+        this.timeouts = timeouts;
+        this.clock = clock;
+        this.timers = new TimingWheel(TIMER_TICK_NANOS, TIMER_SLOTS, clock.nanoTime());
+        this.timeoutTimers = new TimingWheel(TIMER_TICK_NANOS, TIMER_SLOTS, clock.timeoutNanoTime());
+    }
+
+    void register(SocketChannel channel)
+    {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    void shutdown()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (running) {
+                clock.select(selector, timers.nextDeadline(), timeoutTimers.nextDeadline());
+                registerPendingChannels();
+                handleSelectedKeys();
+                timers.expire(clock.nanoTime());
+                timeoutTimers.expire(clock.timeoutNanoTime());
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Event loop terminated: ", e);
+        }
+        finally {
+            closeAll();
+        }
+    }
+
+    private void registerPendingChannels()
+    {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            NioClientSession session = new NioClientSession(channel, sessionPool, connectionLimit, timers, clock,
+                latencyProfile, linkProfile, timeouts, timeoutTimers);
+            try {
+                channel.configureBlocking(false);
+                session.start(channel.register(selector, SelectionKey.OP_READ, session));
+            }
+            catch (IOException e) {
+                LOG.warn("Could not register client connection: ", e);
+                session.close();
+            }
+        }
+    }
+
+    private void handleSelectedKeys()
+    {
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+
+            NioClientSession session = (NioClientSession) key.attachment();
+            try {
+                if (key.isValid()) {
+                    session.handle();
+                }
+            }
+            catch (IOException e) {
+                LOG.debug("Closing client connection: ", e);
+                session.close();
+            }
+        }
+    }
+
+    private void closeAll()
+    {
+        for (SelectionKey key : selector.keys()) {
+            ((NioClientSession) key.attachment()).close();
+        }
+
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            connectionLimit.release();
+            closeQuietly(channel);
+        }
+
+        try {
+            selector.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing selector", e);
+        }
+    }
+
+    private static void closeQuietly(SocketChannel channel)
+    {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing channel", e);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+
+/**
+ * The event loops fed by one acceptor of the non-blocking transport.
+ * New connections are distributed round robin.
+ */
+final class EventLoopGroup implements ConnectionHandler
+{
+    private final EventLoop[] loops;
+    private final ConnectionLimit connectionLimit;
+    private int nextLoop = 0;
+
+    EventLoopGroup(int loopCount, String threadNamePrefix, SessionPool sessionPool, ConnectionLimit connectionLimit,
+            LatencyProfile latencyProfile, LinkProfile linkProfile, SessionTimeouts timeouts, Clock clock)
+            throws IOException
+    {
+        this.loops = new EventLoop[loopCount];
+        this.connectionLimit = connectionLimit;
+
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(sessionPool, connectionLimit, latencyProfile, linkProfile, timeouts, clock);
+            Thread loopThread = new Thread(loops[i]);
+            loopThread.setDaemon(true);
+            loopThread.setName(threadNamePrefix + i);
+            loopThread.start();
+        }
+    }
+
+    @Override
+    public void handle(SocketChannel channel)
+    {
+        if (!connectionLimit.tryAcquire()) {
+            connectionLimit.reject(channel);
+            return;
+        }
+
+        loops[nextLoop].register(channel);
+        nextLoop = (nextLoop + 1) % loops.length;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+/**
+ * A failure the server can be told to simulate instead of answering a command normally,
+ * see {@link FaultProfile}.
+ */
+public final class Fault
+{
+    /**
+     * Closes the connection without answering.
+     */
+    public static final Fault DROP = new Fault(0, "drop");
+
+    /**
+     * Resets the connection without answering, the client sees a connection reset instead of
+     * an orderly close.
+     */
+    public static final Fault RESET = new Fault(0, "reset");
+
+    private final int code;
+    private final String name;
+
+    private Fault(int code, String name)
+    {
+        this.code = code;
+        this.name = name;
+    }
+
+    /**
+     * Answers with an error instead of the normal response, e.g. 421, 450, 451, 452, 550, 552 or 554.
+     * <br>
+     * A rejected command leaves the state as it was. 421 closes the connection afterwards like a
+     * rejected greeting does. A rejected end of message or BDAT chunk discards the message.
+     *
+     * @param code
+     *        a transient (4xx) or permanent (5xx) error code
+     */
+    public static Fault reply(int code)
+    {
+        if (code < 400 || code > 599) {
+            throw new IllegalArgumentException("code must be a 4xx or 5xx error code");
+        }
+        return new Fault(code, Integer.toString(code));
+    }
+
+    /**
+     * Parses the notation of {@link #toString()}: an error code, {@code drop} or {@code reset}.
+     */
+    public static Fault parse(String fault)
+    {
+        if (DROP.name.equalsIgnoreCase(fault)) {
+            return DROP;
+        }
+        if (RESET.name.equalsIgnoreCase(fault)) {
+            return RESET;
+        }
+        try {
+            return reply(Integer.parseInt(fault));
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + fault + "' is not a valid fault, use an error code, drop or reset", e);
+        }
+    }
+
+    /**
+     * @return the error code to answer with, zero if the connection is closed instead
+     */
+    int getCode()
+    {
+        return code;
+    }
+
+    /**
+     * @return the text of the error reply
+     */
+    String getMessage()
+    {
+        switch (code) {
+            case 421:
+                return "Service not available, closing transmission channel";
+            case 450:
+                return "Requested mail action not taken: mailbox unavailable";
+            case 451:
+                return "Requested action aborted: local error in processing";
+            case 452:
+                return "Requested action not taken: insufficient system storage";
+            case 550:
+                return "Requested action not taken: mailbox unavailable";
+            case 552:
+                return "Requested mail action aborted: exceeded storage allocation";
+            case 554:
+                return "Transaction failed";
+            default:
+                return "Injected failure";
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes the server fail commands at random to exercise the error handling of clients,
+ * per command and per state.
+ * <br>
+ * Every command can fail with any number of {@link Fault}s, each with its own probability.
+ * Like in {@link LatencyProfile}, only the faults of the most specific match apply: those for
+ * the command in the state it was received in, then those for the command, then those for the
+ * state. Lines of a message are {@link SmtpCommand#UNRECOGNIZED} or {@link SmtpCommand#BLANK_LINE}
+ * in {@link SmtpState#DATA_HDR} or {@link SmtpState#DATA_BODY}, they do not get a response, so
+ * only {@link Fault#DROP} and {@link Fault#RESET} apply to them.
+ * <br>
+ * Every session draws from its own random number generator, seeded from the seed of the profile
+ * and the number of the session, so a run with the same seed and sequence of sessions fails
+ * the same commands.
+ * <br>
+ * Configure the profile before starting the server, it must not be changed afterwards.
+ */
+public final class FaultProfile
+{
+    private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+    // tolerated rounding error when adding up probabilities
+    private static final double EPSILON = 1e-9;
+
+    private long seed;
+    private final Map<SmtpState, Faults> stateFaults = new EnumMap<>(SmtpState.class);
+    private final Map<SmtpCommand, Faults> commandFaults = new EnumMap<>(SmtpCommand.class);
+    private final Map<SmtpCommand, Map<SmtpState, Faults>> commandStateFaults = new EnumMap<>(SmtpCommand.class);
+    private final AtomicLong sessions = new AtomicLong();
+
+    public FaultProfile(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Parses a comma separated list of {@code <key>=<fault>:<probability>} entries, see
+     * {@link Fault#parse(String)}. The key is a command like {@code RCPT}, a state like
+     * {@code @DATA_BODY} or both like {@code MAIL@QUIT}. A key may be repeated to add more faults.
+     * <br>
+     * Example: {@code RCPT=450:0.05,RCPT=550:0.01,DATA_END=reset:0.01,@DATA_BODY=drop:0.001}
+     */
+    public static FaultProfile parse(String profile, long seed)
+    {
+        requireNonNull(profile, "profile is null");
+        FaultProfile faultProfile = new FaultProfile(seed);
+        for (String entry : profile.split(",")) {
+            int separator = entry.indexOf('=');
+            int probabilitySeparator = entry.lastIndexOf(':');
+            if (separator < 0 || probabilitySeparator < separator) {
+                throw new IllegalArgumentException("'" + entry + "' must have the form <key>=<fault>:<probability>");
+            }
+            String key = entry.substring(0, separator).trim().toUpperCase();
+            Fault fault = Fault.parse(entry.substring(separator + 1, probabilitySeparator).trim());
+            double probability;
+            try {
+                probability = Double.parseDouble(entry.substring(probabilitySeparator + 1).trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("'" + entry + "' does not have a valid probability", e);
+            }
+
+            int at = key.indexOf('@');
+            try {
+                if (at < 0) {
+                    faultProfile.forCommand(SmtpCommand.valueOf(key), fault, probability);
+                }
+                else if (at == 0) {
+                    faultProfile.forState(SmtpState.valueOf(key.substring(1)), fault, probability);
+                }
+                else {
+                    faultProfile.forCommand(SmtpCommand.valueOf(key.substring(0, at)),
+                        SmtpState.valueOf(key.substring(at + 1)), fault, probability);
+                }
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("'" + entry + "' is not a valid fault", e);
+            }
+        }
+        return faultProfile;
+    }
+
+    public FaultProfile withSeed(long seed)
+    {
+        this.seed = seed;
+
+        return this;
+    }
+
+    /**
+     * Fails commands received in the given state.
+     */
+    public FaultProfile forState(SmtpState state, Fault fault, double probability)
+    {
+        requireNonNull(state, "state is null");
+        Faults faults = stateFaults.get(state);
+        if (faults == null) {
+            faults = new Faults();
+            stateFaults.put(state, faults);
+        }
+        faults.add(fault, probability);
+
+        return this;
+    }
+
+    public FaultProfile forCommand(SmtpCommand command, Fault fault, double probability)
+    {
+        requireNonNull(command, "command is null");
+        Faults faults = commandFaults.get(command);
+        if (faults == null) {
+            faults = new Faults();
+            commandFaults.put(command, faults);
+        }
+        faults.add(fault, probability);
+
+        return this;
+    }
+
+    /**
+     * Fails a command received in the given state.
+     */
+    public FaultProfile forCommand(SmtpCommand command, SmtpState state, Fault fault, double probability)
+    {
+        requireNonNull(command, "command is null");
+        requireNonNull(state, "state is null");
+        Map<SmtpState, Faults> faultsByState = commandStateFaults.get(command);
+        if (faultsByState == null) {
+            faultsByState = new EnumMap<>(SmtpState.class);
+            commandStateFaults.put(command, faultsByState);
+        }
+        Faults faults = faultsByState.get(state);
+        if (faults == null) {
+            faults = new Faults();
+            faultsByState.put(state, faults);
+        }
+        faults.add(fault, probability);
+
+        return this;
+    }
+
+    /**
+     * @return the faults of the next session
+     */
+    Injector newInjector()
+    {
+        return new Injector(this, new Random(seed + sessions.getAndIncrement() * SEED_INCREMENT));
+    }
+
+    private Faults faults(SmtpCommand command, SmtpState state)
+    {
+        Map<SmtpState, Faults> faultsByState = commandStateFaults.get(command);
+        Faults faults = faultsByState != null ? faultsByState.get(state) : null;
+        if (faults == null) {
+            faults = commandFaults.get(command);
+        }
+        if (faults == null) {
+            faults = stateFaults.get(state);
+        }
+        return faults;
+    }
+
+    /**
+     * Decides which commands of a single session fail. Not thread safe.
+     */
+    static final class Injector
+    {
+        private final FaultProfile profile;
+        private final Random random;
+
+        private Injector(FaultProfile profile, Random random)
+        {
+            this.profile = profile;
+            this.random = random;
+        }
+
+        /**
+         * @return the fault to inject for a command received in the given state, null to handle it normally
+         */
+        Fault next(SmtpCommand command, SmtpState state)
+        {
+            Faults faults = profile.faults(command, state);
+            return faults != null ? faults.pick(random.nextDouble()) : null;
+        }
+    }
+
+    /**
+     * Mutually exclusive faults of one command or state.
+     */
+    private static final class Faults
+    {
+        private Fault[] faults = new Fault[0];
+        // cumulative probabilities, faults[i] is picked for values below upperBounds[i]
+        private double[] upperBounds = new double[0];
+
+        void add(Fault fault, double probability)
+        {
+            requireNonNull(fault, "fault is null");
+            if (!(probability >= 0 && probability <= 1)) {
+                throw new IllegalArgumentException("probability must be between 0 and 1");
+            }
+            double total = upperBounds.length > 0 ? upperBounds[upperBounds.length - 1] : 0;
+            if (total + probability > 1 + EPSILON) {
+                throw new IllegalArgumentException("the probabilities of all faults of a command must add up to 1 at most");
+            }
+
+            faults = Arrays.copyOf(faults, faults.length + 1);
+            faults[faults.length - 1] = fault;
+            upperBounds = Arrays.copyOf(upperBounds, upperBounds.length + 1);
+            upperBounds[upperBounds.length - 1] = total + probability;
+        }
+
+        Fault pick(double value)
+        {
+            for (int i = 0; i < faults.length; i++) {
+                if (value < upperBounds[i]) {
+                    return faults[i];
+                }
+            }
+            return null;
+        }
+    }
+}
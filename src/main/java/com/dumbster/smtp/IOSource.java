@@ -15,13 +15,62 @@ package com.dumbster.smtp;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 
+/**
+ * The connection to a client.
+ * <br>
+ * Implementations provide its character streams. The server reads and writes bytes through
+ * {@link #getLineReader(byte[])} and {@link #getResponseStream()}, which by default map the bytes
+ * to the characters of ISO-8859-1 one to one. Override them to spare the decoding and encoding.
+ */
 public interface IOSource
 {
     BufferedReader getInputStream() throws IOException;
 
     PrintWriter getOutputStream() throws IOException;
 
+    /**
+     * Defaults to reading the characters of {@link #getInputStream()} as bytes.
+     */
+    default LineReader getLineReader() throws IOException
+    {
+        return new LineReader(CharStreams.asInputStream(getInputStream()));
+    }
+
+    /**
+     * Like {@link #getLineReader()}, but reading into the given buffer, which the session takes from
+     * and returns to its pool.
+     */
+    default LineReader getLineReader(byte[] buffer) throws IOException
+    {
+        return new LineReader(CharStreams.asInputStream(getInputStream()), buffer);
+    }
+
+    /**
+     * Defaults to writing the bytes to {@link #getOutputStream()} as characters.
+     */
+    default OutputStream getResponseStream() throws IOException
+    {
+        return CharStreams.asOutputStream(getOutputStream());
+    }
+
     void close() throws IOException;
+
+    /**
+     * Tells the source whether the content of a message is read next, e.g. to throttle it differently.
+     */
+    default void receivingMessage(boolean receivingMessage)
+    {
+        // nothing to do by default
+    }
+
+    /**
+     * Closes the connection so that the client sees a connection reset, see {@link Fault#RESET}.
+     */
+    default void abort() throws IOException
+    {
+        close();
+    }
 }
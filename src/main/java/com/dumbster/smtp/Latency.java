@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.lang.String.format;
+import static java.util.Objects.requireNonNull;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A distribution of response delays, see {@link LatencyProfile}.
+ */
+public abstract class Latency
+{
+    /**
+     * No delay at all.
+     */
+    public static final Latency NONE = fixed(0);
+
+    // z-score of the 99th percentile of the standard normal distribution
+    private static final double P99_Z = 2.3263478740408408;
+
+    /**
+     * @return a delay sampled from this distribution, using the given random number generator only
+     */
+    public abstract long sampleNanos(Random random);
+
+    /**
+     * @return the same delay every time
+     */
+    public static Latency fixed(long millis)
+    {
+        if (millis < 0) {
+            throw new IllegalArgumentException("millis must be >= 0");
+        }
+        final long nanos = TimeUnit.MILLISECONDS.toNanos(millis);
+        final String description = format("fixed:%d", millis);
+
+        return new Latency() {
+            @Override
+            public long sampleNanos(Random random)
+            {
+                return nanos;
+            }
+
+            @Override
+            public String toString()
+            {
+                return description;
+            }
+        };
+    }
+
+    /**
+     * A log-normal distribution, which models the long tail of real mail servers: most replies
+     * are close to the median, a few take many times longer.
+     *
+     * @param medianMillis
+     *        half of the delays are shorter than this
+     * @param p99Millis
+     *        99 percent of the delays are shorter than this
+     */
+    public static Latency logNormal(long medianMillis, long p99Millis)
+    {
+        if (medianMillis <= 0) {
+            throw new IllegalArgumentException("medianMillis must be > 0");
+        }
+        if (p99Millis < medianMillis) {
+            throw new IllegalArgumentException("p99Millis must be >= medianMillis");
+        }
+        final double mu = Math.log(TimeUnit.MILLISECONDS.toNanos(medianMillis));
+        final double sigma = Math.log((double) p99Millis / medianMillis) / P99_Z;
+        final String description = format("lognormal:%d:%d", medianMillis, p99Millis);
+
+        return new Latency() {
+            @Override
+            public long sampleNanos(Random random)
+            {
+                return (long) Math.exp(mu + sigma * random.nextGaussian());
+            }
+
+            @Override
+            public String toString()
+            {
+                return description;
+            }
+        };
+    }
+
+    /**
+     * Parses the notation of {@link #toString()}: {@code fixed:<ms>} or {@code lognormal:<median ms>:<p99 ms>}.
+     */
+    public static Latency parse(String latency)
+    {
+        requireNonNull(latency, "latency is null");
+        String[] values = latency.split(":");
+        try {
+            if (values.length == 2 && values[0].equalsIgnoreCase("fixed")) {
+                return fixed(Long.parseLong(values[1]));
+            }
+            if (values.length == 3 && values[0].equalsIgnoreCase("lognormal")) {
+                return logNormal(Long.parseLong(values[1]), Long.parseLong(values[2]));
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + latency + "' is not a valid latency", e);
+        }
+        throw new IllegalArgumentException("'" + latency + "' is not a valid latency, use fixed:<ms> or lognormal:<median ms>:<p99 ms>");
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delays the responses of the server to simulate a slow mail server, per command and per state.
+ * <br>
+ * The most specific latency wins: the one for a command in the state it was received in,
+ * then the one for the command, then the one for the state and finally the default.
+ * The greeting is the response to {@link SmtpCommand#CONNECT}, the response to the end of
+ * a message the one to {@link SmtpCommand#DATA_END}.
+ * <br>
+ * Every session samples from its own random number generator, seeded from the seed of the
+ * profile and the number of the session. A run with the same seed and the same sequence of
+ * sessions therefore sees the same delays. Delays never block the non-blocking transport,
+ * a session of the blocking transport sleeps on its own thread.
+ * <br>
+ * Configure the profile before starting the server, it must not be changed afterwards.
+ */
+public final class LatencyProfile
+{
+    private static final long SEED_INCREMENT = 0x9E3779B97F4A7C15L;
+
+    private long seed;
+    private Latency defaultLatency = Latency.NONE;
+    private final Map<SmtpState, Latency> stateLatencies = new EnumMap<>(SmtpState.class);
+    private final Map<SmtpCommand, Latency> commandLatencies = new EnumMap<>(SmtpCommand.class);
+    private final Map<SmtpCommand, Map<SmtpState, Latency>> commandStateLatencies = new EnumMap<>(SmtpCommand.class);
+    private final AtomicLong sessions = new AtomicLong();
+
+    public LatencyProfile(long seed)
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * @return a profile delaying every response by the same time
+     */
+    public static LatencyProfile fixed(long millis)
+    {
+        return new LatencyProfile(0).withDefault(Latency.fixed(millis));
+    }
+
+    /**
+     * Parses a comma separated list of {@code <key>=<latency>} entries, see {@link Latency#parse(String)}.
+     * The key is either {@code *} for the default, a command like {@code RCPT}, a state like
+     * {@code @DATA_BODY} or both like {@code NOOP@GREET}.
+     * <br>
+     * Example: {@code RCPT=fixed:5,DATA_END=lognormal:200:2000}
+     */
+    public static LatencyProfile parse(String profile, long seed)
+    {
+        requireNonNull(profile, "profile is null");
+        LatencyProfile latencyProfile = new LatencyProfile(seed);
+        for (String entry : profile.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("'" + entry + "' must have the form <key>=<latency>");
+            }
+            String key = entry.substring(0, separator).trim().toUpperCase();
+            Latency latency = Latency.parse(entry.substring(separator + 1).trim());
+
+            int at = key.indexOf('@');
+            try {
+                if (key.equals("*")) {
+                    latencyProfile.withDefault(latency);
+                }
+                else if (at < 0) {
+                    latencyProfile.forCommand(SmtpCommand.valueOf(key), latency);
+                }
+                else if (at == 0) {
+                    latencyProfile.forState(SmtpState.valueOf(key.substring(1)), latency);
+                }
+                else {
+                    latencyProfile.forCommand(SmtpCommand.valueOf(key.substring(0, at)),
+                        SmtpState.valueOf(key.substring(at + 1)), latency);
+                }
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("'" + key + "' is not a known command or state", e);
+            }
+        }
+        return latencyProfile;
+    }
+
+    public LatencyProfile withSeed(long seed)
+    {
+        this.seed = seed;
+
+        return this;
+    }
+
+    public LatencyProfile withDefault(Latency latency)
+    {
+        this.defaultLatency = requireNonNull(latency, "latency is null");
+
+        return this;
+    }
+
+    /**
+     * Sets the latency of all commands received in the given state.
+     */
+    public LatencyProfile forState(SmtpState state, Latency latency)
+    {
+        requireNonNull(state, "state is null");
+        stateLatencies.put(state, requireNonNull(latency, "latency is null"));
+
+        return this;
+    }
+
+    public LatencyProfile forCommand(SmtpCommand command, Latency latency)
+    {
+        requireNonNull(command, "command is null");
+        commandLatencies.put(command, requireNonNull(latency, "latency is null"));
+
+        return this;
+    }
+
+    /**
+     * Sets the latency of a command received in the given state.
+     */
+    public LatencyProfile forCommand(SmtpCommand command, SmtpState state, Latency latency)
+    {
+        requireNonNull(command, "command is null");
+        requireNonNull(state, "state is null");
+        requireNonNull(latency, "latency is null");
+        Map<SmtpState, Latency> latencies = commandStateLatencies.get(command);
+        if (latencies == null) {
+            latencies = new EnumMap<>(SmtpState.class);
+            commandStateLatencies.put(command, latencies);
+        }
+        latencies.put(state, latency);
+
+        return this;
+    }
+
+    /**
+     * @return the latency of a command received in the given state
+     */
+    public Latency latency(SmtpCommand command, SmtpState state)
+    {
+        Map<SmtpState, Latency> latencies = commandStateLatencies.get(command);
+        Latency latency = latencies != null ? latencies.get(state) : null;
+        if (latency == null) {
+            latency = commandLatencies.get(command);
+        }
+        if (latency == null) {
+            latency = stateLatencies.get(state);
+        }
+        return latency != null ? latency : defaultLatency;
+    }
+
+    /**
+     * @return the delays of the next session
+     */
+    Sampler newSampler()
+    {
+        return new Sampler(this, new Random(seed + sessions.getAndIncrement() * SEED_INCREMENT));
+    }
+
+    /**
+     * Samples the delays of a single session. Not thread safe.
+     */
+    static final class Sampler
+    {
+        private final LatencyProfile profile;
+        private final Random random;
+
+        private Sampler(LatencyProfile profile, Random random)
+        {
+            this.profile = profile;
+            this.random = random;
+        }
+
+        /**
+         * @return the delay of the response to the last command of the conversation
+         */
+        long nextDelayNanos(SmtpConversation conversation)
+        {
+            return profile.latency(conversation.getLastCommand(), conversation.getLastCommandState())
+                .sampleNanos(random);
+        }
+    }
+}
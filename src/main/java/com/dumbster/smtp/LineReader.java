@@ -0,0 +1,270 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits client input into lines without decoding it.
+ * <br>
+ * Lines end with LF, an optional CR in front of it is stripped. The current line is a slice
+ * of the internal buffer ({@link #buffer()}, {@link #lineStart()}, {@link #lineLength()}) and
+ * stays valid until the next line is read. The buffer is reused and only grows for lines that
+ * do not fit into it.
+ * <br>
+ * Binary data such as BDAT chunks is handed out the same way by {@link #readChunk(long)}.
+ * <br>
+ * A reader either pulls from an {@link InputStream} ({@link #readLine()}) or is filled from a
+ * non-blocking channel ({@link #fill(ReadableByteChannel)}, {@link #nextBufferedLine()}).
+ */
+public class LineReader
+{
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final InputStream in;
+    private byte[] buffer;
+    private ByteBuffer channelBuffer;
+
+    // unconsumed input is buffer[position, limit)
+    private int position = 0;
+    private int limit = 0;
+
+    private int lineStart = 0;
+    private int lineLength = 0;
+
+    public LineReader(InputStream in)
+    {
+        this(in, DEFAULT_BUFFER_SIZE);
+    }
+
+    public LineReader(InputStream in, int bufferSize)
+    {
+        this(in, new byte[bufferSize]);
+    }
+
+    /**
+     * @param buffer
+     *        the initial buffer, e.g. taken from a pool. See {@link #buffer()} for the buffer in use
+     *        once the reader is done, it is replaced for lines that do not fit.
+     */
+    public LineReader(InputStream in, byte[] buffer)
+    {
+        this.in = in;
+        this.buffer = buffer;
+    }
+
+    /**
+     * Creates a reader that is filled from a channel.
+     */
+    LineReader(byte[] buffer)
+    {
+        this(null, buffer);
+    }
+
+    /**
+     * Reads the next line, blocking until it is complete.
+     * At the end of the stream, remaining input without line terminator is returned as last line.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    public boolean readLine() throws IOException
+    {
+        int scanned = 0;
+        while (true) {
+            int newline = indexOfNewline(position + scanned);
+            if (newline >= 0) {
+                consumeLine(newline);
+                return true;
+            }
+
+            scanned = limit - position;
+            if (in == null || fillFromStream() < 0) {
+                if (limit > position) {
+                    lineStart = position;
+                    lineLength = limit - position;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Moves to the next line if it has already been buffered completely. Never blocks.
+     *
+     * @return false if no complete line is buffered
+     */
+    boolean nextBufferedLine()
+    {
+        int newline = indexOfNewline(position);
+        if (newline < 0) {
+            return false;
+        }
+        consumeLine(newline);
+        return true;
+    }
+
+    /**
+     * Reads up to {@code maxLength} bytes of binary data, blocking until at least one byte is available.
+     * The bytes become the current slice, line terminators have no special meaning.
+     *
+     * @return false if the end of the stream has been reached
+     */
+    public boolean readChunk(long maxLength) throws IOException
+    {
+        if (position == limit && (in == null || fillFromStream() < 0)) {
+            return false;
+        }
+        consumeChunk(maxLength);
+        return true;
+    }
+
+    /**
+     * Moves to the next up to {@code maxLength} bytes of binary data that have already been buffered.
+     * Never blocks.
+     *
+     * @return false if nothing is buffered
+     */
+    boolean nextBufferedChunk(long maxLength)
+    {
+        if (position == limit) {
+            return false;
+        }
+        consumeChunk(maxLength);
+        return true;
+    }
+
+    /**
+     * @return true if the next line has already been buffered completely, so that reading it does not block
+     */
+    public boolean hasBufferedLine()
+    {
+        return indexOfNewline(position) >= 0;
+    }
+
+    /**
+     * Reads whatever the channel has available into the buffer.
+     *
+     * @return the number of bytes read or -1 at the end of the stream
+     */
+    int fill(ReadableByteChannel channel) throws IOException
+    {
+        return fill(channel, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads up to {@code maxLength} of the bytes the channel has available into the buffer.
+     *
+     * @return the number of bytes read or -1 at the end of the stream
+     */
+    int fill(ReadableByteChannel channel, int maxLength) throws IOException
+    {
+        makeRoom();
+        if (channelBuffer == null || channelBuffer.array() != buffer) {
+            channelBuffer = ByteBuffer.wrap(buffer);
+        }
+        channelBuffer.limit((int) Math.min(buffer.length, (long) limit + maxLength)).position(limit);
+
+        int read = channel.read(channelBuffer);
+        if (read > 0) {
+            limit += read;
+        }
+        return read;
+    }
+
+    /**
+     * @return the buffer holding the current line
+     */
+    public byte[] buffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * @return start of the current line or chunk in the buffer
+     */
+    public int lineStart()
+    {
+        return lineStart;
+    }
+
+    /**
+     * @return length of the current line without line terminator, or of the current chunk
+     */
+    public int lineLength()
+    {
+        return lineLength;
+    }
+
+    /**
+     * @return the current line decoded as ISO-8859-1
+     */
+    public String lineAsString()
+    {
+        return new String(buffer, lineStart, lineLength, StandardCharsets.ISO_8859_1);
+    }
+
+    private int indexOfNewline(int from)
+    {
+        for (int i = from; i < limit; i++) {
+            if (buffer[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void consumeLine(int newline)
+    {
+        int lineEnd = newline > position && buffer[newline - 1] == '\r' ? newline - 1 : newline;
+        lineStart = position;
+        lineLength = lineEnd - position;
+        position = newline + 1;
+    }
+
+    private void consumeChunk(long maxLength)
+    {
+        lineStart = position;
+        lineLength = (int) Math.min(maxLength, limit - position);
+        position += lineLength;
+    }
+
+    private int fillFromStream() throws IOException
+    {
+        makeRoom();
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read > 0) {
+            limit += read;
+        }
+        return read;
+    }
+
+    private void makeRoom()
+    {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+    }
+}
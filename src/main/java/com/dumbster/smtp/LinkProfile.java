@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates a constrained link to every client: caps on the rates at which the server reads
+ * and writes, a tarpit that trickles responses out one byte at a time and a slow drain of
+ * message content.
+ * <br>
+ * Every connection gets its own token buckets. The non-blocking transport pauses a throttled
+ * connection on the timing wheel of its event loop, so any number of connections can be
+ * throttled by a few threads. The blocking transport sleeps on the thread of the session.
+ * <br>
+ * A rate of zero means unlimited.
+ */
+public final class LinkProfile
+{
+    private long readBytesPerSecond = 0;
+    private long writeBytesPerSecond = 0;
+    private long dataBytesPerSecond = 0;
+    private long tarpitNanosPerByte = 0;
+
+    /**
+     * Parses a comma separated list of {@code <setting>=<value>} entries: {@code read}, {@code write}
+     * and {@code data} in bytes per second, {@code tarpit} in milliseconds per byte.
+     * <br>
+     * Example: {@code read=56000,write=56000,data=8000}
+     */
+    public static LinkProfile parse(String profile)
+    {
+        requireNonNull(profile, "profile is null");
+        LinkProfile linkProfile = new LinkProfile();
+        for (String entry : profile.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("'" + entry + "' must have the form <setting>=<value>");
+            }
+            String setting = entry.substring(0, separator).trim();
+            long value;
+            try {
+                value = Long.parseLong(entry.substring(separator + 1).trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("'" + entry + "' does not have a valid number", e);
+            }
+
+            if (setting.equalsIgnoreCase("read")) {
+                linkProfile.withReadRate(value);
+            }
+            else if (setting.equalsIgnoreCase("write")) {
+                linkProfile.withWriteRate(value);
+            }
+            else if (setting.equalsIgnoreCase("data")) {
+                linkProfile.withDataReadRate(value);
+            }
+            else if (setting.equalsIgnoreCase("tarpit")) {
+                linkProfile.withTarpit(value);
+            }
+            else {
+                throw new IllegalArgumentException("'" + setting + "' is not a valid setting, use read, write, data or tarpit");
+            }
+        }
+        return linkProfile;
+    }
+
+    /**
+     * Caps the rate at which the server reads from a client.
+     */
+    public LinkProfile withReadRate(long bytesPerSecond)
+    {
+        this.readBytesPerSecond = checkRate(bytesPerSecond);
+
+        return this;
+    }
+
+    /**
+     * Caps the rate at which the server writes to a client.
+     */
+    public LinkProfile withWriteRate(long bytesPerSecond)
+    {
+        this.writeBytesPerSecond = checkRate(bytesPerSecond);
+
+        return this;
+    }
+
+    /**
+     * Caps the rate at which the server reads the content of a message, after DATA and of BDAT
+     * chunks. Replaces the read rate while it applies.
+     */
+    public LinkProfile withDataReadRate(long bytesPerSecond)
+    {
+        this.dataBytesPerSecond = checkRate(bytesPerSecond);
+
+        return this;
+    }
+
+    /**
+     * Writes responses one byte at a time with a pause after every byte. Replaces the write rate.
+     */
+    public LinkProfile withTarpit(long millisPerByte)
+    {
+        if (millisPerByte < 0) {
+            throw new IllegalArgumentException("millisPerByte must be >= 0");
+        }
+        this.tarpitNanosPerByte = TimeUnit.MILLISECONDS.toNanos(millisPerByte);
+
+        return this;
+    }
+
+    /**
+     * @return a bucket for reading commands, null if unlimited
+     */
+    TokenBucket newReadBucket(long nowNanos)
+    {
+        return readBytesPerSecond > 0 ? TokenBucket.forRate(readBytesPerSecond, nowNanos) : null;
+    }
+
+    /**
+     * @return a bucket for reading message content, null if it is read like commands
+     */
+    TokenBucket newDataBucket(long nowNanos)
+    {
+        return dataBytesPerSecond > 0 ? TokenBucket.forRate(dataBytesPerSecond, nowNanos) : null;
+    }
+
+    /**
+     * @return a bucket for writing, null if unlimited
+     */
+    TokenBucket newWriteBucket(long nowNanos)
+    {
+        if (tarpitNanosPerByte > 0) {
+            return new TokenBucket(tarpitNanosPerByte, 1, nowNanos);
+        }
+        return writeBytesPerSecond > 0 ? TokenBucket.forRate(writeBytesPerSecond, nowNanos) : null;
+    }
+
+    private static long checkRate(long bytesPerSecond)
+    {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bytesPerSecond must be >= 0");
+        }
+        return bytesPerSecond;
+    }
+}
@@ -13,6 +13,7 @@
  */
 package com.dumbster.smtp;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 
 public interface MailMessage
@@ -50,6 +51,33 @@ public interface MailMessage
      */
     String getBody();
 
+    /**
+     * Returns the length of the body without building it.
+     *
+     * @return the number of characters of the body.
+     */
+    default int getBodyLength()
+    {
+        return getBody().length();
+    }
+
+    /**
+     * Returns the size of the message as it was received, which may be more than the message keeps.
+     *
+     * @return the number of characters of the header names, header values and body received.
+     */
+    default long getReceivedLength()
+    {
+        long length = getBodyLength();
+        for (Iterator<String> names = getHeaderNames(); names.hasNext();) {
+            String name = names.next();
+            for (String value : getHeaderValues(name)) {
+                length += name.length() + value.length();
+            }
+        }
+        return length;
+    }
+
     /**
      * Adds a header to the message
      *
@@ -82,4 +110,39 @@ public interface MailMessage
      */
     void appendBody(String line);
 
+    /**
+     * Appends a line of raw ISO-8859-1 encoded bytes to the body.
+     * Behaves like {@code appendBody(String)} for the decoded text.
+     * The bytes are only valid during the call and must be copied if they are kept.
+     *
+     * @param line
+     *        is the buffer holding the text to append.
+     * @param offset
+     *        is the start of the text in the buffer.
+     * @param length
+     *        is the length of the text.
+     */
+    default void appendBody(byte[] line, int offset, int length)
+    {
+        appendBody(new String(line, offset, length, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Appends a part of the body received as BDAT chunk (RFC-3030).
+     * Unlike {@code appendBody} the bytes are appended as they are, line breaks included,
+     * so a message may receive a line in several parts.
+     * The bytes are only valid during the call and must be copied if they are kept.
+     *
+     * @param chunk
+     *        is the buffer holding the content to append.
+     * @param offset
+     *        is the start of the content in the buffer.
+     * @param length
+     *        is the length of the content.
+     */
+    default void appendBodyChunk(byte[] chunk, int offset, int length)
+    {
+        appendBody(chunk, offset, length);
+    }
+
 }
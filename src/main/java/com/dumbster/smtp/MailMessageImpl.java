@@ -29,12 +29,47 @@ import java.util.Set;
 public class MailMessageImpl implements MailMessage
 {
     private Map<String, List<String>> headers;
-    private StringBuffer body;
+    private StringBuilder body;
 
     public MailMessageImpl()
     {
         headers = new HashMap<String, List<String>>(10);
-        body = new StringBuffer();
+        body = new StringBuilder();
+    }
+
+    /**
+     * Creates an independent copy of the given message.
+     *
+     * @param source
+     *        the message to copy
+     */
+    protected MailMessageImpl(MailMessageImpl source)
+    {
+        headers = new HashMap<String, List<String>>(Math.max(10, source.headers.size() * 2));
+        for (Map.Entry<String, List<String>> entry : source.headers.entrySet()) {
+            headers.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+        }
+        body = new StringBuilder(source.body);
+    }
+
+    /**
+     * Copies the message, so that the copy can be handed out while this instance is
+     * {@link #reset()} and filled again.
+     *
+     * @return a copy that is not affected by later changes to this message
+     */
+    public MailMessageImpl copy()
+    {
+        return new MailMessageImpl(this);
+    }
+
+    /**
+     * Removes all headers and the body, keeping the allocated capacity for the next message.
+     */
+    public void reset()
+    {
+        headers.clear();
+        body.setLength(0);
     }
 
     @Override
@@ -75,6 +110,12 @@ public class MailMessageImpl implements MailMessage
         return body.toString();
     }
 
+    @Override
+    public int getBodyLength()
+    {
+        return body.length();
+    }
+
     @Override
     public void addHeader(String name, String value)
     {
@@ -110,6 +151,29 @@ public class MailMessageImpl implements MailMessage
         body.append(line);
     }
 
+    @Override
+    public void appendBody(byte[] line, int offset, int length)
+    {
+        if (body.length() > 0 && length > 0 && !(length == 1 && line[offset] == '\n')) {
+            body.append('\n');
+        }
+        appendLatin1(line, offset, length);
+    }
+
+    @Override
+    public void appendBodyChunk(byte[] chunk, int offset, int length)
+    {
+        appendLatin1(chunk, offset, length);
+    }
+
+    private void appendLatin1(byte[] bytes, int offset, int length)
+    {
+        body.ensureCapacity(body.length() + length);
+        for (int i = offset; i < offset + length; i++) {
+            body.append((char) (bytes[i] & 0xff));
+        }
+    }
+
     private boolean shouldPrependNewline(String line)
     {
         return body.length() > 0 && line.length() > 0 && !"\n".equals(line);
@@ -13,6 +13,13 @@
  */
 package com.dumbster.smtp;
 
+import static java.util.Objects.requireNonNull;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
 public interface MailStore
 {
     int getEmailCount();
@@ -23,5 +30,173 @@ public interface MailStore
 
     MailMessage getMessage(int index);
 
+    /**
+     * Returns up to {@code count} messages starting at index {@code from}, fewer if the store ends before.
+     * <br>
+     * The default implementation copies all messages, stores should override it.
+     */
+    default MailMessage[] getMessages(int from, int count)
+    {
+        if (from < 0) {
+            throw new IllegalArgumentException("from must be >= 0");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0");
+        }
+
+        MailMessage[] messages = getMessages();
+        int start = Math.min(from, messages.length);
+        return Arrays.copyOfRange(messages, start, (int) Math.min((long) start + count, messages.length));
+    }
+
+    /**
+     * Returns the messages stored at the time of the call. Messages removed from the store before
+     * the stream reaches them may be skipped.
+     * <br>
+     * The default implementation copies all messages, stores should override it.
+     */
+    default Stream<MailMessage> stream()
+    {
+        return Arrays.stream(getMessages());
+    }
+
+    /**
+     * Returns the messages stored after the one with the given sequence number, oldest first.
+     * Pass 0 for all messages, or the sequence number of the last message seen to only get newer ones.
+     * <br>
+     * The default implementation numbers the messages by their position in {@link #getMessages()}, starting
+     * at 1, and reports 0 as the time they were received. Its numbers only serve as cursor as long as the
+     * store does not drop messages, stores should override it.
+     */
+    default StoredMessage[] getMessagesSince(long sequenceNumber)
+    {
+        if (sequenceNumber < 0) {
+            throw new IllegalArgumentException("sequenceNumber must be >= 0");
+        }
+
+        MailMessage[] messages = getMessages();
+        int start = (int) Math.min(sequenceNumber, messages.length);
+        StoredMessage[] stored = new StoredMessage[messages.length - start];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = new StoredMessage(start + i + 1, 0, messages[start + i]);
+        }
+        return stored;
+    }
+
+    /**
+     * Waits in real time until the store holds at least {@code count} messages.
+     * <br>
+     * The default implementation checks once per millisecond, stores should override it.
+     *
+     * @return false if the timeout passed before
+     */
+    default boolean awaitMessageCount(int count, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        requireNonNull(unit, "unit is null");
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getEmailCount() < count) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    /**
+     * Waits in real time for a message matching the predicate, looking at the messages stored already first.
+     * <br>
+     * The default implementation checks once per millisecond, stores should override it.
+     *
+     * @return the first matching message or null if the timeout passed before
+     */
+    default MailMessage awaitMessage(Predicate<? super MailMessage> predicate, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        requireNonNull(predicate, "predicate is null");
+        requireNonNull(unit, "unit is null");
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int seen = 0;
+        while (true) {
+            if (getEmailCount() < seen) {
+                // cleared since
+                seen = 0;
+            }
+            MailMessage[] messages = getMessages(seen, Integer.MAX_VALUE);
+            for (MailMessage message : messages) {
+                if (predicate.test(message)) {
+                    return message;
+                }
+            }
+            seen += messages.length;
+
+            if (System.nanoTime() - deadline >= 0) {
+                return null;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Delivers the messages stored from now on to the subscriber, buffering up to 256 of them.
+     */
+    default MessageSubscription subscribe(MessageSubscriber subscriber)
+    {
+        return subscribe(subscriber, 256);
+    }
+
+    /**
+     * Delivers the messages stored from now on to the subscriber.
+     * <br>
+     * The default implementation looks for new messages every 10 milliseconds from a thread of its own,
+     * using {@link #getMessagesSince(long)}. Stores should override it.
+     *
+     * @param bufferSize
+     *        the number of messages kept for the subscriber until it requests them
+     */
+    default MessageSubscription subscribe(MessageSubscriber subscriber, int bufferSize)
+    {
+        return PollingSubscription.start(this, subscriber, bufferSize);
+    }
+
+    /**
+     * Tells the listener about every message stored from now on, as long as it keeps up.
+     */
+    default MessageSubscription subscribe(final MessageListener listener)
+    {
+        requireNonNull(listener, "listener is null");
+
+        return subscribe(new MessageSubscriber() {
+            @Override
+            public void onSubscribe(MessageSubscription subscription)
+            {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onMessage(MailMessage message)
+            {
+                listener.messageReceived(message);
+            }
+        });
+    }
+
+    /**
+     * Removes up to {@code count} of the oldest messages, e.g. to free memory.
+     * <br>
+     * The default implementation removes nothing, stores should override it.
+     *
+     * @return the number of messages removed
+     */
+    default int evictOldestMessages(int count)
+    {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0");
+        }
+        return 0;
+    }
+
     void clearMessages();
 }
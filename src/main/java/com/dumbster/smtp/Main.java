@@ -64,6 +64,27 @@ public class Main
         System.out.println("\tEMLMailStore Save messages in EML files");
         System.out.println();
         System.out.println("\t--threaded=false Forces the SMTP server to be single-threaded.");
+        System.out.println("\t--virtualThreads Run every client session on its own virtual thread (JDK 21+).");
+        System.out.println("\t--acceptors=<n> Number of threads accepting connections, using SO_REUSEPORT where available.");
+        System.out.println("\t--maxSessions=<n> Maximum number of concurrent sessions. Defaults to 10 threads.");
+        System.out.println("\t--maxQueuedSessions=<n> Maximum number of connections waiting for a session, more are rejected with 421.");
+        System.out.println("\t--nonBlocking Serve connections from selector based event loops instead of one thread per connection.");
+        System.out.println("\t--eventLoops=<n> Number of event loop threads used by --nonBlocking. Defaults to the number of CPUs.");
+        System.out.println("\t--idleTimeout=<ms> Close connections without any traffic for this long. Defaults to 10000, 0 disables it.");
+        System.out.println("\t--commandTimeout=<ms> Close connections whose client takes longer to send the next command. Disabled by default.");
+        System.out.println("\t--sessionTimeout=<ms> Close connections that have been open for this long. Disabled by default.");
+        System.out.println("\t--latency=<key>=<latency>,... Delay responses, e.g. RCPT=fixed:5,DATA_END=lognormal:200:2000.");
+        System.out.println("\t\tKeys: * (default), a command, @<state> or <command>@<state>.");
+        System.out.println("\t\tA delayed session keeps its thread of the pool, e.g. 10 threads at 1 s serve 10 replies per second.");
+        System.out.println("\t\tUse --nonBlocking or --virtualThreads for delays that do not block a thread.");
+        System.out.println("\t--latencySeed=<n> Seed for sampling the latencies. Defaults to 0.");
+        System.out.println("\t--faults=<key>=<fault>:<probability>,... Fail commands at random, e.g. RCPT=450:0.05,DATA_END=reset:0.01.");
+        System.out.println("\t\tFaults: an error code, drop or reset. Keys: a command, @<state> or <command>@<state>.");
+        System.out.println("\t--faultSeed=<n> Seed for choosing the failing commands. Defaults to 0.");
+        System.out.println("\t--link=<setting>=<value>,... Throttle connections, e.g. read=56000,write=56000,data=8000,tarpit=100.");
+        System.out.println("\t\tRates in bytes per second, tarpit in milliseconds per byte of a response.");
+        System.out.println("\t--memory=<stage>=<percent>,... Shed load while the heap is full, e.g. evict=70,headers=80,reject=90.");
+        System.out.println("\t\tStages: evict the oldest messages, store headers only, reject messages with 452.");
     }
 
 }
@@ -0,0 +1,334 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Sheds load of a {@link SmtpServer} while the heap runs full, as configured by a {@link MemoryProfile}.
+ * <br>
+ * The heap pools that support usage thresholds, usually only the old generation, get the lowest
+ * threshold of the profile. The JVM notifies when a pool exceeds it after a collection, or when it
+ * grows beyond it if the pool does not report its usage after collections. The usage is checked
+ * once a second as well, because there is no notification when it falls again.
+ * <br>
+ * The usage of a pool is the smaller of its current usage and its usage after the last collection,
+ * so that neither garbage that has not been collected yet nor a stale collection result causes
+ * load to be shed. The highest usage of all pools decides the {@link Level}.
+ * <br>
+ * Changing the thresholds of the pools affects the whole JVM, the previous ones are restored when
+ * the server stops.
+ */
+public final class MemoryPressure implements NotificationListener
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MemoryPressure.class);
+
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+    // percent the usage has to fall below a threshold to leave its level
+    static final int RECOVERY_MARGIN = 5;
+
+    /**
+     * The stages of shedding load, each includes the ones before.
+     */
+    public enum Level
+    {
+        NORMAL,
+        EVICT,
+        HEADERS_ONLY,
+        REJECT
+    }
+
+    private final MemoryProfile profile;
+    private final MailStore mailStore;
+    private volatile Level level = Level.NORMAL;
+    private final AtomicLongArray transitions = new AtomicLongArray(Level.values().length);
+    private final AtomicLong evictedMessages = new AtomicLong();
+    private final AtomicLong truncatedMessages = new AtomicLong();
+    private final AtomicLong rejectedMessages = new AtomicLong();
+
+    // set while started
+    private final List<MemoryPoolMXBean> pools = new ArrayList<>();
+    private final List<Long> previousThresholds = new ArrayList<>();
+    private ScheduledExecutorService checks = null;
+
+    /**
+     * @param profile
+     *        the thresholds, null if load is never shed
+     * @param mailStore
+     *        store whose oldest messages are evicted
+     */
+    MemoryPressure(MemoryProfile profile, MailStore mailStore)
+    {
+        this.profile = profile;
+        this.mailStore = mailStore;
+    }
+
+    /**
+     * @return how much load is shed right now
+     */
+    public Level getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @return how often the level has been entered, from above or below
+     */
+    public long getTransitions(Level level)
+    {
+        return transitions.get(level.ordinal());
+    }
+
+    /**
+     * @return number of messages evicted from the store
+     */
+    public long getEvictedMessages()
+    {
+        return evictedMessages.get();
+    }
+
+    /**
+     * @return number of messages stored without their body
+     */
+    public long getTruncatedMessages()
+    {
+        return truncatedMessages.get();
+    }
+
+    /**
+     * @return number of messages rejected with 452
+     */
+    public long getRejectedMessages()
+    {
+        return rejectedMessages.get();
+    }
+
+    boolean isCapturingHeadersOnly()
+    {
+        return level.compareTo(Level.HEADERS_ONLY) >= 0;
+    }
+
+    boolean isRejectingMessages()
+    {
+        return level == Level.REJECT;
+    }
+
+    void messageTruncated()
+    {
+        truncatedMessages.incrementAndGet();
+    }
+
+    void messageRejected()
+    {
+        rejectedMessages.incrementAndGet();
+    }
+
+    /**
+     * Sets the thresholds of the heap pools and starts watching them. Does nothing without a profile.
+     */
+    synchronized void start()
+    {
+        if (profile == null || profile.lowestThreshold() == 0 || checks != null) {
+            return;
+        }
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() != MemoryType.HEAP || !pool.isUsageThresholdSupported() || pool.getUsage().getMax() <= 0) {
+                continue;
+            }
+            long threshold = pool.getUsage().getMax() / 100 * profile.lowestThreshold();
+            if (pool.isCollectionUsageThresholdSupported()) {
+                previousThresholds.add(pool.getCollectionUsageThreshold());
+                pool.setCollectionUsageThreshold(threshold);
+            }
+            else {
+                previousThresholds.add(pool.getUsageThreshold());
+                pool.setUsageThreshold(threshold);
+            }
+            pools.add(pool);
+        }
+        if (pools.isEmpty()) {
+            LOG.warn("No heap pool supports usage thresholds, load is not shed under memory pressure.");
+            return;
+        }
+        ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).addNotificationListener(this, null, null);
+
+        checks = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                thread.setName("memory-pressure");
+                return thread;
+            }
+        });
+        checks.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run()
+            {
+                update(usedPercent(), false);
+            }
+        }, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        LOG.info("Shedding load under memory pressure at {} percent of {}.", profile, poolNames());
+    }
+
+    /**
+     * Stops watching and restores the previous thresholds of the heap pools.
+     */
+    synchronized void stop()
+    {
+        if (checks == null) {
+            return;
+        }
+        checks.shutdownNow();
+        checks = null;
+        try {
+            ((NotificationEmitter) ManagementFactory.getMemoryMXBean()).removeNotificationListener(this);
+        }
+        catch (ListenerNotFoundException e) {
+            LOG.debug("While removing memory listener", e);
+        }
+        for (int i = 0; i < pools.size(); i++) {
+            MemoryPoolMXBean pool = pools.get(i);
+            if (pool.isCollectionUsageThresholdSupported()) {
+                pool.setCollectionUsageThreshold(previousThresholds.get(i));
+            }
+            else {
+                pool.setUsageThreshold(previousThresholds.get(i));
+            }
+        }
+        pools.clear();
+        previousThresholds.clear();
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback)
+    {
+        String type = notification.getType();
+        if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(type)
+            || MemoryNotificationInfo.MEMORY_THRESHOLD_EXCEEDED.equals(type)) {
+            update(usedPercent(), true);
+        }
+    }
+
+    /**
+     * Moves to the level for the usage and evicts messages if it calls for that.
+     *
+     * @param exceeded
+     *        true if the JVM has just reported a pool above its threshold, which evicts messages
+     *        again while the level stays the same. A periodic check only evicts when the level rises,
+     *        as the memory freed by the last eviction may not have been collected yet.
+     */
+    synchronized void update(int usedPercent, boolean exceeded)
+    {
+        Level previous = level;
+        Level next = levelFor(usedPercent);
+        if (next != previous) {
+            level = next;
+            transitions.incrementAndGet(next.ordinal());
+            if (next.compareTo(previous) > 0) {
+                LOG.warn("Heap usage at {} percent, shedding load: {} -> {}", usedPercent, previous, next);
+            }
+            else {
+                LOG.info("Heap usage at {} percent, recovering: {} -> {}", usedPercent, previous, next);
+            }
+        }
+        boolean evicting = next.compareTo(Level.EVICT) >= 0 && profile.thresholdOf(Level.EVICT) > 0;
+        if (evicting && (exceeded || next.compareTo(previous) > 0)) {
+            evictOldestMessages();
+        }
+    }
+
+    private Level levelFor(int usedPercent)
+    {
+        Level next = Level.NORMAL;
+        for (Level candidate : Level.values()) {
+            int threshold = profile.thresholdOf(candidate);
+            if (threshold == 0) {
+                continue;
+            }
+            // a level is kept until the usage falls below its threshold by the margin
+            int enterAt = candidate.compareTo(level) <= 0 ? threshold - RECOVERY_MARGIN : threshold;
+            if (usedPercent >= enterAt) {
+                next = candidate;
+            }
+        }
+        return next;
+    }
+
+    private void evictOldestMessages()
+    {
+        int count = mailStore.getEmailCount();
+        if (count == 0) {
+            return;
+        }
+        int evicted = mailStore.evictOldestMessages((count + 1) / 2);
+        if (evicted > 0) {
+            evictedMessages.addAndGet(evicted);
+            LOG.warn("Evicted the {} oldest messages under memory pressure.", evicted);
+        }
+    }
+
+    private synchronized int usedPercent()
+    {
+        long highest = 0;
+        for (MemoryPoolMXBean pool : pools) {
+            MemoryUsage usage = pool.getUsage();
+            long used = usage.getUsed();
+            MemoryUsage collected = pool.getCollectionUsage();
+            if (collected != null) {
+                used = Math.min(used, collected.getUsed());
+            }
+            highest = Math.max(highest, used * 100 / usage.getMax());
+        }
+        return (int) highest;
+    }
+
+    /**
+     * @return the heap pools whose thresholds have been set, empty unless started
+     */
+    synchronized List<MemoryPoolMXBean> getWatchedPools()
+    {
+        return new ArrayList<>(pools);
+    }
+
+    private List<String> poolNames()
+    {
+        List<String> names = new ArrayList<>();
+        for (MemoryPoolMXBean pool : pools) {
+            names.add(pool.getName());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Heap usage at which the server sheds load, in percent of the maximum size of the heap pools
+ * that report their usage, usually the old generation. See {@link MemoryPressure}.
+ * <br>
+ * The stages are entered in order as the usage rises: evict the oldest messages, capture only the
+ * headers of new messages, reject new messages with 452. A threshold of zero skips its stage.
+ * Every stage is left again once the usage has fallen 5 percent below its threshold.
+ */
+public final class MemoryProfile
+{
+    private int evictPercent = 0;
+    private int headersOnlyPercent = 0;
+    private int rejectPercent = 0;
+
+    /**
+     * Parses a comma separated list of {@code <stage>=<percent>} entries: {@code evict},
+     * {@code headers} and {@code reject}.
+     * <br>
+     * Example: {@code evict=70,headers=80,reject=90}
+     */
+    public static MemoryProfile parse(String profile)
+    {
+        requireNonNull(profile, "profile is null");
+        MemoryProfile memoryProfile = new MemoryProfile();
+        for (String entry : profile.split(",")) {
+            int separator = entry.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("'" + entry + "' must have the form <stage>=<percent>");
+            }
+            String stage = entry.substring(0, separator).trim();
+            int percent;
+            try {
+                percent = Integer.parseInt(entry.substring(separator + 1).trim());
+            }
+            catch (NumberFormatException e) {
+                throw new IllegalArgumentException("'" + entry + "' does not have a valid number", e);
+            }
+
+            if (stage.equalsIgnoreCase("evict")) {
+                memoryProfile.withEvictAt(percent);
+            }
+            else if (stage.equalsIgnoreCase("headers")) {
+                memoryProfile.withHeadersOnlyAt(percent);
+            }
+            else if (stage.equalsIgnoreCase("reject")) {
+                memoryProfile.withRejectAt(percent);
+            }
+            else {
+                throw new IllegalArgumentException("'" + stage + "' is not a valid stage, use evict, headers or reject");
+            }
+        }
+        return memoryProfile;
+    }
+
+    /**
+     * Evicts the oldest half of the messages in the store whenever the usage is found above the threshold.
+     */
+    public MemoryProfile withEvictAt(int percent)
+    {
+        this.evictPercent = checkPercent(percent);
+
+        return this;
+    }
+
+    /**
+     * Discards the body of new messages, their headers are still stored.
+     */
+    public MemoryProfile withHeadersOnlyAt(int percent)
+    {
+        this.headersOnlyPercent = checkPercent(percent);
+
+        return this;
+    }
+
+    /**
+     * Answers DATA and the first BDAT of a message with 452, so that clients retry later.
+     */
+    public MemoryProfile withRejectAt(int percent)
+    {
+        this.rejectPercent = checkPercent(percent);
+
+        return this;
+    }
+
+    /**
+     * @return the usage in percent at which the level is entered, 0 if it is skipped
+     */
+    int thresholdOf(MemoryPressure.Level level)
+    {
+        switch (level) {
+            case EVICT:
+                return evictPercent;
+            case HEADERS_ONLY:
+                return headersOnlyPercent;
+            case REJECT:
+                return rejectPercent;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @return the lowest threshold that is not skipped, 0 if all are
+     */
+    int lowestThreshold()
+    {
+        int lowest = 0;
+        for (int percent : new int[] { evictPercent, headersOnlyPercent, rejectPercent }) {
+            if (percent > 0 && (lowest == 0 || percent < lowest)) {
+                lowest = percent;
+            }
+        }
+        return lowest;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "evict=" + evictPercent + ",headers=" + headersOnlyPercent + ",reject=" + rejectPercent;
+    }
+
+    private static int checkPercent(int percent)
+    {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("percent must be between 0 and 100");
+        }
+        return percent;
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+/**
+ * Receives the messages of a {@link MailStore} as they are stored, see {@link MailStore#subscribe(MessageSubscriber)}.
+ * <br>
+ * Follows the model of reactive streams: messages are only delivered as far as they have been
+ * requested through the {@link MessageSubscription}. Messages are delivered one at a time and in
+ * the order they were stored, from a thread of the store rather than the delivering session.
+ */
+public interface MessageSubscriber
+{
+    /**
+     * Called once before any message, usually requests the first messages.
+     */
+    void onSubscribe(MessageSubscription subscription);
+
+    /**
+     * Called for every requested message. An exception cancels the subscription.
+     */
+    void onMessage(MailMessage message);
+}
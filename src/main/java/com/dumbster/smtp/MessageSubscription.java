@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+/**
+ * Links a {@link MessageSubscriber} to a {@link MailStore}.
+ * <br>
+ * Messages stored while the subscriber has not requested any wait in a bounded buffer. Once it is
+ * full, further messages are dropped for this subscriber, so that a slow subscriber never holds up
+ * the sessions delivering mail.
+ */
+public interface MessageSubscription
+{
+    /**
+     * Requests up to {@code n} more messages, {@link Long#MAX_VALUE} for all of them.
+     */
+    void request(long n);
+
+    /**
+     * Stops the delivery of messages, some may still arrive if they are being delivered already.
+     */
+    void cancel();
+
+    /**
+     * @return the number of messages dropped because the buffer was full
+     */
+    long getDroppedCount();
+}
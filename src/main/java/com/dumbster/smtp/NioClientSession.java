@@ -0,0 +1,327 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client session driven by readiness events of an {@link EventLoop}.
+ * <br>
+ * Reads whatever is available from the channel, runs every complete line through the
+ * {@link SmtpConversation} and queues the responses. Never blocks, all methods are
+ * called from the event loop thread that owns the session.
+ */
+final class NioClientSession
+{
+    private static final Logger LOG = LoggerFactory.getLogger(NioClientSession.class);
+
+    private final SocketChannel channel;
+    private final SessionPool sessionPool;
+    private final SmtpConversation conversation;
+    private final ConnectionLimit connectionLimit;
+    private SelectionKey key;
+    private final LineReader input;
+    private ByteBuffer output;
+    private boolean closeAfterWrite = false;
+    private boolean closed = false;
+
+    // Replies are held back on the loop's timing wheel instead of blocking the loop thread.
+    private final TimingWheel timers;
+    private final Clock clock;
+    private final LatencyProfile.Sampler latency;
+    private Response delayedResponse = null;
+    private TimingWheel.Timeout delay = null;
+    private final Runnable sendDelayedResponse = new Runnable() {
+        @Override
+        public void run()
+        {
+            sendDelayedResponse();
+        }
+    };
+
+    // A throttled connection neither reads nor writes until the timer resumes it.
+    private final Throttle throttle;
+    private TimingWheel.Timeout throttled = null;
+    private final Runnable resumeThrottled = new Runnable() {
+        @Override
+        public void run()
+        {
+            resumeThrottled();
+        }
+    };
+
+    // Closes the connection once a timeout has passed, see SessionTimeouts. Runs on a wheel of its own,
+    // which only wakes the loop and never moves a simulated clock like a delay does.
+    private final SessionTimeouts.Timer timer;
+    private final TimingWheel timeoutTimers;
+
+    NioClientSession(SocketChannel channel, SessionPool sessionPool, ConnectionLimit connectionLimit,
+            TimingWheel timers, Clock clock, LatencyProfile latencyProfile, LinkProfile linkProfile,
+            SessionTimeouts timeouts, TimingWheel timeoutTimers)
+    {
+        this.channel = channel;
+        this.sessionPool = sessionPool;
+        this.conversation = sessionPool.acquireConversation();
+        this.connectionLimit = connectionLimit;
+        this.timers = timers;
+        this.clock = clock;
+        this.latency = latencyProfile != null ? latencyProfile.newSampler() : null;
+        this.throttle = linkProfile != null ? new Throttle(linkProfile, clock) : null;
+        this.timer = timeouts != null ? timeouts.newTimer(clock, new Runnable() {
+            @Override
+            public void run()
+            {
+                close();
+            }
+        }) : null;
+        this.timeoutTimers = timeoutTimers;
+        this.input = new LineReader(sessionPool.acquireBuffer());
+        this.output = ByteBuffer.wrap(sessionPool.acquireBuffer());
+    }
+
+    void start(SelectionKey key) throws IOException
+    {
+        this.key = key;
+        if (timer != null) {
+            timer.start(timeoutTimers);
+        }
+        queueResponse(conversation.connect());
+        closeAfterWrite = conversation.isClosed();
+        write();
+    }
+
+    void handle() throws IOException
+    {
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            write();
+        }
+    }
+
+    void close()
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (delay != null) {
+            timers.cancel(delay);
+        }
+        if (throttled != null) {
+            timers.cancel(throttled);
+        }
+        if (timer != null) {
+            timer.stop();
+        }
+        boolean aborted = conversation.isAborted();
+        connectionLimit.release();
+        sessionPool.release(conversation);
+        sessionPool.release(input.buffer());
+        sessionPool.release(output.array());
+
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            if (aborted) {
+                channel.socket().setSoLinger(true, 0);
+            }
+            channel.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing channel", e);
+        }
+    }
+
+    private void read() throws IOException
+    {
+        int allowance = Integer.MAX_VALUE;
+        if (throttle != null) {
+            throttle.receivingMessage(conversation.isReceivingMessage());
+            allowance = throttle.readAllowance();
+            if (allowance == 0) {
+                pause(throttle.nanosUntilReadable());
+                if (timer != null) {
+                    timer.waitingForInput(false);
+                }
+                return;
+            }
+        }
+
+        int read = input.fill(channel, allowance);
+        if (read < 0) {
+            close();
+            return;
+        }
+        if (throttle != null) {
+            throttle.consumeRead(read);
+        }
+
+        processLines();
+        write();
+    }
+
+    private void processLines()
+    {
+        while (!closeAfterWrite && delayedResponse == null) {
+            long chunkBytes = conversation.getPendingChunkBytes();
+            if (chunkBytes > 0) {
+                if (!input.nextBufferedChunk(chunkBytes)) {
+                    return;
+                }
+                queueResponse(conversation.receiveChunk(input.buffer(), input.lineStart(), input.lineLength()));
+            }
+            else {
+                if (!input.nextBufferedLine()) {
+                    return;
+                }
+                queueResponse(conversation.receive(input.buffer(), input.lineStart(), input.lineLength()));
+            }
+            if (timer != null) {
+                timer.commandReceived();
+            }
+            closeAfterWrite = conversation.isClosed();
+        }
+    }
+
+    private void queueResponse(Response response)
+    {
+        if (response.getCode() <= 0) {
+            return;
+        }
+        long delayNanos = latency != null ? latency.nextDelayNanos(conversation) : 0;
+        if (delayNanos > 0) {
+            // Input is neither read nor processed until the reply has been sent, like a blocking server.
+            delayedResponse = response;
+            delay = timers.schedule(sendDelayedResponse, delayNanos, clock.nanoTime());
+            return;
+        }
+        appendOutput(response);
+    }
+
+    private void sendDelayedResponse()
+    {
+        Response response = delayedResponse;
+        delayedResponse = null;
+        delay = null;
+        appendOutput(response);
+        try {
+            processLines();
+            write();
+        }
+        catch (IOException e) {
+            LOG.debug("Closing client connection: ", e);
+            close();
+        }
+    }
+
+    private void appendOutput(Response response)
+    {
+        byte[] bytes = response.getReplyBytes();
+        if (output.remaining() < bytes.length) {
+            output = grow(output, bytes.length);
+        }
+        output.put(bytes);
+    }
+
+    private void write() throws IOException
+    {
+        output.flip();
+        if (throttle == null) {
+            channel.write(output);
+        }
+        else {
+            writeThrottled();
+        }
+        boolean drained = !output.hasRemaining();
+        output.compact();
+
+        boolean waitingForInput = false;
+        if (!drained && throttle != null && throttle.writeAllowance() == 0) {
+            pause(throttle.nanosUntilWritable());
+        }
+        else if (!drained) {
+            key.interestOps(SelectionKey.OP_WRITE);
+        }
+        else if (delayedResponse != null) {
+            key.interestOps(0);
+        }
+        else if (closeAfterWrite) {
+            close();
+        }
+        else {
+            key.interestOps(SelectionKey.OP_READ);
+            waitingForInput = true;
+        }
+
+        if (timer != null) {
+            // Every read ends here as well, which starts the idle time over.
+            timer.waitingForInput(waitingForInput);
+            if (waitingForInput && !conversation.isReceivingMessage()) {
+                timer.awaitingCommand();
+            }
+        }
+    }
+
+    private void writeThrottled() throws IOException
+    {
+        int allowance = throttle.writeAllowance();
+        if (allowance == 0 || !output.hasRemaining()) {
+            return;
+        }
+        int limit = output.limit();
+        if (allowance < output.remaining()) {
+            output.limit(output.position() + allowance);
+        }
+        throttle.consumeWrite(channel.write(output));
+        output.limit(limit);
+    }
+
+    private void pause(long nanos)
+    {
+        key.interestOps(0);
+        if (throttled == null) {
+            throttled = timers.schedule(resumeThrottled, nanos, clock.nanoTime());
+        }
+    }
+
+    private void resumeThrottled()
+    {
+        throttled = null;
+        try {
+            // Works out whether to write, read or wait for a delayed response.
+            write();
+        }
+        catch (IOException e) {
+            LOG.debug("Closing client connection: ", e);
+            close();
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int minimumGrowth)
+    {
+        ByteBuffer grown = ByteBuffer.allocate(buffer.capacity() + Math.max(buffer.capacity(), minimumGrowth));
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
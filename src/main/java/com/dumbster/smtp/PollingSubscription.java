@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the messages of a store that does not publish them itself, see
+ * {@link MailStore#subscribe(MessageSubscriber, int)}.
+ * <br>
+ * A daemon thread of its own looks for new messages through {@link MailStore#getMessagesSince(long)}
+ * every 10 milliseconds and hands them to the subscriber as far as requested. Messages a store numbers
+ * by their position may be missed or repeated if it drops messages between two looks.
+ */
+final class PollingSubscription implements MessageSubscription, Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(PollingSubscription.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 10;
+    private static final AtomicInteger threadId = new AtomicInteger();
+
+    private final MailStore mailStore;
+    private final MessageSubscriber subscriber;
+    private final int bufferSize;
+    // only used by the polling thread
+    private final Queue<MailMessage> buffer = new ArrayDeque<>();
+    private long lastSeen;
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean cancelled = false;
+
+    private PollingSubscription(MailStore mailStore, MessageSubscriber subscriber, int bufferSize)
+    {
+        this.mailStore = mailStore;
+        this.subscriber = subscriber;
+        this.bufferSize = bufferSize;
+        StoredMessage[] stored = mailStore.getMessagesSince(0);
+        this.lastSeen = stored.length > 0 ? stored[stored.length - 1].getSequenceNumber() : 0;
+    }
+
+    /**
+     * Subscribes to the messages stored from now on and starts looking for them.
+     */
+    static MessageSubscription start(MailStore mailStore, MessageSubscriber subscriber, int bufferSize)
+    {
+        requireNonNull(subscriber, "subscriber is null");
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be > 0");
+        }
+
+        PollingSubscription subscription = new PollingSubscription(mailStore, subscriber, bufferSize);
+        subscriber.onSubscribe(subscription);
+        Thread thread = new Thread(subscription);
+        thread.setDaemon(true);
+        thread.setName("message-poller-" + threadId.getAndIncrement());
+        thread.start();
+        return subscription;
+    }
+
+    @Override
+    public void request(long n)
+    {
+        if (n <= 0) {
+            throw new IllegalArgumentException("n must be > 0");
+        }
+
+        long current;
+        do {
+            current = demand.get();
+        }
+        while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+    }
+
+    @Override
+    public void cancel()
+    {
+        cancelled = true;
+    }
+
+    @Override
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (!cancelled) {
+                poll();
+                drain();
+                Thread.sleep(POLL_INTERVAL_MILLIS);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (RuntimeException e) {
+            LOG.warn("Cancelling subscription of {}: ", subscriber, e);
+            cancelled = true;
+        }
+        buffer.clear();
+    }
+
+    private void poll()
+    {
+        for (StoredMessage stored : mailStore.getMessagesSince(lastSeen)) {
+            lastSeen = stored.getSequenceNumber();
+            if (buffer.size() < bufferSize) {
+                buffer.add(stored.getMessage());
+            }
+            else if (dropped.getAndIncrement() == 0) {
+                LOG.warn("Subscriber {} does not keep up, dropping messages", subscriber);
+            }
+        }
+    }
+
+    private void drain()
+    {
+        while (!cancelled && demand.get() > 0) {
+            MailMessage message = buffer.poll();
+            if (message == null) {
+                return;
+            }
+            if (demand.get() != Long.MAX_VALUE) {
+                demand.decrementAndGet();
+            }
+            // an exception ends the thread, which cancels the subscription
+            subscriber.onMessage(message);
+        }
+    }
+}
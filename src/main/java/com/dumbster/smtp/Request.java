@@ -18,21 +18,8 @@
 package com.dumbster.smtp;
 
 import com.dumbster.smtp.action.Action;
-import com.dumbster.smtp.action.BlankLine;
-import com.dumbster.smtp.action.Connect;
-import com.dumbster.smtp.action.Data;
-import com.dumbster.smtp.action.DataEnd;
-import com.dumbster.smtp.action.Ehlo;
-import com.dumbster.smtp.action.Expn;
-import com.dumbster.smtp.action.Help;
-import com.dumbster.smtp.action.List;
-import com.dumbster.smtp.action.Mail;
-import com.dumbster.smtp.action.NoOp;
-import com.dumbster.smtp.action.Quit;
-import com.dumbster.smtp.action.Rcpt;
-import com.dumbster.smtp.action.Rset;
-import com.dumbster.smtp.action.Unrecognized;
-import com.dumbster.smtp.action.Vrfy;
+
+import java.nio.charset.StandardCharsets;
 
 public class Request
 {
@@ -47,9 +34,6 @@ public class Request
         this.params = params;
     }
 
-    private Request()
-    {}
-
     public Response execute(MailStore mailStore, MailMessage message)
     {
         return clientAction.response(state, mailStore, message);
@@ -70,110 +54,42 @@ public class Request
         return params;
     }
 
-    private boolean isInDataHeaderState()
-    {
-        return SmtpState.DATA_HDR == state;
-    }
-
-    private boolean isInDataBodyState()
-    {
-        return SmtpState.DATA_BODY == state;
-    }
-
     public static Request initialRequest()
     {
-        return new Request(new Connect(), "", SmtpState.CONNECT);
+        return new Request(SmtpCommand.CONNECT.getAction(), "", SmtpState.CONNECT);
     }
 
     public static Request createRequest(SmtpState state, String message)
     {
-        Request request = new Request();
-        request.state = state;
-
-        if (request.isInDataHeaderState()) {
-            return buildDataHeaderRequest(message, request);
-        }
-
-        if (request.isInDataBodyState()) {
-            return buildDataBodyRequest(message, request);
-        }
-        return buildCommandRequest(message, request);
-    }
-
-    private static Request buildDataHeaderRequest(String message, Request request)
-    {
-        if (message.equals(".")) {
-            request.clientAction = new DataEnd();
-        }
-        else if (message.length() < 1) {
-            request.clientAction = new BlankLine();
-        }
-        else {
-            request.clientAction = new Unrecognized();
-            request.params = message;
-        }
-        return request;
-    }
-
-    private static Request buildDataBodyRequest(String message, Request request)
-    {
-        if (message.equals(".")) {
-            request.clientAction = new DataEnd();
-        }
-        else {
-            request.clientAction = new Unrecognized();
-            if (message.length() < 1) {
-                request.params = "\n";
-            }
-            else {
-                request.params = message;
-            }
-        }
-        return request;
-    }
-
-    private static Request buildCommandRequest(String message, Request request)
-    {
-        String su = message.toUpperCase();
-        if (su.startsWith("EHLO ") || su.startsWith("HELO")) {
-            request.clientAction = new Ehlo();
-            extractParams(message, request);
-        }
-        else if (su.startsWith("MAIL FROM:")) {
-            request.clientAction = new Mail();
-            request.params = message.substring(10);
-        }
-        else if (su.startsWith("RCPT TO:")) {
-            request.clientAction = new Rcpt();
-            request.params = message.substring(8);
-        }
-        else if (su.startsWith("DATA")) {
-            request.clientAction = new Data();
-        }
-        else if (su.startsWith("QUIT")) {
-            request.clientAction = new Quit();
-        }
-        else if (su.startsWith("RSET")) {
-            request.clientAction = new Rset();
-        }
-        else if (su.startsWith("NOOP")) {
-            request.clientAction = new NoOp();
-        }
-        else if (su.startsWith("EXPN")) {
-            request.clientAction = new Expn();
-        }
-        else if (su.startsWith("VRFY")) {
-            request.clientAction = new Vrfy();
-        }
-        else if (su.startsWith("HELP")) {
-            request.clientAction = new Help();
-        }
-        else if (su.startsWith("LIST")) {
-            extractParams(message, request);
-            request.clientAction = new List(request.params);
-        }
-        else {
-            request.clientAction = new Unrecognized();
+        byte[] line = message.getBytes(StandardCharsets.ISO_8859_1);
+        SmtpCommand command = SmtpCommand.parse(state, line, 0, line.length);
+
+        Request request = new Request(command.getAction(), null, state);
+        switch (command) {
+            case UNRECOGNIZED:
+                if (state == SmtpState.DATA_HDR) {
+                    request.params = message;
+                }
+                else if (state == SmtpState.DATA_BODY) {
+                    request.params = message.length() < 1 ? "\n" : message;
+                }
+                break;
+            case EHLO:
+            case HELO:
+            case BDAT:
+            case BDAT_LAST:
+            case BDAT_INVALID:
+            case LIST:
+                extractParams(message, request);
+                break;
+            case MAIL:
+                request.params = message.substring(10);
+                break;
+            case RCPT:
+                request.params = message.substring(8);
+                break;
+            default:
+                break;
         }
         return request;
     }
@@ -16,23 +16,36 @@
  */
 package com.dumbster.smtp;
 
+import java.nio.charset.StandardCharsets;
+
 /**
- * SMTP response container.
+ * SMTP response container. Responses are immutable and shared between sessions.
  */
 public class Response
 {
+    private static final byte[] NO_REPLY = new byte[0];
+
+    /**
+     * Sent to clients that connect while the server is already serving as many sessions as it may.
+     */
+    static final Response SERVICE_NOT_AVAILABLE = new Response(421, "Service not available, closing transmission channel", SmtpState.CONNECT);
+
     /**
      * Response code - see RFC-2821.
      */
-    private int code;
+    private final int code;
     /**
      * Response message.
      */
-    private String message;
+    private final String message;
     /**
      * New state of the SMTP server once the request has been executed.
      */
-    private SmtpState nextState;
+    private final SmtpState nextState;
+    /**
+     * The reply as sent to the client, encoded once.
+     */
+    private final byte[] replyBytes;
 
     /**
      * Constructor.
@@ -49,6 +62,7 @@ public class Response
         this.code = code;
         this.message = message;
         this.nextState = next;
+        this.replyBytes = code > 0 ? toReply().getBytes(StandardCharsets.ISO_8859_1) : NO_REPLY;
     }
 
     /**
@@ -71,6 +85,37 @@ public class Response
         return message;
     }
 
+    /**
+     * Formats the response as it is sent to the client.
+     * A message with several lines separated by {@code '\n'} is sent as multi-line reply,
+     * see RFC-5321 section 4.2.1.
+     *
+     * @return the reply including the terminating CRLF
+     */
+    public String toReply()
+    {
+        StringBuilder reply = new StringBuilder(message.length() + 6);
+        int lineStart = 0;
+        int lineEnd;
+        while ((lineEnd = message.indexOf('\n', lineStart)) >= 0) {
+            reply.append(code).append('-').append(message, lineStart, lineEnd).append("\r\n");
+            lineStart = lineEnd + 1;
+        }
+        reply.append(code).append(' ').append(message, lineStart, message.length()).append("\r\n");
+        return reply.toString();
+    }
+
+    /**
+     * The ISO-8859-1 encoded form of {@link #toReply()}, shared between all callers
+     * and not to be modified.
+     *
+     * @return the encoded reply, empty for responses that are not sent
+     */
+    byte[] getReplyBytes()
+    {
+        return replyBytes;
+    }
+
     /**
      * Get the next SMTP server state.
      *
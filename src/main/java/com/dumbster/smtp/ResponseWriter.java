@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the pre-encoded form of responses into a reusable buffer and hands the buffer
+ * to the stream only when flushed, so that the replies to pipelined commands leave in a
+ * single write.
+ * <br>
+ * Like a {@link java.io.PrintWriter} it never throws, failures are reported by {@link #checkError()}.
+ */
+final class ResponseWriter
+{
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count = 0;
+    private boolean error = false;
+
+    ResponseWriter(OutputStream out, byte[] buffer)
+    {
+        this.out = out;
+        this.buffer = buffer;
+    }
+
+    void write(Response response)
+    {
+        byte[] reply = response.getReplyBytes();
+        if (error) {
+            return;
+        }
+        try {
+            if (reply.length > buffer.length - count) {
+                flushBuffer();
+            }
+            if (reply.length > buffer.length) {
+                out.write(reply);
+                return;
+            }
+            System.arraycopy(reply, 0, buffer, count, reply.length);
+            count += reply.length;
+        }
+        catch (IOException e) {
+            error = true;
+        }
+    }
+
+    void flush()
+    {
+        if (error) {
+            return;
+        }
+        try {
+            flushBuffer();
+            out.flush();
+        }
+        catch (IOException e) {
+            error = true;
+        }
+    }
+
+    /**
+     * @return true if writing to the stream has failed, everything written since has been discarded
+     */
+    boolean checkError()
+    {
+        return error;
+    }
+
+    /**
+     * @return the buffer, e.g. to give it back to a pool once the writer is not used anymore
+     */
+    byte[] buffer()
+    {
+        return buffer;
+    }
+
+    private void flushBuffer() throws IOException
+    {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Opens the listening channels for the acceptors of a server.
+ * <br>
+ * Where the JDK and the operating system support SO_REUSEPORT (JDK 9+ on Linux and the BSDs),
+ * every acceptor gets its own channel bound to the same port and the kernel balances new
+ * connections between them. Otherwise a single channel is shared by all acceptors.
+ */
+final class ReusePort
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ReusePort.class);
+
+    private static final SocketOption<Boolean> SO_REUSEPORT = lookupReusePort();
+
+    private ReusePort()
+    {}
+
+    /**
+     * Binds server channels to the given port.
+     *
+     * @param port
+     *        the port to listen on
+     * @param acceptors
+     *        number of acceptors that want a channel
+     * @return one channel per acceptor, or a single channel if SO_REUSEPORT is not available
+     */
+    static ServerSocketChannel[] bind(int port, int acceptors) throws IOException
+    {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = acceptors > 1 && isSupported(first);
+        if (acceptors > 1 && !reusePort) {
+            LOG.info("SO_REUSEPORT is not supported, {} acceptors share one channel.", acceptors);
+        }
+
+        ServerSocketChannel[] channels = new ServerSocketChannel[reusePort ? acceptors : 1];
+        channels[0] = first;
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                if (channels[i] == null) {
+                    channels[i] = ServerSocketChannel.open();
+                }
+                if (reusePort) {
+                    channels[i].setOption(SO_REUSEPORT, true);
+                }
+                channels[i].bind(new InetSocketAddress(port));
+            }
+        }
+        catch (IOException e) {
+            close(channels);
+            throw e;
+        }
+        return channels;
+    }
+
+    static void close(ServerSocketChannel[] channels)
+    {
+        for (ServerSocketChannel channel : channels) {
+            if (channel != null) {
+                try {
+                    channel.close();
+                }
+                catch (IOException e) {
+                    LOG.debug("While closing server channel", e);
+                }
+            }
+        }
+    }
+
+    private static boolean isSupported(ServerSocketChannel channel)
+    {
+        return SO_REUSEPORT != null && channel.supportedOptions().contains(SO_REUSEPORT);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> lookupReusePort()
+    {
+        try {
+            return (SocketOption<Boolean>) StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+        }
+        catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -29,6 +29,20 @@ public class ServerOptions
     private boolean threaded = true;
     private MailStore mailStore = new RollingMailStore();
     private int waitInResponse = 0;
+    private LatencyProfile latencyProfile = null;
+    private Clock clock = Clock.SYSTEM;
+    private FaultProfile faultProfile = null;
+    private LinkProfile linkProfile = null;
+    private MemoryProfile memoryProfile = null;
+    private boolean nonBlocking = false;
+    private boolean virtualThreads = false;
+    private int eventLoops = Runtime.getRuntime().availableProcessors();
+    private int acceptors = 1;
+    private int maxSessions = 0;
+    private int maxQueuedSessions = Integer.MAX_VALUE;
+    private int idleTimeout = 10000;
+    private int commandTimeout = 0;
+    private int sessionTimeout = 0;
 
     public ServerOptions()
     {}
@@ -39,6 +53,10 @@ public class ServerOptions
             return;
         }
 
+        String latency = null;
+        long latencySeed = 0;
+        String faults = null;
+        long faultSeed = 0;
         for (String argument : args) {
             if (argument.startsWith("--mailStore")) {
                 String[] values = argument.split("=");
@@ -62,6 +80,77 @@ public class ServerOptions
                     this.threaded();
                 }
             }
+            else if (argument.startsWith("--nonBlocking")) {
+                if (argument.equalsIgnoreCase("--nonBlocking=false")) {
+                    this.blocking();
+                }
+                else {
+                    this.nonBlocking();
+                }
+            }
+            else if (argument.startsWith("--virtualThreads")) {
+                if (argument.equalsIgnoreCase("--virtualThreads=false")) {
+                    this.platformThreads();
+                }
+                else {
+                    this.virtualThreads();
+                }
+            }
+            else if (argument.startsWith("--maxSessions")) {
+                this.withMaxSessions(parseCount(argument));
+            }
+            else if (argument.startsWith("--maxQueuedSessions")) {
+                this.withMaxQueuedSessions(parseCount(argument));
+            }
+            else if (argument.startsWith("--acceptors")) {
+                this.withAcceptors(parseCount(argument));
+            }
+            else if (argument.startsWith("--eventLoops")) {
+                this.withEventLoops(parseCount(argument));
+            }
+            else if (argument.startsWith("--idleTimeout")) {
+                this.withIdleTimeoutInMs(parseCount(argument));
+            }
+            else if (argument.startsWith("--commandTimeout")) {
+                this.withCommandTimeoutInMs(parseCount(argument));
+            }
+            else if (argument.startsWith("--sessionTimeout")) {
+                this.withSessionTimeoutInMs(parseCount(argument));
+            }
+            else if (argument.startsWith("--link")) {
+                int separator = argument.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("--link must have an argument");
+                }
+                this.withLinkProfile(LinkProfile.parse(argument.substring(separator + 1)));
+            }
+            else if (argument.startsWith("--memory")) {
+                int separator = argument.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("--memory must have an argument");
+                }
+                this.withMemoryProfile(MemoryProfile.parse(argument.substring(separator + 1)));
+            }
+            else if (argument.startsWith("--faultSeed")) {
+                faultSeed = parseSeed(argument);
+            }
+            else if (argument.startsWith("--faults")) {
+                int separator = argument.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("--faults must have an argument");
+                }
+                faults = argument.substring(separator + 1);
+            }
+            else if (argument.startsWith("--latencySeed")) {
+                latencySeed = parseSeed(argument);
+            }
+            else if (argument.startsWith("--latency")) {
+                int separator = argument.indexOf('=');
+                if (separator < 0) {
+                    throw new IllegalArgumentException("--latency must have an argument");
+                }
+                latency = argument.substring(separator + 1);
+            }
             else {
                 try {
                     this.withSmtpPort(Integer.parseInt(argument));
@@ -71,6 +160,12 @@ public class ServerOptions
                 }
             }
         }
+        if (latency != null) {
+            this.withLatencyProfile(LatencyProfile.parse(latency, latencySeed));
+        }
+        if (faults != null) {
+            this.withFaultProfile(FaultProfile.parse(faults, faultSeed));
+        }
     }
 
     public ServerOptions threaded()
@@ -87,6 +182,106 @@ public class ServerOptions
         return this;
     }
 
+    /**
+     * Run every client session of a threaded server on its own virtual thread.
+     * Requires JDK 21 or newer, older runtimes fall back to the fixed thread pool.
+     */
+    public ServerOptions virtualThreads()
+    {
+        this.virtualThreads = true;
+
+        return this;
+    }
+
+    public ServerOptions platformThreads()
+    {
+        this.virtualThreads = false;
+
+        return this;
+    }
+
+    /**
+     * Serve all connections from a few selector based event loops instead of using a thread per connection.
+     */
+    public ServerOptions nonBlocking()
+    {
+        this.nonBlocking = true;
+
+        return this;
+    }
+
+    public ServerOptions blocking()
+    {
+        this.nonBlocking = false;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of event loop threads used by the non-blocking transport.
+     * A server that is not threaded always uses a single event loop.
+     */
+    public ServerOptions withEventLoops(int eventLoops)
+    {
+        if (eventLoops <= 0) {
+            throw new IllegalArgumentException("eventLoops must be > 0");
+        }
+
+        this.eventLoops = eventLoops;
+
+        return this;
+    }
+
+    /**
+     * Sets the number of threads accepting connections. Each acceptor has its own listening socket
+     * bound with SO_REUSEPORT where supported, otherwise all acceptors share one socket.
+     * Every acceptor feeds its own share of the worker threads or event loops, the session limits
+     * are split evenly between them. A server that is not threaded always uses a single acceptor.
+     */
+    public ServerOptions withAcceptors(int acceptors)
+    {
+        if (acceptors <= 0) {
+            throw new IllegalArgumentException("acceptors must be > 0");
+        }
+
+        this.acceptors = acceptors;
+
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of client sessions that are served at the same time.
+     * <br>
+     * For the thread pool this is the number of threads (default 10), virtual threads and the non-blocking
+     * transport are not limited by default. Ignored if the server is not threaded.
+     */
+    public ServerOptions withMaxSessions(int maxSessions)
+    {
+        if (maxSessions <= 0) {
+            throw new IllegalArgumentException("maxSessions must be > 0");
+        }
+
+        this.maxSessions = maxSessions;
+
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of accepted connections that wait for a free session.
+     * Any connection beyond that is answered with 421 and closed. Not limited by default.
+     * The non-blocking transport never queues connections.
+     */
+    public ServerOptions withMaxQueuedSessions(int maxQueuedSessions)
+    {
+        if (maxQueuedSessions < 0) {
+            throw new IllegalArgumentException("maxQueuedSessions must be >= 0");
+        }
+
+        this.maxQueuedSessions = maxQueuedSessions;
+
+        return this;
+    }
+
     public ServerOptions withMailStore(MailStore mailStore)
     {
         requireNonNull(mailStore, "mailStore is null");
@@ -131,6 +326,111 @@ public class ServerOptions
         return this;
     }
 
+    /**
+     * Closes connections on which no byte has been read or written for the given time, 0 disables the timeout.
+     * Defaults to 10 seconds.
+     */
+    public ServerOptions withIdleTimeoutInMs(int idleTimeout)
+    {
+        if (idleTimeout < 0) {
+            throw new IllegalArgumentException("idleTimeout must be >= 0");
+        }
+
+        this.idleTimeout = idleTimeout;
+
+        return this;
+    }
+
+    /**
+     * Closes connections whose client has not sent the next command within the given time after a reply,
+     * 0 disables the timeout. Message content is only subject to the idle timeout.
+     */
+    public ServerOptions withCommandTimeoutInMs(int commandTimeout)
+    {
+        if (commandTimeout < 0) {
+            throw new IllegalArgumentException("commandTimeout must be >= 0");
+        }
+
+        this.commandTimeout = commandTimeout;
+
+        return this;
+    }
+
+    /**
+     * Closes connections that have been served for the given time, 0 disables the timeout.
+     */
+    public ServerOptions withSessionTimeoutInMs(int sessionTimeout)
+    {
+        if (sessionTimeout < 0) {
+            throw new IllegalArgumentException("sessionTimeout must be >= 0");
+        }
+
+        this.sessionTimeout = sessionTimeout;
+
+        return this;
+    }
+
+    /**
+     * Delays responses as given by the profile, overrides {@link #withWaitInResponseInMs(int)}.
+     * <br>
+     * <b>On the thread pool, a delayed session keeps its thread for the whole delay.</b> With the default
+     * 10 threads and a delay of 1 second, the server sends no more than about 10 replies per second.
+     * The {@link #nonBlocking() non-blocking}
+     * transport holds replies back on a timer instead, and {@link #virtualThreads() virtual threads}
+     * release their carrier while they wait, so neither is capped by the delays.
+     */
+    public ServerOptions withLatencyProfile(LatencyProfile latencyProfile)
+    {
+        requireNonNull(latencyProfile, "latencyProfile is null");
+        this.latencyProfile = latencyProfile;
+
+        return this;
+    }
+
+    /**
+     * Makes the server fail commands at random as given by the profile.
+     */
+    public ServerOptions withFaultProfile(FaultProfile faultProfile)
+    {
+        requireNonNull(faultProfile, "faultProfile is null");
+        this.faultProfile = faultProfile;
+
+        return this;
+    }
+
+    /**
+     * Throttles the connections to all clients as given by the profile.
+     */
+    public ServerOptions withLinkProfile(LinkProfile linkProfile)
+    {
+        requireNonNull(linkProfile, "linkProfile is null");
+        this.linkProfile = linkProfile;
+
+        return this;
+    }
+
+    /**
+     * Sheds load while the heap usage is above the thresholds of the profile, see {@link MemoryPressure}.
+     */
+    public ServerOptions withMemoryProfile(MemoryProfile memoryProfile)
+    {
+        requireNonNull(memoryProfile, "memoryProfile is null");
+        this.memoryProfile = memoryProfile;
+
+        return this;
+    }
+
+    /**
+     * Sets the clock of all delays and timeouts, e.g. a {@link SimulatedClock} for tests.
+     */
+    public ServerOptions withClock(Clock clock)
+    {
+        requireNonNull(clock, "clock is null");
+        this.clock = clock;
+
+        return this;
+    }
+
     public int getPort()
     {
         return port;
@@ -141,6 +441,39 @@ public class ServerOptions
         return threaded;
     }
 
+    public boolean isVirtualThreads()
+    {
+        return virtualThreads;
+    }
+
+    public boolean isNonBlocking()
+    {
+        return nonBlocking;
+    }
+
+    public int getEventLoops()
+    {
+        return eventLoops;
+    }
+
+    public int getAcceptors()
+    {
+        return acceptors;
+    }
+
+    /**
+     * @return the configured maximum number of sessions or 0 to use the default of the transport
+     */
+    public int getMaxSessions()
+    {
+        return maxSessions;
+    }
+
+    public int getMaxQueuedSessions()
+    {
+        return maxQueuedSessions;
+    }
+
     public MailStore getMailStore()
     {
         return mailStore;
@@ -151,6 +484,88 @@ public class ServerOptions
         return waitInResponse;
     }
 
+    public int getIdleTimeout()
+    {
+        return idleTimeout;
+    }
+
+    public int getCommandTimeout()
+    {
+        return commandTimeout;
+    }
+
+    public int getSessionTimeout()
+    {
+        return sessionTimeout;
+    }
+
+    /**
+     * @return the latency profile or null if none has been set
+     */
+    public LatencyProfile getLatencyProfile()
+    {
+        return latencyProfile;
+    }
+
+    /**
+     * @return the fault profile or null if none has been set
+     */
+    public FaultProfile getFaultProfile()
+    {
+        return faultProfile;
+    }
+
+    /**
+     * @return the link profile or null if none has been set
+     */
+    public LinkProfile getLinkProfile()
+    {
+        return linkProfile;
+    }
+
+    /**
+     * @return the memory profile or null if none has been set
+     */
+    public MemoryProfile getMemoryProfile()
+    {
+        return memoryProfile;
+    }
+
+    public Clock getClock()
+    {
+        return clock;
+    }
+
+    private static int parseCount(String argument)
+    {
+        String[] values = argument.split("=");
+        if (values.length != 2) {
+            throw new IllegalArgumentException(values[0] + " must have an argument");
+        }
+
+        try {
+            return Integer.parseInt(values[1]);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + values[1] + "' is not a valid number");
+        }
+    }
+
+    private static long parseSeed(String argument)
+    {
+        String[] values = argument.split("=");
+        if (values.length != 2) {
+            throw new IllegalArgumentException(values[0] + " must have an argument");
+        }
+
+        try {
+            return Long.parseLong(values[1]);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("'" + values[1] + "' is not a valid number");
+        }
+    }
+
     private static int randomPort()
     {
         try (ServerSocket socket = new ServerSocket(0);) {
@@ -0,0 +1,183 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs client sessions of the blocking transport on an executor with a bounded number of
+ * concurrent and queued sessions.
+ * <br>
+ * Connections beyond both limits are answered with a 421 reply and closed right away,
+ * so that clients fail fast instead of waiting for a socket timeout.
+ */
+final class SessionExecutor implements ConnectionHandler
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SessionExecutor.class);
+
+    private final ExecutorService executorService;
+    private final SessionPool sessionPool;
+    private final LatencyProfile latencyProfile;
+    private final LinkProfile linkProfile;
+    private final Clock clock;
+    private final SessionReaper reaper;
+    private final Semaphore sessionPermits;
+    private final long maxPendingSessions;
+    private final AtomicLong pendingSessions = new AtomicLong();
+    private final SessionStatistics statistics;
+
+    SessionExecutor(ExecutorService executorService, SessionPool sessionPool, LatencyProfile latencyProfile,
+            LinkProfile linkProfile, Clock clock, SessionReaper reaper, int maxSessions, int maxQueuedSessions,
+            SessionStatistics statistics)
+    {
+        this.executorService = executorService;
+        this.sessionPool = sessionPool;
+        this.latencyProfile = latencyProfile;
+        this.linkProfile = linkProfile;
+        this.clock = clock;
+        this.reaper = reaper;
+        this.sessionPermits = new Semaphore(maxSessions);
+        this.maxPendingSessions = (long) maxSessions + maxQueuedSessions;
+        this.statistics = statistics;
+    }
+
+    @Override
+    public void handle(SocketChannel channel) throws IOException
+    {
+        final Socket socket = channel.socket();
+        // Checked before the socket is wrapped, so that the link profile never throttles a rejection.
+        if (pendingSessions.incrementAndGet() > maxPendingSessions) {
+            pendingSessions.decrementAndGet();
+            reject(socket);
+            return;
+        }
+
+        SessionTimeouts.Timer timer = null;
+        if (reaper != null) {
+            timer = reaper.newTimer(new Runnable() {
+                @Override
+                public void run()
+                {
+                    closeQuietly(socket);
+                }
+            });
+        }
+        SocketWrapper source = new SocketWrapper(socket, clock, linkProfile, timer);
+        ClientSession session;
+
+        if (latencyProfile == null) {
+            session = new ClientSession(source, sessionPool, timer);
+        }
+        else {
+            session = new TimedClientSession(source, sessionPool, latencyProfile, clock, timer);
+        }
+
+        execute(session, source, timer);
+    }
+
+    /**
+     * Queues a session that has been counted as pending already.
+     *
+     * @param timer
+     *        watched by the reaper while the session runs, null for none
+     */
+    private void execute(final ClientSession session, final IOSource source, final SessionTimeouts.Timer timer)
+    {
+        final long queuedAt = System.nanoTime();
+        statistics.sessionQueued();
+
+        executorService.execute(new Runnable() {
+            @Override
+            public void run()
+            {
+                try {
+                    // Only blocks for executors that do not bound their threads, e.g. virtual threads.
+                    sessionPermits.acquire();
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    statistics.sessionAbandoned();
+                    pendingSessions.decrementAndGet();
+                    closeQuietly(source);
+                    return;
+                }
+
+                statistics.sessionStarted(System.nanoTime() - queuedAt);
+                if (timer != null) {
+                    reaper.watch(timer);
+                }
+                try {
+                    session.run();
+                }
+                finally {
+                    if (timer != null) {
+                        reaper.unwatch(timer);
+                    }
+                    statistics.sessionFinished();
+                    sessionPermits.release();
+                    pendingSessions.decrementAndGet();
+                }
+            }
+        });
+    }
+
+    @Override
+    public void shutdown()
+    {
+        executorService.shutdown();
+    }
+
+    private void reject(Socket socket)
+    {
+        statistics.sessionRejected();
+        try {
+            OutputStream out = socket.getOutputStream();
+            out.write(Response.SERVICE_NOT_AVAILABLE.getReplyBytes());
+            out.flush();
+        }
+        catch (IOException e) {
+            LOG.debug("While rejecting connection", e);
+        }
+        closeQuietly(socket);
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing socket", e);
+        }
+    }
+
+    private static void closeQuietly(IOSource source)
+    {
+        try {
+            source.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing socket", e);
+        }
+    }
+}
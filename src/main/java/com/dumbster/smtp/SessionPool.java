@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+/**
+ * Recycles the per-session objects of a server, so that short sessions do not allocate
+ * a conversation with its message builder and an input buffer each.
+ * <br>
+ * Sessions take what they need when they start and give it back when they end.
+ * At most {@code capacity} objects of each kind are kept, everything beyond that is
+ * left to the garbage collector. Thread safe.
+ */
+final class SessionPool
+{
+    static final int BUFFER_SIZE = 8192;
+
+    private final MailStore mailStore;
+    private final FaultProfile faultProfile;
+    private final MemoryPressure memoryPressure;
+    private final SmtpConversation[] conversations;
+    private final byte[][] buffers;
+    private int conversationCount = 0;
+    private int bufferCount = 0;
+
+    /**
+     * @param mailStore
+     *        store receiving the messages of all conversations
+     * @param capacity
+     *        number of objects kept per kind, zero disables recycling
+     */
+    SessionPool(MailStore mailStore, int capacity)
+    {
+        this(mailStore, null, capacity);
+    }
+
+    /**
+     * @param faultProfile
+     *        faults to inject into every conversation, null for none
+     */
+    SessionPool(MailStore mailStore, FaultProfile faultProfile, int capacity)
+    {
+        this(mailStore, faultProfile, null, capacity);
+    }
+
+    /**
+     * @param memoryPressure
+     *        sheds load of every conversation, null for never
+     */
+    SessionPool(MailStore mailStore, FaultProfile faultProfile, MemoryPressure memoryPressure, int capacity)
+    {
+        this.mailStore = mailStore;
+        this.faultProfile = faultProfile;
+        this.memoryPressure = memoryPressure;
+        this.conversations = new SmtpConversation[capacity];
+        this.buffers = new byte[capacity][];
+    }
+
+    SmtpConversation acquireConversation()
+    {
+        SmtpConversation conversation = null;
+        synchronized (conversations) {
+            if (conversationCount > 0) {
+                conversation = conversations[--conversationCount];
+                conversations[conversationCount] = null;
+            }
+        }
+        if (conversation == null) {
+            conversation = new SmtpConversation(mailStore, memoryPressure);
+        }
+        if (faultProfile != null) {
+            conversation.injectFaults(faultProfile.newInjector());
+        }
+        return conversation;
+    }
+
+    void release(SmtpConversation conversation)
+    {
+        conversation.reset();
+        synchronized (conversations) {
+            if (conversationCount < conversations.length) {
+                conversations[conversationCount++] = conversation;
+            }
+        }
+    }
+
+    /**
+     * @return a buffer of {@link #BUFFER_SIZE} bytes with undefined content
+     */
+    byte[] acquireBuffer()
+    {
+        synchronized (buffers) {
+            if (bufferCount > 0) {
+                byte[] buffer = buffers[--bufferCount];
+                buffers[bufferCount] = null;
+                return buffer;
+            }
+        }
+        return new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Takes back a buffer. Buffers that have been replaced by larger ones are not kept.
+     */
+    void release(byte[] buffer)
+    {
+        if (buffer.length != BUFFER_SIZE) {
+            return;
+        }
+        synchronized (buffers) {
+            if (bufferCount < buffers.length) {
+                buffers[bufferCount++] = buffer;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Closes the timed out sessions of the blocking transport from a single thread, see {@link SessionTimeouts}.
+ * <br>
+ * The timers of all sessions share one {@link TimingWheel} owned by the reaper thread. Session threads
+ * hand over starting and stopping their timers through a queue, so they never wait for each other.
+ * A closed socket fails the blocking read of its session, which frees the thread right away.
+ */
+final class SessionReaper implements Runnable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SessionReaper.class);
+
+    private static final long TIMER_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final int TIMER_SLOTS = 1024;
+
+    private final SessionTimeouts timeouts;
+    private final Clock clock;
+    // Only serves to wait on the clock until the next deadline or a wakeup, no channel is ever registered.
+    private final Selector selector;
+    private final TimingWheel timers;
+    private final Queue<Runnable> submitted = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    SessionReaper(SessionTimeouts timeouts, Clock clock) throws IOException
+    {
+        this.timeouts = timeouts;
+        this.clock = clock;
+        this.selector = Selector.open();
+        this.timers = new TimingWheel(TIMER_TICK_NANOS, TIMER_SLOTS, clock.timeoutNanoTime());
+    }
+
+    /**
+     * @param onTimeout
+     *        closes the connection, runs on the reaper thread
+     * @return a timer for a new session, to be {@link #watch(SessionTimeouts.Timer) watched} once it runs
+     */
+    SessionTimeouts.Timer newTimer(Runnable onTimeout)
+    {
+        return timeouts.newTimer(clock, onTimeout);
+    }
+
+    /**
+     * Starts watching the timer of a session.
+     */
+    void watch(final SessionTimeouts.Timer timer)
+    {
+        submit(new Runnable() {
+            @Override
+            public void run()
+            {
+                timer.start(timers);
+            }
+        });
+    }
+
+    /**
+     * Stops watching the timer of a session that has ended.
+     */
+    void unwatch(final SessionTimeouts.Timer timer)
+    {
+        submit(new Runnable() {
+            @Override
+            public void run()
+            {
+                timer.stop();
+            }
+        });
+    }
+
+    void shutdown()
+    {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run()
+    {
+        try {
+            while (running) {
+                clock.select(selector, Long.MAX_VALUE, timers.nextDeadline());
+                runSubmitted();
+                timers.expire(clock.timeoutNanoTime());
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Session reaper terminated: ", e);
+        }
+        finally {
+            try {
+                selector.close();
+            }
+            catch (IOException e) {
+                LOG.debug("While closing selector", e);
+            }
+        }
+    }
+
+    private void submit(Runnable task)
+    {
+        submitted.add(task);
+        selector.wakeup();
+    }
+
+    private void runSubmitted()
+    {
+        Runnable task;
+        while ((task = submitted.poll()) != null) {
+            task.run();
+        }
+    }
+}
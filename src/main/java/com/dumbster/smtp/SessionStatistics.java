@@ -0,0 +1,122 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters about the client sessions of a {@link SmtpServer}.
+ */
+public class SessionStatistics
+{
+    private final AtomicLong acceptedSessions = new AtomicLong();
+    private final AtomicLong rejectedSessions = new AtomicLong();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final AtomicInteger queuedSessions = new AtomicInteger();
+    private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+    /**
+     * @return number of connections that were accepted and handed to a session
+     */
+    public long getAcceptedSessions()
+    {
+        return acceptedSessions.get();
+    }
+
+    /**
+     * @return number of connections that were answered with 421 because the server was full
+     */
+    public long getRejectedSessions()
+    {
+        return rejectedSessions.get();
+    }
+
+    /**
+     * @return number of sessions currently talking to a client
+     */
+    public int getActiveSessions()
+    {
+        return activeSessions.get();
+    }
+
+    /**
+     * @return number of accepted connections currently waiting for a free session slot
+     */
+    public int getQueuedSessions()
+    {
+        return queuedSessions.get();
+    }
+
+    /**
+     * @return sum of the time all sessions spent in the queue
+     */
+    public long getTotalQueueWaitNanos()
+    {
+        return totalQueueWaitNanos.get();
+    }
+
+    /**
+     * @return longest time a single session spent in the queue
+     */
+    public long getMaxQueueWaitNanos()
+    {
+        return maxQueueWaitNanos.get();
+    }
+
+    void sessionQueued()
+    {
+        acceptedSessions.incrementAndGet();
+        queuedSessions.incrementAndGet();
+    }
+
+    void sessionStarted(long queueWaitNanos)
+    {
+        queuedSessions.decrementAndGet();
+        activeSessions.incrementAndGet();
+        totalQueueWaitNanos.addAndGet(queueWaitNanos);
+
+        long max;
+        do {
+            max = maxQueueWaitNanos.get();
+        }
+        while (queueWaitNanos > max && !maxQueueWaitNanos.compareAndSet(max, queueWaitNanos));
+    }
+
+    void sessionAbandoned()
+    {
+        queuedSessions.decrementAndGet();
+    }
+
+    void sessionFinished()
+    {
+        activeSessions.decrementAndGet();
+    }
+
+    void sessionRejected()
+    {
+        rejectedSessions.incrementAndGet();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "accepted=" + getAcceptedSessions()
+            + ", rejected=" + getRejectedSessions()
+            + ", active=" + getActiveSessions()
+            + ", queued=" + getQueuedSessions()
+            + ", maxQueueWaitNanos=" + getMaxQueueWaitNanos();
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The timeouts after which the server closes a client connection, zero disables a timeout.
+ * <br>
+ * <ul>
+ * <li>idle: the server has been waiting for input without receiving a byte for this long. Time spent
+ * on delaying, throttling or writing replies does not count.</li>
+ * <li>command: the client has not completed the next command this long after the reply to the
+ * previous one. Message content is only subject to the idle timeout.</li>
+ * <li>session: the session has been running for this long</li>
+ * </ul>
+ * The timeouts measure {@link Clock#timeoutNanoTime()}.
+ * <br>
+ * Every connection has a {@link Timer} with a single entry on a {@link TimingWheel}. Reads and commands
+ * only update the timer's timestamps, the entry looks at them once it is due and either closes the
+ * connection or moves itself to the earliest deadline left. That keeps the cost per read and
+ * command O(1) and free of any coordination with the thread owning the wheel.
+ */
+final class SessionTimeouts
+{
+    private static final Logger LOG = LoggerFactory.getLogger(SessionTimeouts.class);
+
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final long idleNanos;
+    private final long commandNanos;
+    private final long sessionNanos;
+
+    SessionTimeouts(long idleMillis, long commandMillis, long sessionMillis)
+    {
+        this.idleNanos = TimeUnit.MILLISECONDS.toNanos(idleMillis);
+        this.commandNanos = TimeUnit.MILLISECONDS.toNanos(commandMillis);
+        this.sessionNanos = TimeUnit.MILLISECONDS.toNanos(sessionMillis);
+    }
+
+    /**
+     * @return true if at least one timeout is enabled
+     */
+    boolean isEnabled()
+    {
+        return idleNanos > 0 || commandNanos > 0 || sessionNanos > 0;
+    }
+
+    /**
+     * @param onTimeout
+     *        closes the connection, runs on the thread owning the wheel
+     * @return a timer for a connection, which counts from {@link Timer#start(TimingWheel)}
+     */
+    Timer newTimer(Clock clock, Runnable onTimeout)
+    {
+        return new Timer(clock, onTimeout);
+    }
+
+    /**
+     * The deadlines of a single connection.
+     * <br>
+     * {@link #start(TimingWheel)}, {@link #stop()} and the expiry run on the thread owning the wheel,
+     * the other methods may be called from the thread serving the connection.
+     */
+    final class Timer implements Runnable
+    {
+        private final Clock clock;
+        private final Runnable onTimeout;
+        private long startedAt;
+        private volatile long idleSince = NONE;
+        private volatile long commandAwaitedSince = NONE;
+        private TimingWheel wheel;
+        private TimingWheel.Timeout timeout;
+        private boolean stopped = false;
+
+        private Timer(Clock clock, Runnable onTimeout)
+        {
+            this.clock = clock;
+            this.onTimeout = onTimeout;
+        }
+
+        /**
+         * Starts the idle time over if waiting, stops it otherwise.
+         */
+        void waitingForInput(boolean waiting)
+        {
+            idleSince = waiting ? clock.timeoutNanoTime() : NONE;
+        }
+
+        /**
+         * The reply to a command has been sent and the next command is awaited, unless it already is.
+         */
+        void awaitingCommand()
+        {
+            if (commandAwaitedSince == NONE) {
+                commandAwaitedSince = clock.timeoutNanoTime();
+            }
+        }
+
+        /**
+         * A command has been received or message content is read next.
+         */
+        void commandReceived()
+        {
+            commandAwaitedSince = NONE;
+        }
+
+        /**
+         * Starts the session timeout.
+         */
+        void start(TimingWheel wheel)
+        {
+            if (stopped) {
+                return;
+            }
+            this.wheel = wheel;
+            this.startedAt = clock.timeoutNanoTime();
+            run();
+        }
+
+        void stop()
+        {
+            stopped = true;
+            if (timeout != null) {
+                wheel.cancel(timeout);
+                timeout = null;
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            timeout = null;
+            if (stopped) {
+                return;
+            }
+
+            long now = clock.timeoutNanoTime();
+            long deadline = Long.MAX_VALUE;
+            String expired = null;
+            long idleStart = idleSince;
+            if (idleNanos > 0 && idleStart != NONE) {
+                deadline = idleStart + idleNanos;
+                expired = "idle";
+            }
+            long commandStart = commandAwaitedSince;
+            if (commandNanos > 0 && commandStart != NONE && commandStart + commandNanos < deadline) {
+                deadline = commandStart + commandNanos;
+                expired = "command";
+            }
+            if (sessionNanos > 0 && startedAt + sessionNanos < deadline) {
+                deadline = startedAt + sessionNanos;
+                expired = "session";
+            }
+
+            if (deadline <= now) {
+                LOG.debug("Closing client connection after the {} timeout", expired);
+                stopped = true;
+                onTimeout.run();
+                return;
+            }
+
+            // Waiting that starts after now can time out no earlier than this.
+            long nextCheck = deadline;
+            if (idleNanos > 0 && idleStart == NONE) {
+                nextCheck = Math.min(nextCheck, now + idleNanos);
+            }
+            if (commandNanos > 0 && commandStart == NONE) {
+                nextCheck = Math.min(nextCheck, now + commandNanos);
+            }
+            if (nextCheck != Long.MAX_VALUE) {
+                timeout = wheel.schedule(this, nextCheck - now, now);
+            }
+        }
+    }
+}
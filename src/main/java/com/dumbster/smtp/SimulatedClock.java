@@ -0,0 +1,195 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A clock that only moves when it is told to, so that tests of slow or timing out sessions
+ * do not have to wait in real time.
+ * <br>
+ * By default time stands still until {@link #advance(long, TimeUnit)} is called, sleeping threads
+ * and event loops wake up once their time has come. {@link #awaitSleepers(int, long, TimeUnit)}
+ * tells when the server is waiting, e.g. before its response to a command.
+ * <br>
+ * With {@link #autoAdvance()}, every sleep moves the clock forward to its end and returns
+ * right away, and event loops skip to the end of the next delay of a session once no I/O is ready.
+ * Time then passes as fast as the server can run, which suits tests that only care about the outcome.
+ * Pending timeouts never move the clock, a client that is merely slow to send does not time out.
+ * Neither do the timeouts see the time skipped this way, a session that is delayed or throttled does
+ * not push the others past their deadlines. Only {@link #advance(long, TimeUnit)} brings them closer.
+ * <br>
+ * Sleeping parks on a {@link ReentrantLock} rather than a monitor, so virtual threads release
+ * their carrier.
+ */
+public final class SimulatedClock extends Clock
+{
+    // real time an auto advancing event loop waits for I/O before it skips to the end of a delay
+    private static final long AUTO_ADVANCE_GRACE_MILLIS = 1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition advanced = lock.newCondition();
+    private final Condition sleepersChanged = lock.newCondition();
+    private final Set<Selector> selectors = new CopyOnWriteArraySet<>();
+    private volatile long now = 0;
+    // the time advanced explicitly, which the timeouts measure
+    private volatile long timeoutNow = 0;
+    private volatile boolean autoAdvance = false;
+    private int sleepers = 0;
+
+    /**
+     * Makes every sleep move the clock forward instead of waiting.
+     */
+    public SimulatedClock autoAdvance()
+    {
+        this.autoAdvance = true;
+
+        return this;
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return now;
+    }
+
+    @Override
+    long timeoutNanoTime()
+    {
+        return timeoutNow;
+    }
+
+    /**
+     * Moves the clock forward and wakes up everything whose time has come.
+     */
+    public void advance(long duration, TimeUnit unit)
+    {
+        requireNonNull(unit, "unit is null");
+        if (duration < 0) {
+            throw new IllegalArgumentException("duration must be >= 0");
+        }
+        advanceTo(now + unit.toNanos(duration), true);
+    }
+
+    /**
+     * Waits in real time until at least the given number of threads sleep on this clock.
+     *
+     * @return false if the timeout passed before
+     */
+    public boolean awaitSleepers(int count, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        long remaining = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (sleepers < count) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = sleepersChanged.awaitNanos(remaining);
+            }
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void sleep(long nanos) throws InterruptedException
+    {
+        if (nanos <= 0) {
+            return;
+        }
+        long deadline = now + nanos;
+        if (autoAdvance) {
+            advanceTo(deadline, false);
+            return;
+        }
+
+        lock.lock();
+        try {
+            sleepers++;
+            sleepersChanged.signalAll();
+            try {
+                while (now < deadline) {
+                    advanced.await();
+                }
+            }
+            finally {
+                sleepers--;
+                sleepersChanged.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    int select(Selector selector, long deadlineNanos, long timeoutDeadlineNanos) throws IOException
+    {
+        // Registered before looking at the time, so that an advance in between wakes up the select.
+        selectors.add(selector);
+        try {
+            if (now >= deadlineNanos || timeoutNow >= timeoutDeadlineNanos) {
+                return selector.selectNow();
+            }
+            if (!autoAdvance || deadlineNanos == Long.MAX_VALUE) {
+                return selector.select();
+            }
+
+            int ready = selector.select(AUTO_ADVANCE_GRACE_MILLIS);
+            if (ready == 0) {
+                advanceTo(deadlineNanos, false);
+            }
+            return ready;
+        }
+        finally {
+            selectors.remove(selector);
+        }
+    }
+
+    /**
+     * @param countsForTimeouts
+     *        false to skip the time for the sessions alone, see {@link #timeoutNanoTime()}
+     */
+    private void advanceTo(long time, boolean countsForTimeouts)
+    {
+        lock.lock();
+        try {
+            if (time <= now) {
+                return;
+            }
+            if (countsForTimeouts) {
+                timeoutNow += time - now;
+            }
+            now = time;
+            advanced.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+        for (Selector selector : selectors) {
+            selector.wakeup();
+        }
+    }
+}
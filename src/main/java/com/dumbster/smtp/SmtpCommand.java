@@ -0,0 +1,254 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import com.dumbster.smtp.action.Action;
+import com.dumbster.smtp.action.Bdat;
+import com.dumbster.smtp.action.BlankLine;
+import com.dumbster.smtp.action.Connect;
+import com.dumbster.smtp.action.Data;
+import com.dumbster.smtp.action.DataEnd;
+import com.dumbster.smtp.action.Ehlo;
+import com.dumbster.smtp.action.Expn;
+import com.dumbster.smtp.action.Help;
+import com.dumbster.smtp.action.List;
+import com.dumbster.smtp.action.Mail;
+import com.dumbster.smtp.action.NoOp;
+import com.dumbster.smtp.action.Quit;
+import com.dumbster.smtp.action.Rcpt;
+import com.dumbster.smtp.action.Rset;
+import com.dumbster.smtp.action.Unrecognized;
+import com.dumbster.smtp.action.Vrfy;
+
+/**
+ * The kinds of input a client can send, each with its shared {@link Action}.
+ * <br>
+ * The responses of the state transition table (see smtp-states.txt) are computed once per
+ * command and state, so handling a line only costs a lookup. This requires actions to answer
+ * from the state alone, without looking at the mail store or the message.
+ * <br>
+ * Lines are classified on their raw bytes, verbs are matched case-insensitively without
+ * creating a copy of the line.
+ */
+public enum SmtpCommand
+{
+    CONNECT(Connect.INSTANCE),
+    EHLO(Ehlo.EHLO),
+    HELO(Ehlo.HELO),
+    MAIL(Mail.INSTANCE),
+    RCPT(Rcpt.INSTANCE),
+    DATA(Data.INSTANCE),
+    DATA_END(DataEnd.INSTANCE),
+    BLANK_LINE(BlankLine.INSTANCE),
+    BDAT(Bdat.CHUNK),
+    BDAT_LAST(Bdat.LAST_CHUNK),
+    BDAT_INVALID(Bdat.INVALID),
+    QUIT(Quit.INSTANCE),
+    RSET(Rset.INSTANCE),
+    NOOP(NoOp.INSTANCE),
+    EXPN(Expn.INSTANCE),
+    VRFY(Vrfy.INSTANCE),
+    HELP(Help.INSTANCE),
+    LIST(List.INSTANCE),
+    UNRECOGNIZED(Unrecognized.INSTANCE);
+
+    private static final byte[] EHLO_VERB = verb("EHLO ");
+    private static final byte[] HELO_VERB = verb("HELO");
+    private static final byte[] MAIL_VERB = verb("MAIL FROM:");
+    private static final byte[] RCPT_VERB = verb("RCPT TO:");
+    private static final byte[] BDAT_VERB = verb("BDAT ");
+    private static final byte[] DATA_VERB = verb("DATA");
+    private static final byte[] QUIT_VERB = verb("QUIT");
+    private static final byte[] RSET_VERB = verb("RSET");
+    private static final byte[] NOOP_VERB = verb("NOOP");
+    private static final byte[] EXPN_VERB = verb("EXPN");
+    private static final byte[] VRFY_VERB = verb("VRFY");
+    private static final byte[] HELP_VERB = verb("HELP");
+    private static final byte[] LIST_VERB = verb("LIST");
+    private static final byte[] LAST_ARGUMENT = verb("LAST");
+
+    private static final int MAX_CHUNK_SIZE_DIGITS = 18;
+
+    private final Action action;
+    private final Response[] responses;
+
+    SmtpCommand(Action action)
+    {
+        this.action = action;
+        this.responses = new Response[SmtpState.values().length];
+        for (SmtpState state : SmtpState.values()) {
+            responses[state.ordinal()] = action.response(state, null, null);
+        }
+    }
+
+    /**
+     * @return the shared action handling this command
+     */
+    public Action getAction()
+    {
+        return action;
+    }
+
+    /**
+     * @return the shared response to this command in the given state
+     */
+    Response response(SmtpState state)
+    {
+        return responses[state.ordinal()];
+    }
+
+    /**
+     * Classifies a line received in the given state.
+     *
+     * @param state
+     *        the current state of the session
+     * @param line
+     *        buffer holding the line without its line terminator
+     * @param offset
+     *        start of the line in the buffer
+     * @param length
+     *        length of the line
+     * @return the command, never null
+     */
+    static SmtpCommand parse(SmtpState state, byte[] line, int offset, int length)
+    {
+        boolean dataEnd = length == 1 && line[offset] == '.';
+        if (state == SmtpState.DATA_HDR) {
+            return dataEnd ? DATA_END : length == 0 ? BLANK_LINE : UNRECOGNIZED;
+        }
+        if (state == SmtpState.DATA_BODY) {
+            return dataEnd ? DATA_END : UNRECOGNIZED;
+        }
+        if (length == 0) {
+            return UNRECOGNIZED;
+        }
+
+        switch (toUpperCase(line[offset])) {
+            case 'B':
+                return startsWith(line, offset, length, BDAT_VERB) ? parseBdat(line, offset, length) : UNRECOGNIZED;
+            case 'D':
+                return startsWith(line, offset, length, DATA_VERB) ? DATA : UNRECOGNIZED;
+            case 'E':
+                if (startsWith(line, offset, length, EHLO_VERB)) {
+                    return EHLO;
+                }
+                return startsWith(line, offset, length, EXPN_VERB) ? EXPN : UNRECOGNIZED;
+            case 'H':
+                if (startsWith(line, offset, length, HELO_VERB)) {
+                    return HELO;
+                }
+                return startsWith(line, offset, length, HELP_VERB) ? HELP : UNRECOGNIZED;
+            case 'L':
+                return startsWith(line, offset, length, LIST_VERB) ? LIST : UNRECOGNIZED;
+            case 'M':
+                return startsWith(line, offset, length, MAIL_VERB) ? MAIL : UNRECOGNIZED;
+            case 'N':
+                return startsWith(line, offset, length, NOOP_VERB) ? NOOP : UNRECOGNIZED;
+            case 'Q':
+                return startsWith(line, offset, length, QUIT_VERB) ? QUIT : UNRECOGNIZED;
+            case 'R':
+                if (startsWith(line, offset, length, RCPT_VERB)) {
+                    return RCPT;
+                }
+                return startsWith(line, offset, length, RSET_VERB) ? RSET : UNRECOGNIZED;
+            case 'V':
+                return startsWith(line, offset, length, VRFY_VERB) ? VRFY : UNRECOGNIZED;
+            default:
+                return UNRECOGNIZED;
+        }
+    }
+
+    /**
+     * @return the chunk size announced by a BDAT command line, -1 if it is invalid
+     */
+    static long parseChunkSize(byte[] line, int offset, int length)
+    {
+        int end = offset + length;
+        int start = skipSpaces(line, offset + BDAT_VERB.length, end);
+        int digitsEnd = start;
+        while (digitsEnd < end && line[digitsEnd] >= '0' && line[digitsEnd] <= '9') {
+            digitsEnd++;
+        }
+        if (digitsEnd == start || digitsEnd - start > MAX_CHUNK_SIZE_DIGITS) {
+            return -1;
+        }
+
+        long size = 0;
+        for (int i = start; i < digitsEnd; i++) {
+            size = size * 10 + (line[i] - '0');
+        }
+        return size;
+    }
+
+    private static SmtpCommand parseBdat(byte[] line, int offset, int length)
+    {
+        if (parseChunkSize(line, offset, length) < 0) {
+            return BDAT_INVALID;
+        }
+
+        int end = offset + length;
+        int position = skipSpaces(line, offset + BDAT_VERB.length, end);
+        while (position < end && line[position] >= '0' && line[position] <= '9') {
+            position++;
+        }
+        int argumentStart = skipSpaces(line, position, end);
+        if (argumentStart == end) {
+            return BDAT;
+        }
+        if (argumentStart == position) {
+            return BDAT_INVALID;
+        }
+        if (startsWith(line, argumentStart, end - argumentStart, LAST_ARGUMENT)
+            && skipSpaces(line, argumentStart + LAST_ARGUMENT.length, end) == end) {
+            return BDAT_LAST;
+        }
+        return BDAT_INVALID;
+    }
+
+    private static int skipSpaces(byte[] line, int from, int end)
+    {
+        int position = from;
+        while (position < end && (line[position] == ' ' || line[position] == '\t')) {
+            position++;
+        }
+        return position;
+    }
+
+    private static boolean startsWith(byte[] line, int offset, int length, byte[] verb)
+    {
+        if (length < verb.length) {
+            return false;
+        }
+        for (int i = 0; i < verb.length; i++) {
+            if (toUpperCase(line[offset + i]) != verb[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toUpperCase(byte b)
+    {
+        return b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b;
+    }
+
+    private static byte[] verb(String verb)
+    {
+        byte[] bytes = new byte[verb.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) verb.charAt(i);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,475 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Transport independent part of an SMTP session. Feeds client lines through the
+ * state machine, collects the message and hands it to the mail store once it is complete.
+ * <br>
+ * Used by the blocking {@link ClientSession} as well as by the non-blocking event loop.
+ * Instances are not thread safe, every session owns exactly one conversation.
+ */
+final class SmtpConversation
+{
+    private static final Response CHUNK_PART_RECEIVED = new Response(-1, "", SmtpState.DATA_CHUNK);
+    private static final Response CONNECTION_DROPPED = new Response(-1, "", SmtpState.CONNECT);
+    private static final Fault INSUFFICIENT_STORAGE = Fault.reply(452);
+
+    private final MailStore mailStore;
+    // filled by the client and reused for every message, the mail store receives copies
+    private final AnonymisedMailMessageImpl msg = new AnonymisedMailMessageImpl();
+    private SmtpState smtpState = SmtpState.CONNECT;
+    private String lastHeaderName = null;
+    // the command answered by the last response and the state it was received in
+    private SmtpCommand lastCommand = SmtpCommand.CONNECT;
+    private SmtpState lastCommandState = SmtpState.CONNECT;
+
+    // BDAT chunk currently being received, its response is sent once all bytes have arrived
+    private long pendingChunkBytes = 0;
+    private Response chunkResponse = null;
+    private boolean chunkHeadersComplete = false;
+    private final ByteArrayOutputStream chunkHeaderLine = new ByteArrayOutputStream();
+
+    // null unless faults are injected, see FaultProfile
+    private FaultProfile.Injector faults = null;
+    private boolean aborted = false;
+
+    // null unless load is shed under memory pressure
+    private final MemoryPressure memoryPressure;
+    // true once the body of the current message is discarded, it is not resumed within the message
+    private boolean bodyDropped = false;
+
+    SmtpConversation(MailStore mailStore)
+    {
+        this(mailStore, null);
+    }
+
+    /**
+     * @param memoryPressure
+     *        decides whether message bodies are discarded and new messages rejected, null for never
+     */
+    SmtpConversation(MailStore mailStore, MemoryPressure memoryPressure)
+    {
+        this.mailStore = mailStore;
+        this.memoryPressure = memoryPressure;
+    }
+
+    /**
+     * Executes the initial connect request.
+     *
+     * @return the greeting to send to the client
+     */
+    Response connect()
+    {
+        lastCommand = SmtpCommand.CONNECT;
+        lastCommandState = smtpState;
+        Response response = SmtpCommand.CONNECT.response(smtpState);
+        if (faults != null) {
+            Fault fault = faults.next(SmtpCommand.CONNECT, smtpState);
+            if (fault != null) {
+                return fail(SmtpCommand.CONNECT, response, fault, 0);
+            }
+        }
+        smtpState = response.getNextState();
+        return response;
+    }
+
+    /**
+     * Processes a single line received from the client.
+     *
+     * @param line
+     *        the line without its line terminator
+     * @return the response, a code of zero or less means that nothing should be sent back
+     */
+    Response receive(String line)
+    {
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        return receive(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Processes a single line received from the client as raw bytes.
+     * Commands are answered with shared responses, body lines of a message are appended
+     * to it without decoding them. Only header lines are decoded as ISO-8859-1.
+     *
+     * @param line
+     *        buffer holding the line without its line terminator
+     * @param offset
+     *        start of the line in the buffer
+     * @param length
+     *        length of the line
+     * @return the response, a code of zero or less means that nothing should be sent back
+     */
+    Response receive(byte[] line, int offset, int length)
+    {
+        SmtpCommand command = SmtpCommand.parse(smtpState, line, offset, length);
+        lastCommand = command;
+        lastCommandState = smtpState;
+        Response response = command.response(smtpState);
+        if (faults != null) {
+            Fault fault = faults.next(command, smtpState);
+            // Lines without a response, e.g. of a message, can only be dropped.
+            if (fault != null && (fault.getCode() == 0 || response.getCode() > 0)) {
+                boolean chunk = command == SmtpCommand.BDAT || command == SmtpCommand.BDAT_LAST;
+                return fail(command, response, fault, chunk ? SmtpCommand.parseChunkSize(line, offset, length) : 0);
+            }
+        }
+        if (memoryPressure != null && memoryPressure.isRejectingMessages() && startsMessage(command, response)) {
+            memoryPressure.messageRejected();
+            boolean chunk = command != SmtpCommand.DATA;
+            return fail(command, response, INSUFFICIENT_STORAGE, chunk ? SmtpCommand.parseChunkSize(line, offset, length) : 0);
+        }
+        switch (command) {
+            case UNRECOGNIZED:
+                storeInputInMessage(line, offset, length);
+                break;
+            case BDAT:
+            case BDAT_LAST:
+                return startChunk(SmtpCommand.parseChunkSize(line, offset, length), response);
+            case RSET:
+            case MAIL:
+                if (response.getCode() == 250) {
+                    // an aborted transaction, e.g. between BDAT chunks, must not leak into the next message
+                    resetTransaction();
+                }
+                break;
+            default:
+                break;
+        }
+        smtpState = response.getNextState();
+        saveAndRefreshMessageIfComplete();
+        return response;
+    }
+
+    /**
+     * Processes binary data of the BDAT chunk announced by the last command.
+     * Header lines at the start of the message are parsed, everything after them is handed
+     * to the message as it is.
+     *
+     * @param data
+     *        buffer holding the data
+     * @param offset
+     *        start of the data in the buffer
+     * @param length
+     *        length of the data, at most {@link #getPendingChunkBytes()}
+     * @return the response to the BDAT command once the chunk is complete,
+     *         a response with a code of zero or less before that
+     */
+    Response receiveChunk(byte[] data, int offset, int length)
+    {
+        pendingChunkBytes -= length;
+        if (chunkResponse.getCode() == 250) {
+            storeChunk(data, offset, length);
+        }
+        return pendingChunkBytes == 0 ? completeChunk() : CHUNK_PART_RECEIVED;
+    }
+
+    /**
+     * @return number of bytes of the current BDAT chunk that still have to be passed to
+     *         {@link #receiveChunk(byte[], int, int)} before the next line can be received
+     */
+    long getPendingChunkBytes()
+    {
+        return pendingChunkBytes;
+    }
+
+    /**
+     * Forgets everything about the current client, so that the conversation can serve
+     * another connection.
+     */
+    void reset()
+    {
+        resetMessage();
+        smtpState = SmtpState.CONNECT;
+        lastHeaderName = null;
+        lastCommand = SmtpCommand.CONNECT;
+        lastCommandState = SmtpState.CONNECT;
+        faults = null;
+        aborted = false;
+        pendingChunkBytes = 0;
+        chunkResponse = null;
+        chunkHeadersComplete = false;
+        chunkHeaderLine.reset();
+    }
+
+    /**
+     * @return true if the client has quit and the connection should be closed
+     */
+    boolean isClosed()
+    {
+        return smtpState == SmtpState.CONNECT;
+    }
+
+    /**
+     * @return true while the content of a message is received, after DATA or of a BDAT chunk
+     */
+    boolean isReceivingMessage()
+    {
+        return smtpState == SmtpState.DATA_HDR || smtpState == SmtpState.DATA_BODY || pendingChunkBytes > 0;
+    }
+
+    /**
+     * @return true if the connection should be reset rather than closed, see {@link Fault#RESET}
+     */
+    boolean isAborted()
+    {
+        return aborted;
+    }
+
+    /**
+     * Makes this conversation fail commands as decided by the injector, null to disable it.
+     */
+    void injectFaults(FaultProfile.Injector faults)
+    {
+        this.faults = faults;
+    }
+
+    SmtpState getSmtpState()
+    {
+        return smtpState;
+    }
+
+    /**
+     * @return the command answered by the last response, the BDAT command while its chunk is received
+     */
+    SmtpCommand getLastCommand()
+    {
+        return lastCommand;
+    }
+
+    /**
+     * @return the state the last command was received in
+     */
+    SmtpState getLastCommandState()
+    {
+        return lastCommandState;
+    }
+
+    private Response startChunk(long chunkSize, Response response)
+    {
+        if (smtpState == SmtpState.RCPT) {
+            chunkHeadersComplete = false;
+            chunkHeaderLine.reset();
+            lastHeaderName = null;
+        }
+        chunkResponse = response;
+        pendingChunkBytes = chunkSize;
+        return pendingChunkBytes == 0 ? completeChunk() : CHUNK_PART_RECEIVED;
+    }
+
+    /**
+     * Answers a command with an injected fault instead of its normal response.
+     *
+     * @param normal
+     *        the response the command would have got
+     * @param chunkSize
+     *        the size of the chunk announced by a BDAT command, which is received and discarded
+     *        before the fault is answered
+     */
+    private Response fail(SmtpCommand command, Response normal, Fault fault, long chunkSize)
+    {
+        if (fault.getCode() == 0) {
+            aborted = fault == Fault.RESET;
+            resetMessage();
+            pendingChunkBytes = 0;
+            chunkResponse = null;
+            smtpState = SmtpState.CONNECT;
+            return CONNECTION_DROPPED;
+        }
+
+        SmtpState nextState = smtpState;
+        switch (command) {
+            case CONNECT:
+                nextState = SmtpState.CONNECT;
+                break;
+            case DATA_END:
+            case BDAT:
+            case BDAT_LAST:
+                if (normal.getCode() == 250) {
+                    // The transaction is over, a new one may start with MAIL.
+                    resetMessage();
+                    nextState = SmtpState.QUIT;
+                }
+                break;
+            default:
+                break;
+        }
+        if (fault.getCode() == 421) {
+            nextState = SmtpState.CONNECT;
+        }
+
+        Response response = new Response(fault.getCode(), fault.getMessage(), nextState);
+        if (chunkSize > 0 && nextState != SmtpState.CONNECT) {
+            return startChunk(chunkSize, response);
+        }
+        smtpState = nextState;
+        return response;
+    }
+
+    private Response completeChunk()
+    {
+        Response response = chunkResponse;
+        chunkResponse = null;
+        smtpState = response.getNextState();
+        if (smtpState == SmtpState.QUIT && response.getCode() != 250) {
+            // a chunk failed by an injected fault, its message is discarded
+            resetMessage();
+            return response;
+        }
+        if (smtpState == SmtpState.QUIT && !chunkHeadersComplete && chunkHeaderLine.size() > 0) {
+            addChunkHeaderLine();
+        }
+        saveAndRefreshMessageIfComplete();
+        return response;
+    }
+
+    private void storeChunk(byte[] data, int offset, int length)
+    {
+        int end = offset + length;
+        int lineStart = offset;
+        while (!chunkHeadersComplete && lineStart < end) {
+            int newline = indexOfNewline(data, lineStart, end);
+            if (newline < 0) {
+                chunkHeaderLine.write(data, lineStart, end - lineStart);
+                lineStart = end;
+            }
+            else {
+                chunkHeaderLine.write(data, lineStart, newline - lineStart);
+                lineStart = newline + 1;
+                addChunkHeaderLine();
+            }
+        }
+        if (lineStart < end && !dropsBody()) {
+            msg.appendBodyChunk(data, lineStart, end - lineStart);
+        }
+    }
+
+    private void addChunkHeaderLine()
+    {
+        byte[] bytes = chunkHeaderLine.toByteArray();
+        int length = bytes.length > 0 && bytes[bytes.length - 1] == '\r' ? bytes.length - 1 : bytes.length;
+        chunkHeaderLine.reset();
+
+        if (length == 0) {
+            chunkHeadersComplete = true;
+        }
+        else {
+            addDataHeader(new String(bytes, 0, length, StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private static int indexOfNewline(byte[] data, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (data[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void saveAndRefreshMessageIfComplete()
+    {
+        if (smtpState == SmtpState.QUIT) {
+            if (bodyDropped) {
+                memoryPressure.messageTruncated();
+            }
+            mailStore.addMessage(msg.copy());
+            resetMessage();
+        }
+    }
+
+    private void resetMessage()
+    {
+        msg.reset();
+        bodyDropped = false;
+    }
+
+    private void resetTransaction()
+    {
+        resetMessage();
+        lastHeaderName = null;
+        chunkResponse = null;
+        chunkHeadersComplete = false;
+        chunkHeaderLine.reset();
+    }
+
+    /**
+     * @return true if DATA or the first BDAT command would start receiving a message
+     */
+    private boolean startsMessage(SmtpCommand command, Response response)
+    {
+        switch (command) {
+            case DATA:
+                return response.getNextState() == SmtpState.DATA_HDR;
+            case BDAT:
+            case BDAT_LAST:
+                return smtpState == SmtpState.RCPT && response.getCode() == 250;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return true if the body of the current message is discarded to save memory
+     */
+    private boolean dropsBody()
+    {
+        if (!bodyDropped && memoryPressure != null && memoryPressure.isCapturingHeadersOnly()) {
+            bodyDropped = true;
+        }
+        return bodyDropped;
+    }
+
+    private void storeInputInMessage(byte[] line, int offset, int length)
+    {
+        if (smtpState == SmtpState.DATA_HDR) {
+            addDataHeader(new String(line, offset, length, StandardCharsets.ISO_8859_1));
+        }
+        else if (smtpState == SmtpState.DATA_BODY && !dropsBody()) {
+            if (length == 0) {
+                msg.appendBody("\n");
+            }
+            else {
+                msg.appendBody(line, offset, length);
+            }
+        }
+    }
+
+    private void addDataHeader(String params)
+    {
+        int headerNameEnd = params.indexOf(':');
+        if (headerNameEnd > 0 && !whiteSpacedLineStart(params)) {
+            lastHeaderName = params.substring(0, headerNameEnd).trim();
+            String value = params.substring(headerNameEnd + 1).trim();
+            msg.addHeader(lastHeaderName, value);
+        }
+        else if (whiteSpacedLineStart(params) && lastHeaderName != null) {
+            msg.appendHeader(lastHeaderName, params);
+        }
+    }
+
+    private boolean whiteSpacedLineStart(String s)
+    {
+        if (s == null || "".equals(s)) {
+            return false;
+        }
+        char c = s.charAt(0);
+        return c == 32 || c == 0x0b || c == '\n' ||
+               c == '\r' || c == '\t' || c == '\f';
+    }
+}
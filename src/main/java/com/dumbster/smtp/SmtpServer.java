@@ -22,13 +22,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 /**
  * Dummy SMTP server for testing purposes.
@@ -37,9 +38,11 @@ public class SmtpServer implements Runnable
 {
     private static final Logger LOG = LoggerFactory.getLogger(SmtpServer.class);
 
-    // Timeout for socket accept. Do *not* set to 0 (call will block forever)
-    private static final int SERVER_SOCKET_TIMEOUT = 10;
     private static final int MAX_THREADS = 10;
+    // Upper bound for the number of idle conversations and buffers kept for reuse.
+    private static final int SESSION_POOL_CAPACITY = 256;
+    // One tick of anticipateMessageCountFor.
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
 
     // True if the server is accepting connections.
     private volatile boolean running = false;
@@ -47,13 +50,29 @@ public class SmtpServer implements Runnable
     // True if the server is not active.
     private volatile boolean stopped = true;
 
+    // Released once the server is accepting connections or has failed to start.
+    private final CountDownLatch started = new CountDownLatch(1);
+
     private volatile Thread serverThread = null;
+    private volatile ServerSocketChannel[] serverChannels = null;
 
     private final int port;
     private final MailStore mailStore;
     private final boolean threaded;
-    private final int waitInResponse;
-
+    private final boolean virtualThreads;
+    private final LatencyProfile latencyProfile;
+    private final Clock clock;
+    private final FaultProfile faultProfile;
+    private final LinkProfile linkProfile;
+    private final SessionTimeouts timeouts;
+    private final boolean nonBlocking;
+    private final int eventLoops;
+    private final int acceptors;
+    private final int maxSessions;
+    private final int maxQueuedSessions;
+    private final SessionStatistics sessionStatistics = new SessionStatistics();
+    private final MemoryPressure memoryPressure;
+    private final boolean shedsLoad;
 
     public SmtpServer(final ServerOptions serverOptions)
     {
@@ -61,28 +80,141 @@ public class SmtpServer implements Runnable
         this.port = serverOptions.getPort();
         this.mailStore = serverOptions.getMailStore();
         this.threaded = serverOptions.isThreaded();
-        this.waitInResponse = serverOptions.getWaitInResponse();
+        this.virtualThreads = serverOptions.isVirtualThreads();
+        this.latencyProfile = resolveLatencyProfile(serverOptions);
+        this.clock = serverOptions.getClock();
+        this.faultProfile = serverOptions.getFaultProfile();
+        this.linkProfile = serverOptions.getLinkProfile();
+        this.timeouts = new SessionTimeouts(serverOptions.getIdleTimeout(), serverOptions.getCommandTimeout(),
+            serverOptions.getSessionTimeout());
+        this.nonBlocking = serverOptions.isNonBlocking();
+        this.eventLoops = threaded ? serverOptions.getEventLoops() : 1;
+        this.acceptors = threaded ? serverOptions.getAcceptors() : 1;
+        this.maxSessions = resolveMaxSessions(serverOptions);
+        this.maxQueuedSessions = serverOptions.getMaxQueuedSessions();
+        this.memoryPressure = new MemoryPressure(serverOptions.getMemoryProfile(), mailStore);
+        this.shedsLoad = serverOptions.getMemoryProfile() != null;
+    }
+
+    private static LatencyProfile resolveLatencyProfile(ServerOptions serverOptions)
+    {
+        if (serverOptions.getLatencyProfile() != null) {
+            return serverOptions.getLatencyProfile();
+        }
+        if (serverOptions.getWaitInResponse() > 0) {
+            return LatencyProfile.fixed(serverOptions.getWaitInResponse());
+        }
+        return null;
+    }
+
+    private static int resolveMaxSessions(ServerOptions serverOptions)
+    {
+        if (!serverOptions.isThreaded() && !serverOptions.isNonBlocking()) {
+            return 1;
+        }
+        if (serverOptions.getMaxSessions() > 0) {
+            return serverOptions.getMaxSessions();
+        }
+        if (serverOptions.isNonBlocking() || (serverOptions.isVirtualThreads() && VirtualThreads.isSupported())) {
+            return Integer.MAX_VALUE;
+        }
+        return MAX_THREADS;
     }
 
     @Override
     public void run()
     {
         serverThread = Thread.currentThread();
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
-            serverSocket.setSoTimeout(SERVER_SOCKET_TIMEOUT);
-            serverLoop(serverSocket);
+        try {
+            serverChannels = ReusePort.bind(port, acceptors);
+            serverLoop(serverChannels);
         }
         catch (IOException e) {
             LOG.warn("Server Loop terminated: ", e);
         }
+        finally {
+            if (serverChannels != null) {
+                ReusePort.close(serverChannels);
+            }
+            memoryPressure.stop();
+            stopped = true;
+            started.countDown();
+        }
     }
 
-    private void serverLoop(ServerSocket serverSocket) throws IOException
+    private void serverLoop(ServerSocketChannel[] serverChannels) throws IOException
     {
-        ExecutorService executorService;
-
         final String serverThreadName = Thread.currentThread().getName();
 
+        ConnectionHandler[] handlers = new ConnectionHandler[acceptors];
+        ConnectionLimit connectionLimit = new ConnectionLimit(maxSessions, sessionStatistics);
+        SessionPool sessionPool = new SessionPool(mailStore, faultProfile, shedsLoad ? memoryPressure : null,
+            Math.min(maxSessions, SESSION_POOL_CAPACITY));
+        memoryPressure.start();
+        SessionReaper reaper = null;
+        if (!nonBlocking && timeouts.isEnabled()) {
+            reaper = new SessionReaper(timeouts, clock);
+            Thread reaperThread = new Thread(reaper);
+            reaperThread.setDaemon(true);
+            reaperThread.setName(serverThreadName + "-reaper");
+            reaperThread.start();
+        }
+        for (int i = 0; i < handlers.length; i++) {
+            String namePrefix = acceptors > 1 ? serverThreadName + "-" + i : serverThreadName;
+            if (nonBlocking) {
+                handlers[i] = new EventLoopGroup(shareOf(eventLoops, i), namePrefix + "-loop-", sessionPool,
+                    connectionLimit, latencyProfile, linkProfile, timeouts.isEnabled() ? timeouts : null, clock);
+            }
+            else {
+                int sessions = shareOf(maxSessions, i);
+                handlers[i] = new SessionExecutor(createExecutorService(namePrefix, sessions), sessionPool, latencyProfile,
+                    linkProfile, clock, reaper, sessions, shareOf(maxQueuedSessions, i), sessionStatistics);
+            }
+        }
+
+        this.running = true;
+        this.stopped = false;
+        started.countDown();
+
+        Thread[] acceptorThreads = new Thread[acceptors - 1];
+        for (int i = 1; i < acceptors; i++) {
+            Thread acceptorThread = new Thread(new Acceptor(this, serverChannels[i % serverChannels.length], handlers[i]));
+            acceptorThread.setDaemon(true);
+            acceptorThread.setName(serverThreadName + "-acceptor-" + i);
+            acceptorThread.start();
+            acceptorThreads[i - 1] = acceptorThread;
+        }
+
+        new Acceptor(this, serverChannels[0], handlers[0]).run();
+
+        // stop() interrupts this thread to end the accept loop, that is handled now.
+        Thread.interrupted();
+
+        // Closing the channels releases the other acceptors from accept.
+        ReusePort.close(serverChannels);
+        for (Thread acceptorThread : acceptorThreads) {
+            try {
+                acceptorThread.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        for (ConnectionHandler handler : handlers) {
+            handler.shutdown();
+        }
+        if (reaper != null) {
+            reaper.shutdown();
+        }
+    }
+
+    private ExecutorService createExecutorService(final String threadNamePrefix, int poolSize)
+    {
+        if (threaded && virtualThreads && VirtualThreads.isSupported()) {
+            return VirtualThreads.newThreadPerTaskExecutor(threadNamePrefix + "-");
+        }
+
         ThreadFactory threadFactory = new ThreadFactory() {
             private final AtomicInteger threadId = new AtomicInteger();
 
@@ -91,51 +223,46 @@ public class SmtpServer implements Runnable
             {
                 Thread serviceThread = new Thread(r);
                 serviceThread.setDaemon(true);
-                serviceThread.setName(serverThreadName + "-" + threadId.getAndIncrement());
+                serviceThread.setName(threadNamePrefix + "-" + threadId.getAndIncrement());
                 return serviceThread;
             }
         };
 
         if (threaded) {
-            executorService = Executors.newFixedThreadPool(MAX_THREADS, threadFactory);
-        }
-        else {
-            executorService = Executors.newSingleThreadExecutor(threadFactory);
+            if (virtualThreads) {
+                LOG.warn("Virtual threads are not supported by this JVM, using a pool of {} threads.", maxSessions);
+            }
+            return Executors.newFixedThreadPool(poolSize, threadFactory);
         }
+        return Executors.newSingleThreadExecutor(threadFactory);
+    }
 
-        this.running = true;
-        this.stopped = false;
-
-        do {
-            try {
-                Socket clientSocket = serverSocket.accept();
-                SocketWrapper source = new SocketWrapper(clientSocket);
-                ClientSession session;
-
-                if (waitInResponse == 0) {
-                    session = new ClientSession(source, mailStore);
-                }
-                else {
-                    session = new TimedClientSession(source, mailStore, waitInResponse);
-                }
-
-                executorService.execute(session);
-            }
-            catch (SocketTimeoutException e) {
-                LOG.trace("Tick ...");
-            }
-            catch (IOException e) {
-                // Don't bother logging if we shut down, it is probably a
-                // socket closed exception
-                if (isRunning()) {
-                    LOG.warn("In accept loop: ", e);
-                }
-            }
+    /**
+     * Splits a limit evenly between the acceptors, every acceptor gets at least one.
+     */
+    private int shareOf(int total, int acceptor)
+    {
+        if (total == Integer.MAX_VALUE) {
+            return total;
         }
-        while (isRunning());
+        int share = total / acceptors + (acceptor < total % acceptors ? 1 : 0);
+        return Math.max(share, 1);
+    }
 
-        executorService.shutdown();
-        stopped = true;
+    /**
+     * @return counters about accepted, queued and rejected client sessions
+     */
+    public SessionStatistics getSessionStatistics()
+    {
+        return sessionStatistics;
+    }
+
+    /**
+     * @return the load shed under memory pressure, see {@link ServerOptions#withMemoryProfile(MemoryProfile)}
+     */
+    public MemoryPressure getMemoryPressure()
+    {
+        return memoryPressure;
     }
 
     public boolean isStopped()
@@ -148,10 +275,25 @@ public class SmtpServer implements Runnable
         return running;
     }
 
+    /**
+     * Waits in real time until the server accepts connections or has failed to start.
+     *
+     * @return false if the timeout passed before
+     */
+    boolean awaitStarted(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return started.await(timeout, unit);
+    }
+
     public synchronized void stop() throws InterruptedException
     {
         // exit the accept loop.
         running = false;
+        ServerSocketChannel[] channels = serverChannels;
+        if (channels != null) {
+            // Acceptors sharing a channel may wait for its lock, which an interrupt does not end.
+            ReusePort.close(channels);
+        }
         if (serverThread != null) {
             serverThread.interrupt();
         }
@@ -169,18 +311,43 @@ public class SmtpServer implements Runnable
         return mailStore.getMessage(i);
     }
 
+    /**
+     * @return the messages stored after the one with the given sequence number, see {@link MailStore#getMessagesSince(long)}
+     */
+    public StoredMessage[] getMessagesSince(long sequenceNumber)
+    {
+        return mailStore.getMessagesSince(sequenceNumber);
+    }
+
     public int getEmailCount()
     {
         return mailStore.getEmailCount();
     }
 
+    /**
+     * Waits until the mail store holds the given number of messages or the given number of
+     * milliseconds has passed on the clock of the server.
+     * <br>
+     * With the system clock this is {@link #awaitMessageCount(int, long, TimeUnit)}, other clocks
+     * are checked once per millisecond of their time.
+     */
     public void anticipateMessageCountFor(int messageCount, int ticks)
     {
+        if (clock == Clock.SYSTEM) {
+            try {
+                awaitMessageCount(messageCount, ticks, TimeUnit.MILLISECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
         int tickdown = ticks;
         while (mailStore.getEmailCount() < messageCount && tickdown > 0) {
             tickdown--;
             try {
-                Thread.sleep(1);
+                clock.sleep(TICK_NANOS);
             }
             catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
@@ -189,6 +356,44 @@ public class SmtpServer implements Runnable
         }
     }
 
+    /**
+     * Waits in real time until the mail store holds the given number of messages, woken up by every
+     * message stored.
+     *
+     * @return false if the timeout passed before
+     */
+    public boolean awaitMessageCount(int messageCount, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return mailStore.awaitMessageCount(messageCount, timeout, unit);
+    }
+
+    /**
+     * Waits in real time for a message matching the predicate, looking at the messages stored already first.
+     *
+     * @return the first matching message or null if the timeout passed before
+     */
+    public MailMessage awaitMessage(Predicate<? super MailMessage> predicate, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        return mailStore.awaitMessage(predicate, timeout, unit);
+    }
+
+    /**
+     * Delivers the messages stored from now on to the subscriber, see {@link MailStore#subscribe(MessageSubscriber)}.
+     */
+    public MessageSubscription subscribe(MessageSubscriber subscriber)
+    {
+        return mailStore.subscribe(subscriber);
+    }
+
+    /**
+     * Tells the listener about every message stored from now on, see {@link MailStore#subscribe(MessageListener)}.
+     */
+    public MessageSubscription subscribe(MessageListener listener)
+    {
+        return mailStore.subscribe(listener);
+    }
+
     public void clearMessages()
     {
         this.mailStore.clearMessages();
@@ -18,6 +18,8 @@ import static java.lang.String.format;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * User: rj
  * Date: Aug 28, 2011
@@ -27,6 +29,8 @@ public class SmtpServerFactory
 {
     private static final Logger LOG = LoggerFactory.getLogger(SmtpServerFactory.class);
 
+    private static final long STARTUP_TIMEOUT_MILLIS = 1000;
+
     public static SmtpServer startServer()
     {
         ServerOptions serverOptions = new ServerOptions();
@@ -73,20 +77,14 @@ public class SmtpServerFactory
         serverThread.setName(format("Dumbster-SMTP-Server @ %d", server.getPort()));
         serverThread.start();
 
-        int timeout = 1000;
-        while (!server.isRunning()) {
-            try {
-                Thread.sleep(1);
-                if (timeout > 0) {
-                    timeout--;
-                    if (timeout < 1) {
-                        throw new IllegalStateException("Server could not be started.");
-                    }
-                }
-            }
-            catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+        // Waits for the server thread rather than for time to pass, so this never sleeps.
+        try {
+            if (!server.awaitStarted(STARTUP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS) || !server.isRunning()) {
+                throw new IllegalStateException("Server could not be started.");
             }
         }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 }
@@ -25,6 +25,7 @@ public enum SmtpState
     DATA_HDR(
             "DATA_HDR"),
     DATA_BODY("DATA_BODY"),
+    DATA_CHUNK("DATA_CHUNK"),
     QUIT("QUIT");
 
     private String description;
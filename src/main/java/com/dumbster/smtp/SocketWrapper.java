@@ -14,8 +14,13 @@
 package com.dumbster.smtp;
 
 import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
@@ -24,24 +29,80 @@ import java.nio.charset.StandardCharsets;
 public class SocketWrapper implements IOSource
 {
     private Socket socket;
+    private final Clock clock;
+    private final Throttle throttle;
+    private final SessionTimeouts.Timer timer;
 
     public SocketWrapper(Socket socket) throws IOException
+    {
+        this(socket, Clock.SYSTEM, null, null);
+    }
+
+    /**
+     * @param linkProfile
+     *        throttles reads and writes, sleeping on the clock. Null for no throttling.
+     * @param timer
+     *        is told while reads wait for the client, to detect idle clients. Null for no timeouts.
+     */
+    SocketWrapper(Socket socket, Clock clock, LinkProfile linkProfile, SessionTimeouts.Timer timer) throws IOException
     {
         this.socket = socket;
-        this.socket.setSoTimeout(10000); // protects against hanged clients
+        this.clock = clock;
+        this.throttle = linkProfile != null ? new Throttle(linkProfile, clock) : null;
+        this.timer = timer;
+    }
+
+    @Override
+    public LineReader getLineReader() throws IOException
+    {
+        return new LineReader(openInputStream());
+    }
+
+    @Override
+    public LineReader getLineReader(byte[] buffer) throws IOException
+    {
+        return new LineReader(openInputStream(), buffer);
+    }
+
+    private InputStream openInputStream() throws IOException
+    {
+        InputStream in = socket.getInputStream();
+        if (timer != null) {
+            in = new IdleTimeInputStream(in, timer);
+        }
+        if (throttle != null) {
+            in = new ThrottledInputStream(in, throttle, clock);
+        }
+        return in;
     }
 
     @Override
     public BufferedReader getInputStream() throws IOException
     {
-        return new BufferedReader(
-            new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+        return new BufferedReader(new InputStreamReader(openInputStream(), StandardCharsets.ISO_8859_1));
     }
 
     @Override
     public PrintWriter getOutputStream() throws IOException
     {
-        return new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.ISO_8859_1));
+        return new PrintWriter(new OutputStreamWriter(getResponseStream(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public OutputStream getResponseStream() throws IOException
+    {
+        if (throttle != null) {
+            return new ThrottledOutputStream(socket.getOutputStream(), throttle, clock);
+        }
+        return socket.getOutputStream();
+    }
+
+    @Override
+    public void receivingMessage(boolean receivingMessage)
+    {
+        if (throttle != null) {
+            throttle.receivingMessage(receivingMessage);
+        }
     }
 
     @Override
@@ -50,4 +111,147 @@ public class SocketWrapper implements IOSource
         socket.close();
     }
 
+    @Override
+    public void abort() throws IOException
+    {
+        socket.setSoLinger(true, 0);
+        socket.close();
+    }
+
+    /**
+     * Tells the timer while a read waits for the client.
+     */
+    private static final class IdleTimeInputStream extends FilterInputStream
+    {
+        private final SessionTimeouts.Timer timer;
+
+        IdleTimeInputStream(InputStream in, SessionTimeouts.Timer timer)
+        {
+            super(in);
+            this.timer = timer;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            timer.waitingForInput(true);
+            try {
+                return super.read();
+            }
+            finally {
+                timer.waitingForInput(false);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            timer.waitingForInput(true);
+            try {
+                return super.read(b, off, len);
+            }
+            finally {
+                timer.waitingForInput(false);
+            }
+        }
+    }
+
+    /**
+     * Reads no faster than the throttle allows, sleeping while it does not allow anything.
+     */
+    private static final class ThrottledInputStream extends FilterInputStream
+    {
+        private final Throttle throttle;
+        private final Clock clock;
+
+        ThrottledInputStream(InputStream in, Throttle throttle, Clock clock)
+        {
+            super(in);
+            this.throttle = throttle;
+            this.clock = clock;
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            awaitAllowance();
+            int read = super.read();
+            if (read >= 0) {
+                throttle.consumeRead(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            if (len == 0) {
+                return 0;
+            }
+            int read = super.read(b, off, Math.min(len, awaitAllowance()));
+            if (read > 0) {
+                throttle.consumeRead(read);
+            }
+            return read;
+        }
+
+        private int awaitAllowance() throws IOException
+        {
+            int allowance;
+            while ((allowance = throttle.readAllowance()) == 0) {
+                sleep(clock, throttle.nanosUntilReadable());
+            }
+            return allowance;
+        }
+    }
+
+    /**
+     * Writes no faster than the throttle allows, sleeping while it does not allow anything.
+     */
+    private static final class ThrottledOutputStream extends FilterOutputStream
+    {
+        private final Throttle throttle;
+        private final Clock clock;
+
+        ThrottledOutputStream(OutputStream out, Throttle throttle, Clock clock)
+        {
+            super(out);
+            this.throttle = throttle;
+            this.clock = clock;
+        }
+
+        @Override
+        public void write(int b) throws IOException
+        {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            int written = 0;
+            while (written < len) {
+                int allowance = throttle.writeAllowance();
+                if (allowance == 0) {
+                    sleep(clock, throttle.nanosUntilWritable());
+                    continue;
+                }
+                int count = Math.min(len - written, allowance);
+                out.write(b, off + written, count);
+                throttle.consumeWrite(count);
+                written += count;
+            }
+        }
+    }
+
+    private static void sleep(Clock clock, long nanos) throws IOException
+    {
+        try {
+            clock.sleep(nanos);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttled");
+        }
+    }
 }
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A message as kept by a {@link MailStore}, together with the sequence number and time it was stored at.
+ * <br>
+ * Sequence numbers start at 1 and grow with every message a store receives. The stores of this library
+ * never reuse them, not even after they have been cleared, so they can serve as cursor, see
+ * {@link MailStore#getMessagesSince(long)}. Stores that do not number their messages themselves number
+ * them by position.
+ */
+public final class StoredMessage
+{
+    private final long sequenceNumber;
+    private final long receivedAt;
+    private final MailMessage message;
+
+    /**
+     * @param receivedAt
+     *        the time the message was stored, in milliseconds since the epoch
+     */
+    public StoredMessage(long sequenceNumber, long receivedAt, MailMessage message)
+    {
+        if (sequenceNumber <= 0) {
+            throw new IllegalArgumentException("sequenceNumber must be > 0");
+        }
+        this.sequenceNumber = sequenceNumber;
+        this.receivedAt = receivedAt;
+        this.message = requireNonNull(message, "message is null");
+    }
+
+    public long getSequenceNumber()
+    {
+        return sequenceNumber;
+    }
+
+    /**
+     * @return the time the message was stored, in milliseconds since the epoch
+     */
+    public long getReceivedAt()
+    {
+        return receivedAt;
+    }
+
+    public MailMessage getMessage()
+    {
+        return message;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "#" + sequenceNumber + " " + message;
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+/**
+ * The token buckets of a single connection, see {@link LinkProfile}.
+ * <br>
+ * Allowances are in bytes, {@link Integer#MAX_VALUE} stands for unlimited. Not thread safe,
+ * a connection is read and written by one thread at a time.
+ */
+final class Throttle
+{
+    private final Clock clock;
+    private final TokenBucket readBucket;
+    private final TokenBucket dataBucket;
+    private final TokenBucket writeBucket;
+    private boolean receivingMessage = false;
+
+    Throttle(LinkProfile profile, Clock clock)
+    {
+        this.clock = clock;
+        long now = clock.nanoTime();
+        this.readBucket = profile.newReadBucket(now);
+        this.dataBucket = profile.newDataBucket(now);
+        this.writeBucket = profile.newWriteBucket(now);
+    }
+
+    /**
+     * Switches between the read rate of commands and that of message content.
+     */
+    void receivingMessage(boolean receivingMessage)
+    {
+        this.receivingMessage = receivingMessage;
+    }
+
+    int readAllowance()
+    {
+        return allowance(currentReadBucket());
+    }
+
+    void consumeRead(int count)
+    {
+        consume(currentReadBucket(), count);
+    }
+
+    long nanosUntilReadable()
+    {
+        return nanosUntilFull(currentReadBucket());
+    }
+
+    int writeAllowance()
+    {
+        return allowance(writeBucket);
+    }
+
+    void consumeWrite(int count)
+    {
+        consume(writeBucket, count);
+    }
+
+    long nanosUntilWritable()
+    {
+        return nanosUntilFull(writeBucket);
+    }
+
+    private TokenBucket currentReadBucket()
+    {
+        return receivingMessage && dataBucket != null ? dataBucket : readBucket;
+    }
+
+    private int allowance(TokenBucket bucket)
+    {
+        if (bucket == null) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bucket.available(clock.nanoTime()));
+    }
+
+    private static void consume(TokenBucket bucket, int count)
+    {
+        if (bucket != null) {
+            bucket.consume(count);
+        }
+    }
+
+    /**
+     * Waits for a full burst rather than a single byte, which costs one wake-up per burst instead of one per byte.
+     */
+    private long nanosUntilFull(TokenBucket bucket)
+    {
+        return bucket != null ? bucket.nanosUntilFull(clock.nanoTime()) : 0;
+    }
+}
@@ -18,16 +18,33 @@ import static java.lang.String.format;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.TimeUnit;
+
 public class TimedClientSession extends ClientSession
 {
     private static final Logger LOG = LoggerFactory.getLogger(TimedClientSession.class);
 
     private int waitInResponse;
+    private final LatencyProfile.Sampler latency;
+    private final Clock clock;
 
     public TimedClientSession(IOSource socket, MailStore mailStore, int waitInResponse)
     {
         super(socket, mailStore);
         this.waitInResponse = waitInResponse;
+        this.latency = null;
+        this.clock = Clock.SYSTEM;
+    }
+
+    /**
+     * Delays the responses as given by the profile, {@link #getWaitInResponse()} is not used.
+     */
+    TimedClientSession(IOSource socket, SessionPool pool, LatencyProfile latencyProfile, Clock clock,
+            SessionTimeouts.Timer timer)
+    {
+        super(socket, pool, timer);
+        this.latency = latencyProfile.newSampler();
+        this.clock = clock;
     }
 
     public int getWaitInResponse()
@@ -40,9 +57,19 @@ public class TimedClientSession extends ClientSession
         this.waitInResponse = waitInResponse;
     }
 
+    /**
+     * Sleeps before every response. On a virtual thread this parks the thread
+     * and releases its carrier, so no monitors may be held here. A platform thread
+     * of the pool is blocked for the whole delay, see {@link ServerOptions#withLatencyProfile(LatencyProfile)}.
+     */
     protected void doWaitInResponse() throws InterruptedException
     {
-        LOG.debug(format("++++ waiting %dms", waitInResponse));
-        Thread.sleep(waitInResponse);
+        if (latency == null) {
+            LOG.debug(format("++++ waiting %dms", waitInResponse));
+            clock.sleep(TimeUnit.MILLISECONDS.toNanos(waitInResponse));
+            return;
+        }
+
+        clock.sleep(latency.nextDelayNanos(getConversation()));
     }
 }
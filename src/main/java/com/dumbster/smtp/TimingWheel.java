@@ -0,0 +1,261 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel running tasks after a delay.
+ * <br>
+ * Time is divided into ticks, every tick maps to one of a power-of-two number of slots.
+ * Scheduling and cancelling are O(1), expiring costs one slot visit per elapsed tick.
+ * Deadlines are rounded up to the next tick. The earliest deadline is only looked up again once
+ * the one known before has passed, so an owner can sleep until then rather than waking every tick.
+ * <br>
+ * Not thread safe: scheduling, cancelling and {@link #expire(long)} must happen on the thread
+ * that owns the wheel, e.g. an event loop. Tasks run on that thread from within {@code expire}.
+ */
+final class TimingWheel
+{
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheel.class);
+
+    private final long tickNanos;
+    private final long origin;
+    private final Timeout[] slots;
+    private final int mask;
+    private final List<Timeout> due = new ArrayList<>();
+    private long currentTick = 0;
+    private int size = 0;
+    // no pending task is due before this tick, looked up again once it is behind currentTick
+    private long earliestTick = Long.MAX_VALUE;
+
+    /**
+     * @param tickNanos
+     *        resolution of the wheel
+     * @param slotCount
+     *        number of slots, rounded up to a power of two. Delays longer than
+     *        {@code slotCount} ticks take more than one turn of the wheel.
+     * @param nowNanos
+     *        the current time
+     */
+    TimingWheel(long tickNanos, int slotCount, long nowNanos)
+    {
+        if (tickNanos <= 0) {
+            throw new IllegalArgumentException("tickNanos must be > 0");
+        }
+        if (slotCount <= 0 || slotCount > 1 << 30) {
+            throw new IllegalArgumentException("slotCount must be between 1 and 2^30");
+        }
+        this.tickNanos = tickNanos;
+        this.origin = nowNanos;
+        int powerOfTwo = 1;
+        while (powerOfTwo < slotCount) {
+            powerOfTwo <<= 1;
+        }
+        this.slots = new Timeout[powerOfTwo];
+        this.mask = slots.length - 1;
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task
+     *        runs once the delay has passed, unless cancelled before
+     * @param delayNanos
+     *        the delay, zero or less runs the task on the next call to {@link #expire(long)}
+     * @param nowNanos
+     *        the current time
+     * @return handle to cancel the task
+     */
+    Timeout schedule(Runnable task, long delayNanos, long nowNanos)
+    {
+        long deadlineTick = Math.max(currentTick, ceilDiv(nowNanos + Math.max(0, delayNanos) - origin, tickNanos));
+        Timeout timeout = new Timeout(task, deadlineTick);
+        link(timeout);
+        earliestTick = Math.min(earliestTick, deadlineTick);
+        return timeout;
+    }
+
+    /**
+     * Cancels a task that has not run yet. Does nothing otherwise.
+     */
+    void cancel(Timeout timeout)
+    {
+        if (timeout.state == Timeout.PENDING) {
+            unlink(timeout);
+        }
+        timeout.state = Timeout.CANCELLED;
+    }
+
+    /**
+     * Runs all tasks whose deadline has passed.
+     *
+     * @param nowNanos
+     *        the current time
+     * @return number of tasks that ran
+     */
+    int expire(long nowNanos)
+    {
+        long nowTick = Math.floorDiv(nowNanos - origin, tickNanos);
+        if (nowTick < currentTick) {
+            return 0;
+        }
+
+        // Visiting a slot more than once per call gains nothing, so long pauses cost one turn at most.
+        long lastTick = Math.min(nowTick, currentTick + slots.length - 1);
+        for (long tick = currentTick; tick <= lastTick; tick++) {
+            collectDue((int) (tick & mask), nowTick);
+        }
+        currentTick = nowTick + 1;
+
+        int ran = 0;
+        for (int i = 0; i < due.size(); i++) {
+            Timeout timeout = due.get(i);
+            if (timeout.state != Timeout.EXPIRED) {
+                continue;
+            }
+            ran++;
+            try {
+                timeout.task.run();
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Timer task failed: ", e);
+            }
+        }
+        due.clear();
+        return ran;
+    }
+
+    /**
+     * @return true if no task is scheduled
+     */
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * @return the time from which {@link #expire(long)} runs the earliest task, which may have been
+     *         cancelled since. {@link Long#MAX_VALUE} if no task is scheduled.
+     */
+    long nextDeadline()
+    {
+        if (size == 0) {
+            return Long.MAX_VALUE;
+        }
+        if (earliestTick < currentTick) {
+            earliestTick = findEarliestTick();
+        }
+        return origin + earliestTick * tickNanos;
+    }
+
+    private long findEarliestTick()
+    {
+        // Pending tasks are never due before currentTick, so the first one found within a turn is the earliest.
+        for (long tick = currentTick; tick < currentTick + slots.length; tick++) {
+            for (Timeout timeout = slots[(int) (tick & mask)]; timeout != null; timeout = timeout.next) {
+                if (timeout.deadlineTick <= tick) {
+                    return tick;
+                }
+            }
+        }
+        long earliest = Long.MAX_VALUE;
+        for (Timeout head : slots) {
+            for (Timeout timeout = head; timeout != null; timeout = timeout.next) {
+                earliest = Math.min(earliest, timeout.deadlineTick);
+            }
+        }
+        return earliest;
+    }
+
+    private void collectDue(int slot, long nowTick)
+    {
+        Timeout timeout = slots[slot];
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.deadlineTick <= nowTick) {
+                unlink(timeout);
+                timeout.state = Timeout.EXPIRED;
+                due.add(timeout);
+            }
+            timeout = next;
+        }
+    }
+
+    private void link(Timeout timeout)
+    {
+        int slot = (int) (timeout.deadlineTick & mask);
+        timeout.next = slots[slot];
+        if (timeout.next != null) {
+            timeout.next.prev = timeout;
+        }
+        slots[slot] = timeout;
+        size++;
+    }
+
+    private void unlink(Timeout timeout)
+    {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        }
+        else {
+            slots[(int) (timeout.deadlineTick & mask)] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    private static long ceilDiv(long dividend, long divisor)
+    {
+        return -Math.floorDiv(-dividend, divisor);
+    }
+
+    /**
+     * A scheduled task.
+     */
+    static final class Timeout
+    {
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final Runnable task;
+        private final long deadlineTick;
+        private Timeout prev;
+        private Timeout next;
+        private int state = PENDING;
+
+        private Timeout(Runnable task, long deadlineTick)
+        {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * @return true if the task has neither run nor been cancelled yet
+         */
+        boolean isPending()
+        {
+            return state == PENDING;
+        }
+    }
+}
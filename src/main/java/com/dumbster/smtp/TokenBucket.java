@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+/**
+ * Limits the rate of a stream of bytes: every byte takes a token, tokens are refilled at a fixed
+ * rate up to a capacity, which bounds the bursts.
+ * <br>
+ * Time is passed in by the caller, so the bucket works with any {@link Clock}. Not thread safe.
+ */
+final class TokenBucket
+{
+    private final long nanosPerToken;
+    private final long capacity;
+    private long tokens;
+    private long lastRefill;
+
+    /**
+     * @param nanosPerToken
+     *        the time it takes to refill one token
+     * @param capacity
+     *        maximum number of tokens, the bucket starts full
+     * @param nowNanos
+     *        the current time
+     */
+    TokenBucket(long nanosPerToken, long capacity, long nowNanos)
+    {
+        if (nanosPerToken <= 0) {
+            throw new IllegalArgumentException("nanosPerToken must be > 0");
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+        this.nanosPerToken = nanosPerToken;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefill = nowNanos;
+    }
+
+    /**
+     * @return a bucket passing the given number of bytes per second, with bursts of up to a tenth of that
+     */
+    static TokenBucket forRate(long bytesPerSecond, long nowNanos)
+    {
+        return new TokenBucket(Math.max(1, 1000000000L / bytesPerSecond), Math.max(1, bytesPerSecond / 10), nowNanos);
+    }
+
+    /**
+     * @return the number of tokens that may be taken now
+     */
+    long available(long nowNanos)
+    {
+        refill(nowNanos);
+        return tokens;
+    }
+
+    /**
+     * Takes tokens, at most as many as are {@link #available(long)}.
+     */
+    void consume(long count)
+    {
+        tokens -= count;
+    }
+
+    /**
+     * @return the time until the bucket is full again, zero if it is full now
+     */
+    long nanosUntilFull(long nowNanos)
+    {
+        refill(nowNanos);
+        if (tokens >= capacity) {
+            return 0;
+        }
+        return (capacity - tokens) * nanosPerToken - (nowNanos - lastRefill);
+    }
+
+    private void refill(long nowNanos)
+    {
+        long refilled = (nowNanos - lastRefill) / nanosPerToken;
+        if (refilled <= 0) {
+            return;
+        }
+        if (tokens + refilled >= capacity) {
+            tokens = capacity;
+            lastRefill = nowNanos;
+        }
+        else {
+            tokens += refilled;
+            lastRefill += refilled * nanosPerToken;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.action;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.MailStore;
+import com.dumbster.smtp.Response;
+import com.dumbster.smtp.SmtpState;
+
+/**
+ * BDAT command of the CHUNKING extension, see RFC-3030.
+ * The chunk itself follows the command line and is read by the session, not by this action.
+ */
+public class Bdat implements Action
+{
+    /**
+     * Shared instance for a chunk that is followed by more chunks.
+     */
+    public static final Bdat CHUNK = new Bdat(true, false);
+
+    /**
+     * Shared instance for the last chunk of a message.
+     */
+    public static final Bdat LAST_CHUNK = new Bdat(true, true);
+
+    /**
+     * Shared instance for a command with invalid arguments.
+     */
+    public static final Bdat INVALID = new Bdat(false, false);
+
+    private final boolean valid;
+    private final boolean last;
+
+    /**
+     * @param valid
+     *        false if the arguments of the command could not be parsed
+     * @param last
+     *        true if the command announces the last chunk of the message
+     */
+    public Bdat(boolean valid, boolean last)
+    {
+        this.valid = valid;
+        this.last = last;
+    }
+
+    /**
+     * @return true if this is the last chunk of the message
+     */
+    public boolean isLast()
+    {
+        return last;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "BDAT";
+    }
+
+    @Override
+    public Response response(SmtpState smtpState, MailStore mailStore, MailMessage currentMessage)
+    {
+        if (!valid) {
+            return new Response(501, "Syntax error in parameters or arguments", smtpState);
+        }
+        else if (SmtpState.RCPT == smtpState || SmtpState.DATA_CHUNK == smtpState) {
+            return new Response(250, "OK", last ? SmtpState.QUIT : SmtpState.DATA_CHUNK);
+        }
+        else {
+            return new Response(503,
+                "Bad sequence of commands: " + this,
+                smtpState);
+        }
+    }
+}
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class BlankLine implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final BlankLine INSTANCE = new BlankLine();
 
 
     @Override
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Connect implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Connect INSTANCE = new Connect();
 
     @Override
     public String toString()
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Data implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Data INSTANCE = new Data();
 
     @Override
     public String toString()
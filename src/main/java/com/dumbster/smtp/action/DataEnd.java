@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class DataEnd implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final DataEnd INSTANCE = new DataEnd();
 
     @Override
     public String toString()
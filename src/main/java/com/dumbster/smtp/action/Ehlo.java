@@ -20,6 +20,39 @@ import com.dumbster.smtp.SmtpState;
 
 public class Ehlo implements Action
 {
+    /**
+     * Service extensions announced in reply to EHLO.
+     */
+    private static final String EXTENSIONS = "PIPELINING\nCHUNKING";
+
+    /**
+     * Shared instance for EHLO.
+     */
+    public static final Ehlo EHLO = new Ehlo(true);
+
+    /**
+     * Shared instance for HELO.
+     */
+    public static final Ehlo HELO = new Ehlo(false);
+
+    private final boolean extended;
+
+    /**
+     * Creates the action for an EHLO command.
+     */
+    public Ehlo()
+    {
+        this(true);
+    }
+
+    /**
+     * @param extended
+     *        false for a HELO command, which is answered without service extensions
+     */
+    public Ehlo(boolean extended)
+    {
+        this.extended = extended;
+    }
 
     @Override
     public String toString()
@@ -31,7 +64,7 @@ public class Ehlo implements Action
     public Response response(SmtpState smtpState, MailStore mailStore, MailMessage currentMessage)
     {
         if (SmtpState.GREET == smtpState) {
-            return new Response(250, "OK", SmtpState.MAIL);
+            return new Response(250, extended ? "OK\n" + EXTENSIONS : "OK", SmtpState.MAIL);
         }
         else {
             return new Response(503,
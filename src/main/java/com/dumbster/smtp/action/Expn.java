@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Expn implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Expn INSTANCE = new Expn();
 
     @Override
     public String toString()
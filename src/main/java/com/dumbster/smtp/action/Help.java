@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Help implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Help INSTANCE = new Help();
 
     @Override
     public String toString()
@@ -21,6 +21,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class List implements Action
 {
+    /**
+     * Shared instance, the message index is not used.
+     */
+    public static final List INSTANCE = new List(null);
 
     //private Integer messageIndex = null;
 
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Mail implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Mail INSTANCE = new Mail();
 
     @Override
     public String toString()
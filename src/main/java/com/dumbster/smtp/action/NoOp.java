@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class NoOp implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final NoOp INSTANCE = new NoOp();
 
     @Override
     public String toString()
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Quit implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Quit INSTANCE = new Quit();
 
     @Override
     public String toString()
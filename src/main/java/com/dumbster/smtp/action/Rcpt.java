@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Rcpt implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Rcpt INSTANCE = new Rcpt();
 
     @Override
     public String toString()
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Rset implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Rset INSTANCE = new Rset();
 
     @Override
     public String toString()
@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Unrecognized implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Unrecognized INSTANCE = new Unrecognized();
 
     @Override
     public String toString()
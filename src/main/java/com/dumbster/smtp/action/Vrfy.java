@@ -20,6 +20,10 @@ import com.dumbster.smtp.SmtpState;
 
 public class Vrfy implements Action
 {
+    /**
+     * Shared instance, the action has no state.
+     */
+    public static final Vrfy INSTANCE = new Vrfy();
 
     @Override
     public String toString()
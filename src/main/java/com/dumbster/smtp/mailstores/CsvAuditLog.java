@@ -0,0 +1,417 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import static java.util.Objects.requireNonNull;
+
+import com.dumbster.smtp.MailMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Appends every message to a file from a background thread, e.g. the mails.csv of {@link RollingMailStore}.
+ * <br>
+ * Delivering sessions only put the message into a bounded queue. The writer thread takes them out in
+ * batches, formats them with {@link MailMessage#toString()} and writes them through one channel that
+ * stays open. Records reach the file within the flush interval. When the queue is full, messages are
+ * dropped or the delivering session waits, depending on the {@link OverflowPolicy}.
+ * <br>
+ * The file can be rotated by size and by age, the current file is then renamed to the next free
+ * {@code <file>.<n>}. The writer thread is started by the first message and ends after it has been idle
+ * for a while. Configure the log before the first message, it must not be changed afterwards.
+ */
+public final class CsvAuditLog implements Closeable
+{
+    private static final Logger LOG = LoggerFactory.getLogger(CsvAuditLog.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // how long the writer thread waits for messages before it ends by default
+    private static final long IDLE_MILLIS = 5000;
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * What happens to a message while the queue is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * The message is not written, see {@link #getDroppedCount()}.
+         */
+        DROP,
+        /**
+         * The delivering session waits for room in the queue.
+         */
+        BLOCK
+    }
+
+    private final Path path;
+    private BlockingQueue<MailMessage> queue = new ArrayBlockingQueue<>(8192);
+    private OverflowPolicy overflowPolicy = OverflowPolicy.DROP;
+    private long flushIntervalMillis = 100;
+    private long maxFileSize = 0;
+    private long rotationIntervalMillis = 0;
+    private long idleMillis = IDLE_MILLIS;
+
+    private final AtomicBoolean writerRunning = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile Thread writerThread = null;
+    private volatile boolean closed = false;
+
+    // owned by the writer thread
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel channel = null;
+    private long fileSize;
+    // when the current file got its first record, kept while the channel is closed in between
+    private long fileStartedAt;
+
+    public CsvAuditLog(String path)
+    {
+        this(Paths.get(requireNonNull(path, "path is null")));
+    }
+
+    public CsvAuditLog(Path path)
+    {
+        this.path = requireNonNull(path, "path is null");
+    }
+
+    /**
+     * Sets the number of messages waiting to be written, defaults to 8192.
+     */
+    public CsvAuditLog withQueueCapacity(int capacity)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be > 0");
+        }
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+
+        return this;
+    }
+
+    /**
+     * Sets what happens to messages while the queue is full, defaults to {@link OverflowPolicy#DROP}.
+     */
+    public CsvAuditLog withOverflowPolicy(OverflowPolicy overflowPolicy)
+    {
+        requireNonNull(overflowPolicy, "overflowPolicy is null");
+        this.overflowPolicy = overflowPolicy;
+
+        return this;
+    }
+
+    /**
+     * Sets the longest time a message waits for more to be written with it, defaults to 100 ms.
+     */
+    public CsvAuditLog withFlushIntervalInMs(long flushInterval)
+    {
+        if (flushInterval <= 0) {
+            throw new IllegalArgumentException("flushInterval must be > 0");
+        }
+
+        this.flushIntervalMillis = flushInterval;
+
+        return this;
+    }
+
+    /**
+     * Rotates the file before it grows beyond the given size, 0 disables this.
+     */
+    public CsvAuditLog withMaxFileSize(long maxFileSize)
+    {
+        if (maxFileSize < 0) {
+            throw new IllegalArgumentException("maxFileSize must be >= 0");
+        }
+
+        this.maxFileSize = maxFileSize;
+
+        return this;
+    }
+
+    /**
+     * Rotates the file once the given time has passed since its first record, 0 disables this.
+     */
+    public CsvAuditLog withRotationIntervalInMs(long rotationInterval)
+    {
+        if (rotationInterval < 0) {
+            throw new IllegalArgumentException("rotationInterval must be >= 0");
+        }
+
+        this.rotationIntervalMillis = rotationInterval;
+
+        return this;
+    }
+
+    /**
+     * Sets how long the writer thread waits for messages before it ends, defaults to 5 seconds.
+     */
+    CsvAuditLog withIdleTimeInMs(long idleTime)
+    {
+        if (idleTime <= 0) {
+            throw new IllegalArgumentException("idleTime must be > 0");
+        }
+
+        this.idleMillis = idleTime;
+
+        return this;
+    }
+
+    public Path getPath()
+    {
+        return path;
+    }
+
+    /**
+     * @return the number of messages dropped because the queue was full
+     */
+    public long getDroppedCount()
+    {
+        return dropped.get();
+    }
+
+    /**
+     * Queues a message to be written.
+     */
+    public void append(MailMessage message)
+    {
+        requireNonNull(message, "message is null");
+        startWriter();
+        if (overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                queue.put(message);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop();
+                return;
+            }
+        }
+        else if (!queue.offer(message)) {
+            drop();
+            return;
+        }
+        // the writer may have ended between starting it and queueing the message
+        startWriter();
+    }
+
+    /**
+     * Writes all queued messages and closes the file. Messages appended afterwards are still written,
+     * each batch then opens and closes the file again.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        Thread writer = writerThread;
+        if (writer != null) {
+            try {
+                writer.join();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void drop()
+    {
+        if (dropped.getAndIncrement() == 0) {
+            LOG.warn("Audit log queue is full, dropping messages for {}", path);
+        }
+    }
+
+    private void startWriter()
+    {
+        if (writerRunning.get() || !writerRunning.compareAndSet(false, true)) {
+            return;
+        }
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run()
+            {
+                writeLoop();
+            }
+        });
+        writer.setDaemon(true);
+        writer.setName("audit-log-" + path.getFileName());
+        writerThread = writer;
+        writer.start();
+    }
+
+    private void writeLoop()
+    {
+        long flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+        long flushDeadline = 0;
+        long idleSince = System.nanoTime();
+        try {
+            while (true) {
+                MailMessage message = closed ? queue.poll() : poll();
+                if (message != null) {
+                    if (buffer.position() == 0) {
+                        flushDeadline = System.nanoTime() + flushIntervalNanos;
+                    }
+                    append(message.toString());
+                    // takes what is waiting already into the same batch
+                    for (int waiting = queue.size(); waiting > 0 && (message = queue.poll()) != null; waiting--) {
+                        append(message.toString());
+                    }
+                }
+                if (buffer.position() > 0 && (message == null || System.nanoTime() - flushDeadline >= 0)) {
+                    write();
+                    idleSince = System.nanoTime();
+                }
+                if (message != null || buffer.position() > 0) {
+                    continue;
+                }
+
+                if (closed || System.nanoTime() - idleSince >= TimeUnit.MILLISECONDS.toNanos(idleMillis)) {
+                    closeChannel();
+                    // ends unless a message has been queued since, whose sender then relies on this thread
+                    writerRunning.set(false);
+                    if (queue.isEmpty() || !writerRunning.compareAndSet(false, true)) {
+                        return;
+                    }
+                }
+            }
+        }
+        catch (RuntimeException e) {
+            LOG.warn("Audit log writer terminated: ", e);
+            closeChannel();
+            writerRunning.set(false);
+        }
+    }
+
+    /**
+     * Waits no longer than the flush interval, so that {@link #close()} does not wait for long either.
+     *
+     * @return the next message or null if there is none yet
+     */
+    private MailMessage poll()
+    {
+        try {
+            return queue.poll(flushIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            // nothing interrupts the writer thread on purpose, carry on
+            return queue.poll();
+        }
+    }
+
+    private void append(String record)
+    {
+        byte[] bytes = record.getBytes(CHARSET);
+        if (bytes.length > buffer.remaining()) {
+            write();
+        }
+        if (bytes.length > buffer.remaining()) {
+            write(ByteBuffer.wrap(bytes));
+            return;
+        }
+        buffer.put(bytes);
+    }
+
+    private void write()
+    {
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    private void write(ByteBuffer bytes)
+    {
+        try {
+            if (channel == null) {
+                openChannel();
+            }
+            if (isRotationDue(bytes.remaining())) {
+                rotate();
+                openChannel();
+            }
+            if (fileSize == 0) {
+                fileStartedAt = System.currentTimeMillis();
+            }
+            while (bytes.hasRemaining()) {
+                fileSize += channel.write(bytes);
+            }
+        }
+        catch (IOException e) {
+            LOG.warn("Could not write to audit log {}: ", path, e);
+            closeChannel();
+        }
+    }
+
+    private boolean isRotationDue(int pendingBytes)
+    {
+        if (fileSize == 0) {
+            return false;
+        }
+        if (maxFileSize > 0 && fileSize + pendingBytes > maxFileSize) {
+            return true;
+        }
+        return rotationIntervalMillis > 0 && System.currentTimeMillis() - fileStartedAt >= rotationIntervalMillis;
+    }
+
+    private void rotate() throws IOException
+    {
+        closeChannel();
+        int index = 1;
+        Path rotated;
+        while (Files.exists(rotated = path.resolveSibling(path.getFileName() + "." + index))) {
+            index++;
+        }
+        Files.move(path, rotated);
+    }
+
+    private void openChannel() throws IOException
+    {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileSize = channel.size();
+        if (fileSize > 0 && fileStartedAt == 0) {
+            // written to before this log, which counts from the creation of the file then
+            fileStartedAt = Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis();
+        }
+    }
+
+    private void closeChannel()
+    {
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            LOG.debug("While closing audit log", e);
+        }
+        channel = null;
+    }
+}
@@ -18,6 +18,9 @@ import static java.util.Objects.requireNonNull;
 
 import com.dumbster.smtp.MailMessage;
 import com.dumbster.smtp.MailStore;
+import com.dumbster.smtp.MessageSubscriber;
+import com.dumbster.smtp.MessageSubscription;
+import com.dumbster.smtp.StoredMessage;
 import com.dumbster.smtp.eml.EMLMailMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,17 +33,26 @@ import java.io.OutputStreamWriter;
 import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Store messages as EML files.
  * <br>
  * This class makes no guarantees as to the order of the received messages.
  * The messages are stored in order but getMessages won't return messages in the same order they were received.
+ * <br>
+ * Messages can be deleted once they reach a maximum age, see {@link #setMaxAgeInMs(long)}.
  */
 public class EMLMailStore implements MailStore
 {
@@ -49,7 +61,13 @@ public class EMLMailStore implements MailStore
     private AtomicBoolean initialized = new AtomicBoolean();
     private int count = 0;
     private File directory = new File("eml_store");
-    private List<MailMessage> messages = new ArrayList<MailMessage>();
+    private List<StoredMessage> messages = new ArrayList<StoredMessage>();
+    // sequence number of the last message, never reset
+    private long sequenceNumber = 0;
+    private final MessageSignal signal = new MessageSignal();
+    private final MessagePublisher publisher = new MessagePublisher();
+    private volatile FileExpiryIndex expiry = null;
+    private ScheduledFuture<?> sweeps = null;
 
     /**
      * Checks if mail mailStore is initialized and initializes it if it's not.
@@ -78,9 +96,27 @@ public class EMLMailStore implements MailStore
     {
         File[] files = loadMessageFiles();
 
-        for (File file : files) {
-            MailMessage message = new EMLMailMessage(file);
-            messages.add(message);
+        // numbered in the order they were written, so that they also expire in the order of their numbers
+        final long[] lastModified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            lastModified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b)
+            {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+
+        for (int i : order) {
+            MailMessage message = new EMLMailMessage(files[i]);
+            messages.add(new StoredMessage(++sequenceNumber, lastModified[i], message));
+            if (expiry != null) {
+                expiry.add(sequenceNumber, lastModified[i], files[i]);
+            }
         }
         count = files.length;
     }
@@ -108,7 +144,7 @@ public class EMLMailStore implements MailStore
     {
         checkInitialized();
         synchronized (this) {
-            return count;
+            return messages.size() - firstLive();
         }
     }
 
@@ -127,7 +163,16 @@ public class EMLMailStore implements MailStore
             count++;
             String filename = getFilename(message, count);
             file = new File(directory, filename);
-            messages.add(message);
+            long receivedAt = System.currentTimeMillis();
+            messages.add(new StoredMessage(++sequenceNumber, receivedAt, message));
+            if (expiry != null) {
+                expiry.add(sequenceNumber, receivedAt, file);
+                // drops expired messages once they make up half of the list, O(1) amortized
+                int expired = firstLive();
+                if (expired > messages.size() / 2) {
+                    messages.subList(0, expired).clear();
+                }
+            }
         }
 
         LOG.debug("Received message: " + message);
@@ -152,6 +197,11 @@ public class EMLMailStore implements MailStore
         catch (IOException e) {
             throw new UncheckedIOException(e);
         }
+        finally {
+            // waiting threads may look at the file
+            signal.messageAdded();
+            publisher.publish(message);
+        }
     }
 
     public String getFilename(MailMessage message, int count)
@@ -182,7 +232,7 @@ public class EMLMailStore implements MailStore
         checkInitialized();
 
         synchronized (this) {
-            return messages.toArray(new MailMessage[messages.size()]);
+            return toMessages(messages.subList(firstLive(), messages.size()));
         }
     }
 
@@ -192,7 +242,159 @@ public class EMLMailStore implements MailStore
     @Override
     public MailMessage getMessage(int index)
     {
-        return getMessages()[index];
+        checkInitialized();
+
+        synchronized (this) {
+            int first = firstLive();
+            if (index < 0 || index >= messages.size() - first) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (messages.size() - first));
+            }
+            return messages.get(first + index).getMessage();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MailMessage[] getMessages(int from, int count)
+    {
+        if (from < 0) {
+            throw new IllegalArgumentException("from must be >= 0");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0");
+        }
+
+        checkInitialized();
+
+        synchronized (this) {
+            int start = (int) Math.min((long) firstLive() + from, messages.size());
+            int end = (int) Math.min((long) start + count, messages.size());
+            return toMessages(messages.subList(start, end));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * Takes the lock of the store for each message rather than copying all of them.
+     */
+    @Override
+    public Stream<MailMessage> stream()
+    {
+        checkInitialized();
+
+        long start;
+        long end;
+        synchronized (this) {
+            end = sequenceNumber + 1;
+            start = end - (messages.size() - firstLive());
+        }
+        // walks the sequence numbers, which unlike indexes do not shift when messages expire
+        return StreamSupport.stream(new MessageSpliterator(new MessageSpliterator.Source() {
+            @Override
+            public MailMessage messageAt(long sequence)
+            {
+                synchronized (EMLMailStore.this) {
+                    int first = firstLive();
+                    if (first == messages.size()) {
+                        return null;
+                    }
+                    long index = sequence - messages.get(first).getSequenceNumber() + first;
+                    return index >= first && index < messages.size() ? messages.get((int) index).getMessage() : null;
+                }
+            }
+        }, start, end), false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br>
+     * Messages loaded from the directory are numbered in the order the files were last modified.
+     */
+    @Override
+    public StoredMessage[] getMessagesSince(long sequenceNumber)
+    {
+        if (sequenceNumber < 0) {
+            throw new IllegalArgumentException("sequenceNumber must be >= 0");
+        }
+
+        checkInitialized();
+
+        synchronized (this) {
+            if (messages.isEmpty()) {
+                return new StoredMessage[0];
+            }
+            // sequence numbers of the messages kept have no gaps
+            long first = messages.get(0).getSequenceNumber();
+            int start = (int) Math.min(Math.max(sequenceNumber - first + 1, firstLive()), messages.size());
+            List<StoredMessage> added = messages.subList(start, messages.size());
+            return added.toArray(new StoredMessage[added.size()]);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean awaitMessageCount(final int count, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        requireNonNull(unit, "unit is null");
+
+        checkInitialized();
+
+        return signal.await(new MessageSignal.Lookup<Boolean>() {
+            @Override
+            public Boolean find()
+            {
+                synchronized (EMLMailStore.this) {
+                    return messages.size() - firstLive() >= count ? Boolean.TRUE : null;
+                }
+            }
+        }, timeout, unit) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MailMessage awaitMessage(final Predicate<? super MailMessage> predicate, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        requireNonNull(predicate, "predicate is null");
+        requireNonNull(unit, "unit is null");
+
+        checkInitialized();
+
+        return signal.await(new MessageSignal.Lookup<MailMessage>() {
+            // every message is looked at once
+            private long lastSeen = 0;
+
+            @Override
+            public MailMessage find()
+            {
+                StoredMessage[] added = getMessagesSince(lastSeen);
+                for (StoredMessage stored : added) {
+                    if (predicate.test(stored.getMessage())) {
+                        return stored.getMessage();
+                    }
+                }
+                if (added.length > 0) {
+                    lastSeen = added[added.length - 1].getSequenceNumber();
+                }
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public MessageSubscription subscribe(MessageSubscriber subscriber, int bufferSize)
+    {
+        return publisher.subscribe(subscriber, bufferSize);
     }
 
     /**
@@ -213,7 +415,54 @@ public class EMLMailStore implements MailStore
 
             count = 0;
             messages.clear();
+            if (expiry != null) {
+                expiry.clear();
+            }
+        }
+    }
+
+    /**
+     * Deletes messages and their files once they are older than the given time, 0 for no limit (default).
+     * Set it before the first message.
+     * <br>
+     * Expired messages are deleted by a background sweeper no later than 1/16 of the time after they have
+     * expired. The sweeper does not hold up delivering sessions.
+     */
+    public void setMaxAgeInMs(long maxAge)
+    {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge must be >= 0");
+        }
+
+        synchronized (this) {
+            if (sweeps != null) {
+                sweeps.cancel(false);
+            }
+            expiry = maxAge > 0 ? new FileExpiryIndex(maxAge) : null;
+            sweeps = maxAge > 0 ? ExpirySweeper.schedule(expiry, maxAge) : null;
+        }
+    }
+
+    /**
+     * @return the index of the first message that has not expired, called with the lock held
+     */
+    private int firstLive()
+    {
+        FileExpiryIndex index = expiry;
+        if (index == null || messages.isEmpty()) {
+            return 0;
+        }
+        long first = messages.get(0).getSequenceNumber();
+        return (int) Math.min(Math.max(index.expiredSequence() - first + 1, 0), messages.size());
+    }
+
+    private static MailMessage[] toMessages(List<StoredMessage> stored)
+    {
+        MailMessage[] messages = new MailMessage[stored.size()];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = stored.get(i).getMessage();
         }
+        return messages;
     }
 
     public void setDirectory(String directory)
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evicts expired messages of all stores from one background thread.
+ * <br>
+ * A store is only referenced weakly, its sweeps end once it has been collected. Stores therefore
+ * need no explicit shutdown.
+ */
+final class ExpirySweeper
+{
+    private static final Logger LOG = LoggerFactory.getLogger(ExpirySweeper.class);
+
+    // messages are evicted no later than 1/16 of their maximum age after they have expired
+    private static final int SWEEPS_PER_MAX_AGE = 16;
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r);
+                thread.setDaemon(true);
+                thread.setName("mail-store-sweeper");
+                return thread;
+            }
+        });
+
+    /**
+     * What is swept, held by the store.
+     */
+    interface Target
+    {
+        /**
+         * @param now
+         *        the current time in milliseconds since the epoch
+         */
+        void evict(long now);
+    }
+
+    private ExpirySweeper()
+    {
+    }
+
+    /**
+     * @return the time between two sweeps for the given maximum age
+     */
+    static long intervalFor(long maxAgeMillis)
+    {
+        return Math.max(maxAgeMillis / SWEEPS_PER_MAX_AGE, 1);
+    }
+
+    /**
+     * @return the sweeps, cancel them once they are no longer needed
+     */
+    static ScheduledFuture<?> schedule(Target target, long maxAgeMillis)
+    {
+        long intervalMillis = intervalFor(maxAgeMillis);
+        Sweep sweep = new Sweep(target);
+        sweep.future = EXECUTOR.scheduleWithFixedDelay(sweep, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return sweep.future;
+    }
+
+    private static final class Sweep implements Runnable
+    {
+        private final WeakReference<Target> target;
+        private volatile ScheduledFuture<?> future;
+
+        private Sweep(Target target)
+        {
+            this.target = new WeakReference<>(target);
+        }
+
+        @Override
+        public void run()
+        {
+            Target current = target.get();
+            if (current == null) {
+                // only null until schedule has returned
+                if (future != null) {
+                    future.cancel(false);
+                }
+                return;
+            }
+            try {
+                current.evict(System.currentTimeMillis());
+            }
+            catch (RuntimeException e) {
+                LOG.warn("Could not evict expired messages: ", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Buckets the files of an {@link EMLMailStore} by the time their messages were received, so that the
+ * {@link ExpirySweeper} deletes expired files a whole bucket at a time instead of looking at every file.
+ * <br>
+ * Sweeping does not take the lock of the store. Messages expire in the order of their sequence numbers,
+ * the index only publishes the sequence number up to which they have expired and the store no longer
+ * hands them out from then on.
+ */
+final class FileExpiryIndex implements ExpirySweeper.Target
+{
+    private static final Logger LOG = LoggerFactory.getLogger(FileExpiryIndex.class);
+
+    private final long maxAgeMillis;
+    private final long bucketMillis;
+    private final ConcurrentSkipListMap<Long, Queue<Entry>> buckets = new ConcurrentSkipListMap<>();
+    // only written by the sweeper
+    private volatile long expiredSequence = 0;
+
+    FileExpiryIndex(long maxAgeMillis)
+    {
+        this.maxAgeMillis = maxAgeMillis;
+        this.bucketMillis = ExpirySweeper.intervalFor(maxAgeMillis);
+    }
+
+    /**
+     * @param receivedAt
+     *        the time the message was received in milliseconds since the epoch
+     */
+    void add(long sequence, long receivedAt, File file)
+    {
+        Long bucket = receivedAt / bucketMillis;
+        Queue<Entry> entries = buckets.get(bucket);
+        if (entries == null) {
+            Queue<Entry> created = new ConcurrentLinkedQueue<>();
+            entries = buckets.putIfAbsent(bucket, created);
+            if (entries == null) {
+                entries = created;
+            }
+        }
+        entries.add(new Entry(sequence, file));
+    }
+
+    /**
+     * @return the sequence number of the last expired message, 0 if none has expired
+     */
+    long expiredSequence()
+    {
+        return expiredSequence;
+    }
+
+    @Override
+    public void evict(long now)
+    {
+        long expiredBefore = now - maxAgeMillis;
+        Map.Entry<Long, Queue<Entry>> oldest;
+        // a bucket is dropped once the last moment it covers has expired
+        while ((oldest = buckets.firstEntry()) != null && (oldest.getKey() + 1) * bucketMillis <= expiredBefore) {
+            if (!buckets.remove(oldest.getKey(), oldest.getValue())) {
+                continue;
+            }
+
+            long sequence = expiredSequence;
+            for (Entry entry : oldest.getValue()) {
+                sequence = Math.max(sequence, entry.sequence);
+            }
+            expiredSequence = sequence;
+
+            for (Entry entry : oldest.getValue()) {
+                if (!entry.file.delete() && entry.file.exists()) {
+                    LOG.warn("Could not delete expired '{}'", entry.file.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    void clear()
+    {
+        buckets.clear();
+    }
+
+    private static final class Entry
+    {
+        private final long sequence;
+        private final File file;
+
+        private Entry(long sequence, File file)
+        {
+            this.sequence = sequence;
+            this.file = file;
+        }
+    }
+}
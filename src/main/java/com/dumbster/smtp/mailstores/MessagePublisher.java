@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import static java.util.Objects.requireNonNull;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.MessageSubscriber;
+import com.dumbster.smtp.MessageSubscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the messages of a store to its {@link MessageSubscriber}s.
+ * <br>
+ * Publishing only offers the message to the bounded buffer of every subscription, which holds the lock
+ * of the buffer for a moment but never waits for a subscriber.
+ * Each subscription is drained by at most one pooled thread at a time, as far as its subscriber has
+ * requested messages, so a slow subscriber holds up neither the delivering session nor the others.
+ */
+final class MessagePublisher
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MessagePublisher.class);
+
+    private static final ExecutorService SHARED_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger threadId = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r);
+            thread.setDaemon(true);
+            thread.setName("message-subscriber-" + threadId.getAndIncrement());
+            return thread;
+        }
+    });
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Executor executor;
+
+    MessagePublisher()
+    {
+        this(SHARED_EXECUTOR);
+    }
+
+    MessagePublisher(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    MessageSubscription subscribe(MessageSubscriber subscriber, int bufferSize)
+    {
+        requireNonNull(subscriber, "subscriber is null");
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("bufferSize must be > 0");
+        }
+
+        Subscription subscription = new Subscription(subscriber, bufferSize);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        return subscription;
+    }
+
+    void publish(MailMessage message)
+    {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(message);
+        }
+    }
+
+    private final class Subscription implements MessageSubscription, Runnable
+    {
+        private final MessageSubscriber subscriber;
+        private final BlockingQueue<MailMessage> buffer;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        // number of times the subscription has been signalled since the last drain started, see drain()
+        private final AtomicInteger signals = new AtomicInteger();
+        private volatile boolean cancelled = false;
+
+        private Subscription(MessageSubscriber subscriber, int bufferSize)
+        {
+            this.subscriber = subscriber;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        @Override
+        public void request(long n)
+        {
+            if (n <= 0) {
+                throw new IllegalArgumentException("n must be > 0");
+            }
+
+            long current;
+            do {
+                current = demand.get();
+            }
+            while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            signal();
+        }
+
+        @Override
+        public void cancel()
+        {
+            cancelled = true;
+            subscriptions.remove(this);
+            buffer.clear();
+        }
+
+        @Override
+        public long getDroppedCount()
+        {
+            return dropped.get();
+        }
+
+        private void offer(MailMessage message)
+        {
+            if (!buffer.offer(message)) {
+                if (dropped.getAndIncrement() == 0) {
+                    LOG.warn("Subscriber {} does not keep up, dropping messages", subscriber);
+                }
+                return;
+            }
+            signal();
+        }
+
+        private void signal()
+        {
+            if (signals.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            // Signals arriving while draining make the loop look again instead of starting another thread.
+            int missed = 1;
+            do {
+                drain();
+                missed = signals.addAndGet(-missed);
+            }
+            while (missed != 0);
+        }
+
+        private void drain()
+        {
+            while (!cancelled && demand.get() > 0) {
+                MailMessage message = buffer.poll();
+                if (message == null) {
+                    return;
+                }
+                if (demand.get() != Long.MAX_VALUE) {
+                    demand.decrementAndGet();
+                }
+                try {
+                    subscriber.onMessage(message);
+                }
+                catch (RuntimeException e) {
+                    LOG.warn("Cancelling subscription of {}: ", subscriber, e);
+                    cancel();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,429 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.StoredMessage;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent messages in a power-of-two array indexed by a sequence number.
+ * <br>
+ * Writers claim the next sequence number from an {@link AtomicLong} and store the message in the slot
+ * it maps to, without any lock. Readers look at the range of sequence numbers retained at the time
+ * of the call. A slot whose writer has claimed but not yet stored its message is waited for, which
+ * takes no longer than a single store. The array has twice the retained capacity, so a slot is
+ * not reused before its message has rolled off, even with many writers at a time.
+ * <br>
+ * Besides the capacity, the ring can be bounded by the bytes and the age of the messages retained.
+ * The size of every message is added to a counter when it is stored. After each store, the writer drops
+ * all the oldest messages beyond a limit with a single update of the first sequence number retained and
+ * takes their sizes off the counter, so every message is evicted once and eviction costs O(1) amortized.
+ * The size of a message is taken off by whoever releases its slot or replaces it with a newer message,
+ * so it is counted exactly once even when writers and evictions race.
+ */
+final class MessageRing implements ExpirySweeper.Target
+{
+    private final int capacity;
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+    // sequence number of the next message
+    private final AtomicLong writeSequence = new AtomicLong();
+    // messages before this sequence number have been cleared or evicted
+    private final AtomicLong droppedSequence = new AtomicLong();
+    // sizes of the messages from droppedSequence on
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private volatile long maxBytes = 0;
+    private volatile long maxAgeMillis = 0;
+
+    /**
+     * @param capacity
+     *        the number of messages kept, older ones roll off
+     */
+    MessageRing(int capacity)
+    {
+        if (capacity <= 0 || capacity > 1 << 29) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^29");
+        }
+        this.capacity = capacity;
+        int length = 1;
+        while (length < capacity * 2) {
+            length <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(length);
+        this.mask = length - 1;
+    }
+
+    /**
+     * @param maxBytes
+     *        the total size of the messages retained, 0 for no limit
+     */
+    void setMaxBytes(long maxBytes)
+    {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param maxAgeMillis
+     *        the time a message is retained for, 0 for no limit
+     */
+    void setMaxAge(long maxAgeMillis)
+    {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * @param size
+     *        the size of the message as counted against the byte limit
+     * @param receivedAt
+     *        the time the message was stored, in milliseconds since the epoch
+     * @return the message with its sequence number, which is the sequence number in this ring plus 1
+     */
+    StoredMessage add(MailMessage message, long size, long receivedAt)
+    {
+        long sequence = writeSequence.getAndIncrement();
+        StoredMessage stored = new StoredMessage(sequence + 1, receivedAt, message);
+        Entry entry = new Entry(sequence, stored, size);
+        int slot = (int) (sequence & mask);
+        while (true) {
+            Entry current = slots.get(slot);
+            // a writer that was held up for a full turn of the ring must not replace a newer message
+            if (current != null && current.sequence > sequence) {
+                break;
+            }
+            if (slots.compareAndSet(slot, current, entry)) {
+                // a message that rolled off without being released yet is counted off here
+                retainedBytes.addAndGet(size - (current != null ? current.size : 0));
+                if (sequence < droppedSequence.get()) {
+                    // cleared or evicted while this writer was held up
+                    retainedBytes.addAndGet(-release(sequence));
+                }
+                break;
+            }
+        }
+        evict(receivedAt);
+        return stored;
+    }
+
+    /**
+     * Drops the oldest messages beyond the capacity, the byte limit or the age limit. The most recent
+     * message is not dropped for the byte limit, so a single message larger than the limit is kept
+     * until the next one arrives.
+     * <br>
+     * Called after every store and by the {@link ExpirySweeper}. Messages are stored in the order they
+     * were received, so the expired ones are dropped all at once, like the buckets of a timer wheel.
+     *
+     * @param now
+     *        the current time in milliseconds since the epoch
+     */
+    @Override
+    public void evict(long now)
+    {
+        while (true) {
+            long end = writeSequence.get();
+            long first = droppedSequence.get();
+            long excessBytes = maxBytes > 0 ? retainedBytes.get() - maxBytes : 0;
+            long expiredBefore = maxAgeMillis > 0 ? now - maxAgeMillis : Long.MIN_VALUE;
+
+            long last = first;
+            long bytes = 0;
+            while (last < end) {
+                if (end - last <= capacity) {
+                    boolean overBytes = bytes < excessBytes && last < end - 1;
+                    if (!overBytes && !isExpired(last, expiredBefore)) {
+                        break;
+                    }
+                }
+                bytes += sizeOf(last);
+                last++;
+            }
+            if (last == first) {
+                return;
+            }
+            if (droppedSequence.compareAndSet(first, last)) {
+                releaseBefore(first, last, end);
+                return;
+            }
+            // another writer has evicted or the ring has been cleared, look again
+        }
+    }
+
+    /**
+     * @return the total size of the messages retained
+     */
+    long retainedBytes()
+    {
+        return retainedBytes.get();
+    }
+
+    int size()
+    {
+        long end = writeSequence.get();
+        return (int) (end - firstRetained(end));
+    }
+
+    /**
+     * @return the sequence number the next message gets
+     */
+    long nextSequence()
+    {
+        return writeSequence.get();
+    }
+
+    /**
+     * @return the sequence number of the oldest message retained
+     */
+    long firstSequence()
+    {
+        return firstRetained(writeSequence.get());
+    }
+
+    /**
+     * @return the message with the sequence number or null if it is not retained
+     */
+    MailMessage getBySequence(long sequence)
+    {
+        long end = writeSequence.get();
+        if (sequence < firstRetained(end) || sequence >= end) {
+            return null;
+        }
+        return messageOf(await(sequence));
+    }
+
+    /**
+     * @return the messages retained at the time of the call whose sequence number in this ring is at
+     *         least the given one, oldest first
+     */
+    StoredMessage[] since(long sequence)
+    {
+        long end = writeSequence.get();
+        long start = Math.max(firstRetained(end), sequence);
+        if (start >= end) {
+            return new StoredMessage[0];
+        }
+        StoredMessage[] messages = new StoredMessage[(int) (end - start)];
+        int copied = 0;
+        for (long current = start; current < end; current++) {
+            StoredMessage message = await(current);
+            if (message != null) {
+                messages[copied++] = message;
+            }
+        }
+        return copied == messages.length ? messages : Arrays.copyOf(messages, copied);
+    }
+
+    /**
+     * @param index
+     *        0 for the oldest message retained
+     */
+    MailMessage get(int index)
+    {
+        while (true) {
+            long end = writeSequence.get();
+            long start = firstRetained(end);
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + (end - start));
+            }
+            MailMessage message = messageOf(await(start + index));
+            if (message != null) {
+                return message;
+            }
+            // rolled off while looking at it, the index refers to a later message now
+        }
+    }
+
+    /**
+     * @return the messages retained at the time of the call, oldest first
+     */
+    MailMessage[] toArray()
+    {
+        return toArray(0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param from
+     *        0 for the oldest message retained
+     * @return up to count of the messages retained at the time of the call, oldest first
+     */
+    MailMessage[] toArray(int from, int count)
+    {
+        long end = writeSequence.get();
+        long start = firstRetained(end) + from;
+        end = Math.min(end, start + count);
+        if (start >= end) {
+            return new MailMessage[0];
+        }
+        MailMessage[] messages = new MailMessage[(int) (end - start)];
+        int copied = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            MailMessage message = messageOf(await(sequence));
+            if (message != null) {
+                messages[copied++] = message;
+            }
+        }
+        return copied == messages.length ? messages : Arrays.copyOf(messages, copied);
+    }
+
+    /**
+     * @return the messages retained at the time of the call, oldest first, without copying them
+     */
+    Spliterator<MailMessage> spliterator()
+    {
+        long end = writeSequence.get();
+        return new MessageSpliterator(new MessageSpliterator.Source() {
+            @Override
+            public MailMessage messageAt(long sequence)
+            {
+                return messageOf(await(sequence));
+            }
+        }, firstRetained(end), end);
+    }
+
+    /**
+     * Drops up to {@code count} of the oldest messages retained.
+     *
+     * @return the number of messages dropped
+     */
+    int evictOldest(int count)
+    {
+        long end = writeSequence.get();
+        return drop(Math.min(end, firstRetained(end) + count), end);
+    }
+
+    void clear()
+    {
+        long end = writeSequence.get();
+        drop(end, end);
+    }
+
+    /**
+     * Drops all messages before the sequence number {@code last}.
+     *
+     * @param end
+     *        the sequence number of the next message when {@code last} was chosen
+     * @return the number of retained messages dropped
+     */
+    private int drop(long last, long end)
+    {
+        long first;
+        while ((first = droppedSequence.get()) < last) {
+            if (droppedSequence.compareAndSet(first, last)) {
+                releaseBefore(first, last, end);
+                return (int) Math.max(0, last - Math.max(first, end - capacity));
+            }
+        }
+        return 0;
+    }
+
+    private long firstRetained(long end)
+    {
+        return Math.max(droppedSequence.get(), end - capacity);
+    }
+
+    private boolean isExpired(long sequence, long expiredBefore)
+    {
+        if (expiredBefore == Long.MIN_VALUE) {
+            return false;
+        }
+        StoredMessage stored = await(sequence);
+        return stored != null && stored.getReceivedAt() < expiredBefore;
+    }
+
+    /**
+     * @return the message with the sequence number once it has been stored, null if it has rolled off since
+     */
+    private StoredMessage await(long sequence)
+    {
+        Entry entry = awaitEntry(sequence);
+        return entry != null ? entry.stored : null;
+    }
+
+    /**
+     * @return the size of the message with the sequence number, 0 if its slot has been reused since
+     */
+    private long sizeOf(long sequence)
+    {
+        Entry entry = awaitEntry(sequence);
+        return entry != null ? entry.size : 0;
+    }
+
+    private Entry awaitEntry(long sequence)
+    {
+        int slot = (int) (sequence & mask);
+        while (true) {
+            Entry entry = slots.get(slot);
+            if (entry != null && entry.sequence == sequence) {
+                return entry;
+            }
+            if (entry != null && entry.sequence > sequence) {
+                return null;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Releases the messages from {@code first} to {@code last} once they have been dropped and takes
+     * their sizes off the counter. Slots of sequence numbers a full turn before {@code end} have been
+     * claimed by newer writers, which count off the messages they replace.
+     */
+    private void releaseBefore(long first, long last, long end)
+    {
+        long bytes = 0;
+        for (long sequence = Math.max(first, end - slots.length()); sequence < last; sequence++) {
+            bytes += release(sequence);
+        }
+        retainedBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * Drops the reference to a dropped message, so that it can be collected before its slot is reused.
+     *
+     * @return the size of the message if this call released it, 0 if it was released or replaced before
+     */
+    private long release(long sequence)
+    {
+        int slot = (int) (sequence & mask);
+        Entry entry = slots.get(slot);
+        if (entry != null && entry.sequence == sequence && entry.stored != null
+            && slots.compareAndSet(slot, entry, new Entry(sequence, null, 0))) {
+            return entry.size;
+        }
+        return 0;
+    }
+
+    private static MailMessage messageOf(StoredMessage stored)
+    {
+        return stored != null ? stored.getMessage() : null;
+    }
+
+    private static final class Entry
+    {
+        private final long sequence;
+        // null once released
+        private final StoredMessage stored;
+        private final long size;
+
+        private Entry(long sequence, StoredMessage stored, long size)
+        {
+            this.sequence = sequence;
+            this.stored = stored;
+            this.size = size;
+        }
+    }
+}
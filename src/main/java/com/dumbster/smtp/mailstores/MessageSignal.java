@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wakes up threads waiting for messages when a store adds one.
+ * <br>
+ * Adding a message only costs a volatile read while nobody waits, so it does not slow down stores
+ * that deliver without a lock. Waiting threads look again after every message instead of polling.
+ */
+final class MessageSignal
+{
+    /**
+     * Looks for what a thread is waiting for.
+     */
+    interface Lookup<T>
+    {
+        /**
+         * @return the result or null if it is not there yet
+         */
+        T find();
+    }
+
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * Called by the store after a message has been added.
+     */
+    void messageAdded()
+    {
+        if (waiters.get() > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * @return the result of the lookup or null if the timeout passed before
+     */
+    <T> T await(Lookup<T> lookup, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        T result = lookup.find();
+        if (result != null) {
+            return result;
+        }
+
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        // Registered before looking again, so that a message added in between either is found or wakes us up.
+        waiters.incrementAndGet();
+        try {
+            synchronized (this) {
+                while ((result = lookup.find()) == null) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                }
+                return result;
+            }
+        }
+        finally {
+            waiters.decrementAndGet();
+        }
+    }
+}
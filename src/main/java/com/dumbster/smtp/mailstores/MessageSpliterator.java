@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import com.dumbster.smtp.MailMessage;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Walks a range of positions of a store without copying it, e.g. the sequence numbers retained by a
+ * {@link MessageRing}.
+ * <br>
+ * The range is fixed when the spliterator is created. Messages that are no longer retained by the
+ * time they are reached are skipped, messages added afterwards are not seen.
+ */
+final class MessageSpliterator implements Spliterator<MailMessage>
+{
+    /**
+     * Looks up the message at a position of the store.
+     */
+    interface Source
+    {
+        /**
+         * @return the message or null if it is no longer retained
+         */
+        MailMessage messageAt(long position);
+    }
+
+    private final Source source;
+    private long position;
+    private final long end;
+
+    /**
+     * @param start
+     *        the first position
+     * @param end
+     *        the position after the last one
+     */
+    MessageSpliterator(Source source, long start, long end)
+    {
+        this.source = source;
+        this.position = start;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super MailMessage> action)
+    {
+        while (position < end) {
+            MailMessage message = source.messageAt(position++);
+            if (message != null) {
+                action.accept(message);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super MailMessage> action)
+    {
+        while (position < end) {
+            MailMessage message = source.messageAt(position++);
+            if (message != null) {
+                action.accept(message);
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<MailMessage> trySplit()
+    {
+        long remaining = end - position;
+        if (remaining < 2) {
+            return null;
+        }
+        long start = position;
+        position += remaining / 2;
+        return new MessageSpliterator(source, start, position);
+    }
+
+    @Override
+    public long estimateSize()
+    {
+        return end - position;
+    }
+
+    @Override
+    public int characteristics()
+    {
+        return ORDERED | NONNULL | CONCURRENT;
+    }
+}
@@ -17,21 +17,36 @@ import static java.util.Objects.requireNonNull;
 
 import com.dumbster.smtp.MailMessage;
 import com.dumbster.smtp.MailStore;
+import com.dumbster.smtp.MessageSubscriber;
+import com.dumbster.smtp.MessageSubscription;
+import com.dumbster.smtp.StoredMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.Deque;
-import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Keeps the last messages in memory, 100 unless configured otherwise.
+ * <br>
+ * Retention can also be bounded by the total size of the messages kept, see {@link #withMaxBytes(long)},
+ * and by their age, see {@link #withMaxAgeInMs(long)}.
+ * <br>
+ * Sessions deliver in parallel without taking a lock, see {@link MessageRing}. Every message is
+ * also appended to mails.csv in the background unless configured otherwise, see {@link CsvAuditLog}.
+ */
 public class RollingMailStore implements MailStore
 {
     private final Logger LOG = LoggerFactory.getLogger(RollingMailStore.class);
 
-    private Deque<MailMessage> receivedMail;
+    private final MessageRing receivedMail;
+    private final CsvAuditLog auditLog;
+    private final MessageSignal signal = new MessageSignal();
+    private final MessagePublisher publisher = new MessagePublisher();
+    private ScheduledFuture<?> sweeps = null;
 
     public RollingMailStore()
     {
@@ -40,7 +55,72 @@ public class RollingMailStore implements MailStore
 
     public RollingMailStore(int size)
     {
-        receivedMail = new LinkedBlockingDeque<MailMessage>(size);
+        this(size, new CsvAuditLog("mails.csv"));
+    }
+
+    /**
+     * @param auditLog
+     *        records every message, null for none
+     */
+    public RollingMailStore(int size, CsvAuditLog auditLog)
+    {
+        receivedMail = new MessageRing(size);
+        this.auditLog = auditLog;
+    }
+
+    /**
+     * Evicts the oldest messages once the messages kept take more than the given number of bytes,
+     * counted as the characters received for their headers and bodies, including those an anonymised
+     * message does not keep. Defaults to 0 for no limit. The most recent message is kept even if it is
+     * larger.
+     */
+    public RollingMailStore withMaxBytes(long maxBytes)
+    {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must be >= 0");
+        }
+
+        receivedMail.setMaxBytes(maxBytes);
+
+        return this;
+    }
+
+    /**
+     * Evicts messages older than the given time, e.g. to keep the mail of the last 15 minutes. Defaults to 0
+     * for no limit.
+     * <br>
+     * Expired messages are evicted by a background sweeper no later than 1/16 of the time after they have
+     * expired, or when the next message arrives.
+     */
+    public RollingMailStore withMaxAgeInMs(long maxAge)
+    {
+        if (maxAge < 0) {
+            throw new IllegalArgumentException("maxAge must be >= 0");
+        }
+
+        receivedMail.setMaxAge(maxAge);
+        if (sweeps != null) {
+            sweeps.cancel(false);
+        }
+        sweeps = maxAge > 0 ? ExpirySweeper.schedule(receivedMail, maxAge) : null;
+
+        return this;
+    }
+
+    /**
+     * @return the total size of the messages kept, as counted for {@link #withMaxBytes(long)}
+     */
+    public long getRetainedBytes()
+    {
+        return receivedMail.retainedBytes();
+    }
+
+    /**
+     * @return the audit log or null if there is none
+     */
+    public CsvAuditLog getAuditLog()
+    {
+        return auditLog;
     }
 
     @Override
@@ -54,37 +134,116 @@ public class RollingMailStore implements MailStore
     {
         requireNonNull(message, "message is null");
 
-        LOG.debug("Received message: " + message.toString());
-        try(PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter("mails.csv", true))))
-        {
-            out.print(message.toString());
-        } catch (IOException e) {
-            //ignore for now
-        }
-
-        synchronized (receivedMail) {
-            if (!receivedMail.offer(message)) {
-                receivedMail.remove();
-                receivedMail.add(message);
-            }
+        LOG.debug("Received message: {}", message);
+        if (auditLog != null) {
+            auditLog.append(message);
         }
+        receivedMail.add(message, message.getReceivedLength(), System.currentTimeMillis());
+        signal.messageAdded();
+        publisher.publish(message);
     }
 
     @Override
     public MailMessage[] getMessages()
     {
-        return receivedMail.toArray(new MailMessage[receivedMail.size()]);
+        return receivedMail.toArray();
     }
 
     @Override
     public MailMessage getMessage(int index)
     {
-        return getMessages()[index];
+        return receivedMail.get(index);
+    }
+
+    @Override
+    public MailMessage[] getMessages(int from, int count)
+    {
+        if (from < 0) {
+            throw new IllegalArgumentException("from must be >= 0");
+        }
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0");
+        }
+
+        return receivedMail.toArray(from, count);
+    }
+
+    @Override
+    public Stream<MailMessage> stream()
+    {
+        return StreamSupport.stream(receivedMail.spliterator(), false);
+    }
+
+    @Override
+    public StoredMessage[] getMessagesSince(long sequenceNumber)
+    {
+        if (sequenceNumber < 0) {
+            throw new IllegalArgumentException("sequenceNumber must be >= 0");
+        }
+
+        // the sequence number in the ring is one less
+        return receivedMail.since(sequenceNumber);
+    }
+
+    @Override
+    public boolean awaitMessageCount(final int count, long timeout, TimeUnit unit) throws InterruptedException
+    {
+        requireNonNull(unit, "unit is null");
+
+        return signal.await(new MessageSignal.Lookup<Boolean>() {
+            @Override
+            public Boolean find()
+            {
+                return receivedMail.size() >= count ? Boolean.TRUE : null;
+            }
+        }, timeout, unit) != null;
+    }
+
+    @Override
+    public MailMessage awaitMessage(final Predicate<? super MailMessage> predicate, long timeout, TimeUnit unit)
+            throws InterruptedException
+    {
+        requireNonNull(predicate, "predicate is null");
+        requireNonNull(unit, "unit is null");
+
+        return signal.await(new MessageSignal.Lookup<MailMessage>() {
+            // every message is looked at once
+            private long next = Long.MIN_VALUE;
+
+            @Override
+            public MailMessage find()
+            {
+                long end = receivedMail.nextSequence();
+                for (long sequence = Math.max(next, receivedMail.firstSequence()); sequence < end; sequence++) {
+                    MailMessage message = receivedMail.getBySequence(sequence);
+                    if (message != null && predicate.test(message)) {
+                        return message;
+                    }
+                }
+                next = end;
+                return null;
+            }
+        }, timeout, unit);
+    }
+
+    @Override
+    public MessageSubscription subscribe(MessageSubscriber subscriber, int bufferSize)
+    {
+        return publisher.subscribe(subscriber, bufferSize);
+    }
+
+    @Override
+    public int evictOldestMessages(int count)
+    {
+        if (count < 0) {
+            throw new IllegalArgumentException("count must be >= 0");
+        }
+        return receivedMail.evictOldest(count);
     }
 
     @Override
     public void clearMessages()
     {
-        this.receivedMail.clear();
+        receivedMail.clear();
     }
 }
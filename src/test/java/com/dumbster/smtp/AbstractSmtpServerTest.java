@@ -17,6 +17,7 @@
 package com.dumbster.smtp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.After;
@@ -24,8 +25,16 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 import javax.activation.DataHandler;
 import javax.activation.DataSource;
@@ -77,6 +86,14 @@ public abstract class AbstractSmtpServerTest
         assertEquals(0, server.getEmailCount());
     }
 
+    @Test
+    public void testAwaitMessageCount() throws Exception
+    {
+        sendMessage(smtpPort, FROM, SUBJECT, BODY, TO);
+        assertTrue(server.awaitMessageCount(1, 10, TimeUnit.SECONDS));
+        assertFalse(server.awaitMessageCount(2, 10, TimeUnit.MILLISECONDS));
+    }
+
     @Test
     public void testSend() throws Exception
     {
@@ -249,6 +266,70 @@ public abstract class AbstractSmtpServerTest
         //assertEquals("Test Body", email.getBody());
     }
 
+    @Test
+    public void testPipelinedRecipients() throws Exception
+    {
+        try (Socket socket = new Socket(SERVER, smtpPort)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            Writer out = new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.ISO_8859_1);
+            assertTrue(in.readLine().startsWith("220 "));
+
+            out.write("EHLO localhost\r\n");
+            out.flush();
+            assertEquals("250-OK", in.readLine());
+            assertEquals("250-PIPELINING", in.readLine());
+            assertEquals("250 CHUNKING", in.readLine());
+
+            StringBuilder commands = new StringBuilder("MAIL FROM:<" + FROM + ">\r\n");
+            for (int i = 0; i < 50; i++) {
+                commands.append("RCPT TO:<receiver").append(i).append("@there.com>\r\n");
+            }
+            commands.append("DATA\r\n");
+            out.write(commands.toString());
+            out.flush();
+            for (int i = 0; i < 51; i++) {
+                assertTrue(in.readLine().startsWith("250 "));
+            }
+            assertTrue(in.readLine().startsWith("354 "));
+
+            out.write("Subject: " + SUBJECT + "\r\n\r\n" + BODY + "\r\n.\r\nQUIT\r\n");
+            out.flush();
+            assertTrue(in.readLine().startsWith("250 "));
+            assertTrue(in.readLine().startsWith("221 "));
+        }
+        server.anticipateMessageCountFor(1, WAIT_TICKS);
+        assertEquals(1, server.getEmailCount());
+    }
+
+    @Test
+    public void testChunkedMessage() throws Exception
+    {
+        try (Socket socket = new Socket(SERVER, smtpPort)) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220 "));
+
+            String header = "From: " + FROM + "\r\nSubject: " + SUBJECT + "\r\n\r\n";
+            byte[] body = new byte[20000];
+            for (int i = 0; i < body.length; i++) {
+                body[i] = (byte) i;
+            }
+            out.write(("HELO localhost\r\nMAIL FROM:<" + FROM + ">\r\nRCPT TO:<" + TO + ">\r\n"
+                + "BDAT " + header.length() + "\r\n" + header
+                + "BDAT " + body.length + " LAST\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.write(body);
+            out.write("QUIT\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+
+            for (int i = 0; i < 5; i++) {
+                assertTrue(in.readLine().startsWith("250 "));
+            }
+            assertTrue(in.readLine().startsWith("221 "));
+        }
+        server.anticipateMessageCountFor(1, WAIT_TICKS);
+        assertEquals(1, server.getEmailCount());
+    }
+
     private Properties getMailProperties(int port)
     {
         Properties mailProps = new Properties();
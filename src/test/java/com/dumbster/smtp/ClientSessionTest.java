@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.dumbster.smtp.mailstores.RollingMailStore;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class ClientSessionTest
+{
+    @Test
+    public void testSourceWithOnlyCharacterStreams()
+    {
+        StringWriter output = new StringWriter();
+        IOSource source = source("HELO a\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<d@e.f>\r\n"
+            + "DATA\r\nSubject: caf\u00e9\r\n\r\nbody\r\n.\r\nQUIT\r\n", output);
+        MailStore mailStore = new RollingMailStore();
+
+        new ClientSession(source, mailStore).run();
+
+        assertEquals(1, mailStore.getEmailCount());
+        assertEquals("Subject".length() + "caf\u00e9".length() + "body".length(),
+            mailStore.getMessage(0).getReceivedLength());
+        assertTrue(output.toString(), output.toString().startsWith("220 "));
+        assertTrue(output.toString(), output.toString().endsWith("221 localhost Dumbster service closing transmission channel\r\n"));
+    }
+
+    @Test
+    public void testSourceWithOnlyCharacterStreamsReadsIntoTheGivenBuffer() throws IOException
+    {
+        byte[] buffer = new byte[64];
+        LineReader reader = source("HELO a\r\n", new StringWriter()).getLineReader(buffer);
+
+        assertTrue(reader.readLine());
+        assertEquals("HELO a", reader.lineAsString());
+        assertSame(buffer, reader.buffer());
+    }
+
+    @Test
+    public void testStopEndsSessionBlockedInARead() throws Exception
+    {
+        try (ServerSocket listener = new ServerSocket(0);
+                Socket client = new Socket("localhost", listener.getLocalPort())) {
+            final ClientSession session = new ClientSession(new SocketWrapper(listener.accept()), new RollingMailStore());
+            Thread thread = new Thread(session);
+            thread.start();
+            client.setSoTimeout(5000);
+            assertTrue(new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1))
+                .readLine().startsWith("220 "));
+
+            session.stop();
+            thread.join(5000);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    private static IOSource source(final String input, final StringWriter output)
+    {
+        return new IOSource() {
+            @Override
+            public BufferedReader getInputStream()
+            {
+                return new BufferedReader(new StringReader(input));
+            }
+
+            @Override
+            public PrintWriter getOutputStream()
+            {
+                return new PrintWriter(output);
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        };
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import com.dumbster.smtp.mailstores.RollingMailStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of handling command lines in a conversation, without any I/O.
+ * Every operation runs EHLO, MAIL, two RCPT, NOOP and RSET, which returns to the initial state.
+ * <br>
+ * Kept in this package because the conversation is package private. Check that the command
+ * path does not allocate with the GC profiler, gc.alloc.rate.norm should be close to zero:
+ * <pre>
+ * java -cp target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main CommandPathBenchmark -prof gc
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommandPathBenchmark
+{
+    private static final byte[][] TRANSACTION = {
+        line("EHLO client.example.com"),
+        line("MAIL FROM:<sender@example.com>"),
+        line("RCPT TO:<first@example.com>"),
+        line("rcpt to:<second@example.com>"),
+        line("NOOP"),
+        line("RSET")
+    };
+
+    private SmtpConversation conversation;
+
+    @Setup
+    public void connect()
+    {
+        conversation = new SmtpConversation(new RollingMailStore());
+        conversation.connect();
+    }
+
+    @Benchmark
+    public int commands()
+    {
+        int codes = 0;
+        for (byte[] line : TRANSACTION) {
+            codes += conversation.receive(line, 0, line.length).getCode();
+        }
+        return codes;
+    }
+
+    private static byte[] line(String line)
+    {
+        return line.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
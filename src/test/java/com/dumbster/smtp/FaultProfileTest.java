@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+
+public class FaultProfileTest
+{
+    private SmtpServer server;
+
+    @After
+    public void teardown() throws InterruptedException
+    {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testMostSpecificFaultsWin()
+    {
+        FaultProfile.Injector injector = new FaultProfile(0).forState(SmtpState.MAIL, Fault.DROP, 1)
+            .forCommand(SmtpCommand.NOOP, Fault.reply(450), 1)
+            .forCommand(SmtpCommand.NOOP, SmtpState.MAIL, Fault.reply(550), 1)
+            .newInjector();
+
+        assertEquals("550", injector.next(SmtpCommand.NOOP, SmtpState.MAIL).toString());
+        assertEquals("450", injector.next(SmtpCommand.NOOP, SmtpState.RCPT).toString());
+        assertSame(Fault.DROP, injector.next(SmtpCommand.RCPT, SmtpState.MAIL));
+        assertNull(injector.next(SmtpCommand.RCPT, SmtpState.RCPT));
+    }
+
+    @Test
+    public void testProbabilities()
+    {
+        FaultProfile.Injector injector = FaultProfile.parse("RCPT=450:0.2,RCPT=550:0.1", 1).newInjector();
+        int[] counts = new int[3];
+        for (int i = 0; i < 100000; i++) {
+            Fault fault = injector.next(SmtpCommand.RCPT, SmtpState.RCPT);
+            counts[fault == null ? 0 : fault.getCode() == 450 ? 1 : 2]++;
+        }
+
+        assertTrue(counts[0] + "", Math.abs(counts[0] - 70000) < 1000);
+        assertTrue(counts[1] + "", Math.abs(counts[1] - 20000) < 1000);
+        assertTrue(counts[2] + "", Math.abs(counts[2] - 10000) < 1000);
+    }
+
+    @Test
+    public void testSessionsAreReproducible()
+    {
+        FaultProfile.Injector first = FaultProfile.parse("@GREET=drop:0.5", 42).newInjector();
+        FaultProfile.Injector second = FaultProfile.parse("@GREET=drop:0.5", 42).newInjector();
+        for (int i = 0; i < 100; i++) {
+            assertSame(first.next(SmtpCommand.NOOP, SmtpState.GREET), second.next(SmtpCommand.NOOP, SmtpState.GREET));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testProbabilitiesMustNotExceedOne()
+    {
+        FaultProfile.parse("RCPT=450:0.6,RCPT=550:0.6", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidFault()
+    {
+        FaultProfile.parse("RCPT=250:0.5", 0);
+    }
+
+    @Test
+    public void testRejectedGreeting() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .withFaultProfile(new FaultProfile(0).forCommand(SmtpCommand.CONNECT, Fault.reply(554), 1)));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            assertTrue(in.readLine().startsWith("554 "));
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testResetAfterMessageEnd() throws Exception
+    {
+        assertResetAfterMessageEnd(new ServerOptions());
+    }
+
+    @Test
+    public void testNonBlockingResetAfterMessageEnd() throws Exception
+    {
+        assertResetAfterMessageEnd(new ServerOptions().nonBlocking().withEventLoops(1));
+    }
+
+    private void assertResetAfterMessageEnd(ServerOptions options) throws Exception
+    {
+        server = SmtpServerFactory.startServer(options.withRandomSmtpPort()
+            .withFaultProfile(FaultProfile.parse("DATA_END=reset:1", 0)));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            OutputStream out = socket.getOutputStream();
+            out.write("HELO localhost\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<d@e.f>\r\nDATA\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(in.readLine().charAt(0) != '5');
+            }
+
+            out.write("Subject: lost\r\n\r\nbody\r\n.\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            try {
+                in.readLine();
+                throw new AssertionError("expected a connection reset");
+            }
+            catch (SocketException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("reset"));
+            }
+        }
+        assertEquals(0, server.getEmailCount());
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+public class LatencyProfileTest
+{
+    private static final Latency ONE = Latency.fixed(1);
+    private static final Latency TWO = Latency.fixed(2);
+    private static final Latency THREE = Latency.fixed(3);
+    private static final Latency FOUR = Latency.fixed(4);
+
+    @Test
+    public void testMostSpecificLatencyWins()
+    {
+        LatencyProfile profile = new LatencyProfile(0).withDefault(ONE)
+            .forState(SmtpState.GREET, TWO)
+            .forCommand(SmtpCommand.NOOP, THREE)
+            .forCommand(SmtpCommand.NOOP, SmtpState.GREET, FOUR);
+
+        assertEquals(FOUR, profile.latency(SmtpCommand.NOOP, SmtpState.GREET));
+        assertEquals(THREE, profile.latency(SmtpCommand.NOOP, SmtpState.MAIL));
+        assertEquals(TWO, profile.latency(SmtpCommand.MAIL, SmtpState.GREET));
+        assertEquals(ONE, profile.latency(SmtpCommand.MAIL, SmtpState.MAIL));
+    }
+
+    @Test
+    public void testDefaultIsNoDelay()
+    {
+        assertEquals(Latency.NONE, new LatencyProfile(0).latency(SmtpCommand.CONNECT, SmtpState.CONNECT));
+    }
+
+    @Test
+    public void testLogNormalMatchesPercentiles()
+    {
+        Latency latency = Latency.logNormal(200, 2000);
+        Random random = new Random(1);
+        long[] samples = new long[100000];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = latency.sampleNanos(random);
+        }
+        Arrays.sort(samples);
+
+        long median = TimeUnit.NANOSECONDS.toMillis(samples[samples.length / 2]);
+        long p99 = TimeUnit.NANOSECONDS.toMillis(samples[samples.length * 99 / 100]);
+        assertTrue("median " + median, median > 190 && median < 210);
+        assertTrue("p99 " + p99, p99 > 1800 && p99 < 2200);
+    }
+
+    @Test
+    public void testSessionsAreReproducible()
+    {
+        SmtpConversation conversation = new SmtpConversation(null);
+        conversation.connect();
+
+        LatencyProfile.Sampler first = LatencyProfile.parse("*=lognormal:10:100", 42).newSampler();
+        LatencyProfile.Sampler second = LatencyProfile.parse("*=lognormal:10:100", 42).newSampler();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(first.nextDelayNanos(conversation), second.nextDelayNanos(conversation));
+        }
+    }
+
+    @Test
+    public void testParse()
+    {
+        LatencyProfile profile = LatencyProfile.parse("rcpt=fixed:5, DATA_END=lognormal:200:2000,@DATA_BODY=fixed:1,"
+            + "NOOP@GREET=fixed:2,*=fixed:3", 0);
+
+        assertEquals("fixed:5", profile.latency(SmtpCommand.RCPT, SmtpState.MAIL).toString());
+        assertEquals("lognormal:200:2000", profile.latency(SmtpCommand.DATA_END, SmtpState.DATA_BODY).toString());
+        assertEquals("fixed:1", profile.latency(SmtpCommand.UNRECOGNIZED, SmtpState.DATA_BODY).toString());
+        assertEquals("fixed:2", profile.latency(SmtpCommand.NOOP, SmtpState.GREET).toString());
+        assertEquals("fixed:3", profile.latency(SmtpCommand.NOOP, SmtpState.MAIL).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseUnknownCommand()
+    {
+        LatencyProfile.parse("SEND=fixed:5", 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseInvalidLatency()
+    {
+        LatencyProfile.parse("RCPT=lognormal:5", 0);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class LineReaderTest
+{
+    @Test
+    public void testCrlfAndLf() throws IOException
+    {
+        LineReader reader = reader("HELO a\r\nMAIL FROM:<b>\n\r\nlast", 64);
+        assertLine(reader, "HELO a");
+        assertLine(reader, "MAIL FROM:<b>");
+        assertLine(reader, "");
+        assertLine(reader, "last");
+        assertFalse(reader.readLine());
+    }
+
+    @Test
+    public void testLineLongerThanBuffer() throws IOException
+    {
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            longLine.append(i);
+        }
+        LineReader reader = reader("short\r\n" + longLine + "\r\nend\r\n", 8);
+        assertLine(reader, "short");
+        assertLine(reader, longLine.toString());
+        assertLine(reader, "end");
+        assertFalse(reader.readLine());
+    }
+
+    @Test
+    public void testKeepsBytesUndecoded() throws IOException
+    {
+        LineReader reader = reader("caf\u00e9\r\n", 64);
+        assertTrue(reader.readLine());
+        assertEquals(4, reader.lineLength());
+        assertEquals((byte) 0xe9, reader.buffer()[reader.lineStart() + 3]);
+    }
+
+    private static LineReader reader(String input, int bufferSize)
+    {
+        return new LineReader(new ByteArrayInputStream(input.getBytes(StandardCharsets.ISO_8859_1)), bufferSize);
+    }
+
+    private static void assertLine(LineReader reader, String expected) throws IOException
+    {
+        assertTrue(reader.readLine());
+        assertEquals(expected, reader.lineAsString());
+    }
+}
@@ -16,6 +16,8 @@ package com.dumbster.smtp;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
+import java.nio.charset.StandardCharsets;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -125,6 +127,32 @@ public class MailMessageTest
         assertEquals("\nFirst line of text.\n\nNow what should happen?\nShould this still work?\n\n\n", message.toString());
     }
 
+    @Test
+    public void testAppendBodyBytes()
+    {
+        byte[] buffer = "xxFirst line\u00e9xxSecond linexx".getBytes(StandardCharsets.ISO_8859_1);
+        message.appendBody(buffer, 2, 11);
+        message.appendBody(buffer, 15, 11);
+        message.appendBody(new byte[] {'\n'}, 0, 1);
+        assertEquals("First line\u00e9\nSecond line\n", message.getBody());
+    }
+
+    @Test
+    public void testCopyIsNotAffectedByReset()
+    {
+        MailMessageImpl builder = new MailMessageImpl();
+        builder.addHeader("foo", "bar1");
+        builder.appendBody("First line of text.");
+        MailMessage copy = builder.copy();
+
+        builder.reset();
+        builder.addHeader("foo", "bar2");
+        assertEquals("bar1", copy.getFirstHeaderValue("foo"));
+        assertEquals(1, copy.getHeaderValues("foo").length);
+        assertEquals("First line of text.", copy.getBody());
+        assertEquals("", builder.getBody());
+    }
+
     @Test
     public void headersAndBody()
     {
@@ -0,0 +1,154 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the default methods of {@link MailStore} with a store that implements only the required ones.
+ */
+public class MailStoreTest
+{
+    private final MinimalMailStore mailStore = new MinimalMailStore();
+
+    @Test
+    public void testMessagesSinceAreNumberedByPosition()
+    {
+        MailMessage first = message("first");
+        MailMessage second = message("second");
+        mailStore.addMessage(first);
+        mailStore.addMessage(second);
+
+        StoredMessage[] all = mailStore.getMessagesSince(0);
+        assertEquals(2, all.length);
+        assertEquals(1, all[0].getSequenceNumber());
+        assertSame(first, all[0].getMessage());
+
+        StoredMessage[] newer = mailStore.getMessagesSince(1);
+        assertEquals(1, newer.length);
+        assertEquals(2, newer[0].getSequenceNumber());
+        assertSame(second, newer[0].getMessage());
+        assertEquals(0, mailStore.getMessagesSince(5).length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMessagesSinceNegativeSequenceNumber()
+    {
+        mailStore.getMessagesSince(-1);
+    }
+
+    @Test
+    public void testSubscriberGetsNewMessagesByPolling() throws InterruptedException
+    {
+        mailStore.addMessage(message("before"));
+        final BlockingQueue<MailMessage> received = new LinkedBlockingQueue<>();
+        MessageSubscription subscription = mailStore.subscribe(new MessageListener() {
+            @Override
+            public void messageReceived(MailMessage message)
+            {
+                received.add(message);
+            }
+        });
+
+        MailMessage after = message("after");
+        mailStore.addMessage(after);
+        assertSame(after, received.poll(5, TimeUnit.SECONDS));
+
+        subscription.cancel();
+        mailStore.addMessage(message("cancelled"));
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testPollingSubscriberOnlyGetsRequestedMessages() throws InterruptedException
+    {
+        final BlockingQueue<MailMessage> received = new LinkedBlockingQueue<>();
+        final MessageSubscription[] subscription = new MessageSubscription[1];
+        mailStore.subscribe(new MessageSubscriber() {
+            @Override
+            public void onSubscribe(MessageSubscription s)
+            {
+                subscription[0] = s;
+            }
+
+            @Override
+            public void onMessage(MailMessage message)
+            {
+                received.add(message);
+            }
+        }, 1);
+
+        mailStore.addMessage(message("first"));
+        mailStore.addMessage(message("second"));
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+
+        subscription[0].request(5);
+        assertEquals("first", received.poll(5, TimeUnit.SECONDS).getBody());
+        assertNull(received.poll(100, TimeUnit.MILLISECONDS));
+        assertEquals(1, subscription[0].getDroppedCount());
+        subscription[0].cancel();
+    }
+
+    private static MailMessage message(String body)
+    {
+        MailMessage message = new MailMessageImpl();
+        message.appendBody(body);
+        return message;
+    }
+
+    private static final class MinimalMailStore implements MailStore
+    {
+        private final List<MailMessage> messages = new ArrayList<>();
+
+        @Override
+        public synchronized int getEmailCount()
+        {
+            return messages.size();
+        }
+
+        @Override
+        public synchronized void addMessage(MailMessage message)
+        {
+            messages.add(message);
+        }
+
+        @Override
+        public synchronized MailMessage[] getMessages()
+        {
+            return messages.toArray(new MailMessage[messages.size()]);
+        }
+
+        @Override
+        public synchronized MailMessage getMessage(int index)
+        {
+            return messages.get(index);
+        }
+
+        @Override
+        public synchronized void clearMessages()
+        {
+            messages.clear();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dumbster.smtp.mailstores.RollingMailStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MemoryPressureTest
+{
+    private MailStore mailStore;
+    private MemoryPressure memoryPressure;
+
+    @Before
+    public void setup()
+    {
+        mailStore = new RollingMailStore();
+        memoryPressure = new MemoryPressure(MemoryProfile.parse("evict=70,headers=80,reject=90"), mailStore);
+    }
+
+    @Test
+    public void testLevelsRiseWithTheUsage()
+    {
+        memoryPressure.update(69, false);
+        assertEquals(MemoryPressure.Level.NORMAL, memoryPressure.getLevel());
+        memoryPressure.update(70, false);
+        assertEquals(MemoryPressure.Level.EVICT, memoryPressure.getLevel());
+        memoryPressure.update(95, false);
+        assertEquals(MemoryPressure.Level.REJECT, memoryPressure.getLevel());
+        assertEquals(0, memoryPressure.getTransitions(MemoryPressure.Level.HEADERS_ONLY));
+        assertEquals(1, memoryPressure.getTransitions(MemoryPressure.Level.REJECT));
+    }
+
+    @Test
+    public void testRecoversBelowTheMargin()
+    {
+        memoryPressure.update(90, false);
+        memoryPressure.update(86, false);
+        assertEquals(MemoryPressure.Level.REJECT, memoryPressure.getLevel());
+        memoryPressure.update(84, false);
+        assertEquals(MemoryPressure.Level.HEADERS_ONLY, memoryPressure.getLevel());
+        memoryPressure.update(50, false);
+        assertEquals(MemoryPressure.Level.NORMAL, memoryPressure.getLevel());
+        assertEquals(1, memoryPressure.getTransitions(MemoryPressure.Level.NORMAL));
+        assertEquals(1, memoryPressure.getTransitions(MemoryPressure.Level.HEADERS_ONLY));
+    }
+
+    @Test
+    public void testEvictsHalfOfTheMessages()
+    {
+        addMessages(10);
+        memoryPressure.update(75, false);
+        assertEquals(5, mailStore.getEmailCount());
+
+        // the memory freed may not have been collected at the next check
+        memoryPressure.update(75, false);
+        assertEquals(5, mailStore.getEmailCount());
+
+        memoryPressure.update(75, true);
+        assertEquals(2, mailStore.getEmailCount());
+        assertEquals(8, memoryPressure.getEvictedMessages());
+    }
+
+    @Test
+    public void testSkippedStageDoesNotEvict()
+    {
+        memoryPressure = new MemoryPressure(MemoryProfile.parse("reject=90"), mailStore);
+        addMessages(10);
+        memoryPressure.update(95, true);
+        assertEquals(MemoryPressure.Level.REJECT, memoryPressure.getLevel());
+        assertEquals(10, mailStore.getEmailCount());
+    }
+
+    @Test
+    public void testRestoresThresholdsWhenStopped()
+    {
+        Map<String, Long> thresholds = new HashMap<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            thresholds.put(pool.getName(), thresholdOf(pool));
+        }
+
+        memoryPressure = new MemoryPressure(MemoryProfile.parse("reject=99"), mailStore);
+        memoryPressure.start();
+        List<MemoryPoolMXBean> pools = memoryPressure.getWatchedPools();
+        assertFalse(pools.isEmpty());
+        for (MemoryPoolMXBean pool : pools) {
+            assertEquals(pool.getName(), pool.getUsage().getMax() / 100 * 99, thresholdOf(pool));
+        }
+        memoryPressure.stop();
+
+        assertTrue(memoryPressure.getWatchedPools().isEmpty());
+        for (MemoryPoolMXBean pool : pools) {
+            assertEquals(pool.getName(), thresholds.get(pool.getName()).longValue(), thresholdOf(pool));
+        }
+    }
+
+    /**
+     * @return the threshold MemoryPressure sets on the pool, -1 if it has none
+     */
+    private static long thresholdOf(MemoryPoolMXBean pool)
+    {
+        if (pool.isCollectionUsageThresholdSupported()) {
+            return pool.getCollectionUsageThreshold();
+        }
+        return pool.isUsageThresholdSupported() ? pool.getUsageThreshold() : -1;
+    }
+
+    private void addMessages(int count)
+    {
+        for (int i = 0; i < count; i++) {
+            MailMessage message = new MailMessageImpl();
+            message.appendBody(String.valueOf(i));
+            mailStore.addMessage(message);
+        }
+    }
+}
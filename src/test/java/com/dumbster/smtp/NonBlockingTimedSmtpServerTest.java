@@ -0,0 +1,88 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class NonBlockingTimedSmtpServerTest extends AbstractSmtpServerTest
+{
+    private static final int WAIT_IN_RESPONSE = 5;
+    private static final int SLOW_WAIT_IN_RESPONSE = 100;
+
+    @Override
+    protected SmtpServer getSmtpServer()
+    {
+        return startServer(WAIT_IN_RESPONSE);
+    }
+
+    private static SmtpServer startServer(int waitInResponse)
+    {
+        ServerOptions options = new ServerOptions().withRandomSmtpPort()
+            .nonBlocking()
+            .withEventLoops(1)
+            .withWaitInResponseInMs(waitInResponse);
+        return SmtpServerFactory.startServer(options);
+    }
+
+    @Test
+    public void testDelaysDoNotBlockOtherSessions() throws Exception
+    {
+        SmtpServer server = startServer(SLOW_WAIT_IN_RESPONSE);
+        int sessions = 20;
+        Socket[] sockets = new Socket[sessions];
+        BufferedReader[] readers = new BufferedReader[sessions];
+        long start = System.nanoTime();
+        try {
+            for (int i = 0; i < sessions; i++) {
+                sockets[i] = new Socket("localhost", server.getPort());
+                sockets[i].setSoTimeout(5000);
+                readers[i] = new BufferedReader(new InputStreamReader(sockets[i].getInputStream(),
+                    StandardCharsets.ISO_8859_1));
+            }
+            for (int i = 0; i < sessions; i++) {
+                assertTrue(readers[i].readLine().startsWith("220 "));
+            }
+            for (Socket socket : sockets) {
+                PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+                out.print("NOOP\r\n");
+                out.flush();
+            }
+            for (int i = 0; i < sessions; i++) {
+                assertEquals("250 OK", readers[i].readLine());
+            }
+        }
+        finally {
+            server.stop();
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        // Sleeping on the single loop thread would take sessions * 2 * SLOW_WAIT_IN_RESPONSE.
+        assertTrue("took " + elapsed + " ms", elapsed < sessions * SLOW_WAIT_IN_RESPONSE / 2);
+    }
+}
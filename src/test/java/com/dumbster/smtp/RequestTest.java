@@ -96,6 +96,20 @@ public class RequestTest
         assertEquals(250, response.getCode());
     }
 
+    @Test
+    public void testEhloAdvertisesPipelining()
+    {
+        Response response = Request.createRequest(SmtpState.GREET, "EHLO localhost").execute(mailStore, message);
+        assertEquals("250-OK\r\n250-PIPELINING\r\n250 CHUNKING\r\n", response.toReply());
+    }
+
+    @Test
+    public void testHeloRepliesWithSingleLine()
+    {
+        Response response = Request.createRequest(SmtpState.GREET, "HELO localhost").execute(mailStore, message);
+        assertEquals("250 OK\r\n", response.toReply());
+    }
+
     @Test
     public void testMail_MailState()
     {
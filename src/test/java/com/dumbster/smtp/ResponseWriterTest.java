@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ResponseWriterTest
+{
+    @Test
+    public void testRepliesAreWrittenOnFlush() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(out, new byte[64]);
+
+        writer.write(new Response(250, "OK", SmtpState.RCPT));
+        writer.write(new Response(-1, "", SmtpState.DATA_BODY));
+        writer.write(new Response(250, "OK\nPIPELINING", SmtpState.MAIL));
+        assertEquals(0, out.size());
+
+        writer.flush();
+        assertEquals("250 OK\r\n250-OK\r\n250 PIPELINING\r\n", out.toString("ISO-8859-1"));
+        assertFalse(writer.checkError());
+    }
+
+    @Test
+    public void testReplyLargerThanBuffer() throws Exception
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(out, new byte[8]);
+
+        writer.write(new Response(250, "OK", SmtpState.RCPT));
+        writer.write(new Response(221, "localhost closing", SmtpState.CONNECT));
+        writer.flush();
+        assertEquals("250 OK\r\n221 localhost closing\r\n", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testFailureIsReported()
+    {
+        ResponseWriter writer = new ResponseWriter(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException
+            {
+                throw new IOException("closed");
+            }
+        }, new byte[64]);
+
+        writer.write(new Response(250, "OK", SmtpState.RCPT));
+        writer.flush();
+        assertTrue(writer.checkError());
+    }
+}
@@ -14,13 +14,24 @@
 package com.dumbster.smtp;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.dumbster.smtp.mailstores.RollingMailStore;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 public class RollingMailStoreTest
 {
 
@@ -97,4 +108,186 @@ public class RollingMailStoreTest
         assertEquals(100, mailStore.getEmailCount());
         assertEquals("", mailStore.getMessage(0).getBody());
     }
+
+    @Test
+    public void testRangeOfMessages()
+    {
+        for (int i = 0; i < 5; i++) {
+            MailMessage message = new MailMessageImpl();
+            message.appendBody(String.valueOf(i));
+            mailStore.addMessage(message);
+        }
+
+        MailMessage[] messages = mailStore.getMessages(3, 10);
+        assertEquals(2, messages.length);
+        assertEquals("3", messages[0].getBody());
+        assertEquals("4", messages[1].getBody());
+        assertEquals(0, mailStore.getMessages(5, 1).length);
+        assertEquals(0, mailStore.getMessages(0, 0).length);
+    }
+
+    @Test
+    public void testStreamSeesTheMessagesOfTheTimeOfTheCall()
+    {
+        for (int i = 0; i < 3; i++) {
+            MailMessage message = new MailMessageImpl();
+            message.appendBody(String.valueOf(i));
+            mailStore.addMessage(message);
+        }
+
+        Stream<MailMessage> stream = mailStore.stream();
+        addAMessage();
+        assertEquals(Arrays.asList("0", "1", "2"), stream.map(new Function<MailMessage, String>() {
+            @Override
+            public String apply(MailMessage message)
+            {
+                return message.getBody();
+            }
+        }).collect(Collectors.toList()));
+        assertEquals(4, mailStore.stream().parallel().count());
+    }
+
+    @Test
+    public void testAwaitMessageIsWokenUpByTheMessage() throws InterruptedException
+    {
+        addAMessage();
+        Thread sender = new Thread() {
+            @Override
+            public void run()
+            {
+                for (int i = 0; i < 3; i++) {
+                    MailMessage message = new MailMessageImpl();
+                    message.appendBody(String.valueOf(i));
+                    mailStore.addMessage(message);
+                }
+            }
+        };
+        sender.start();
+
+        MailMessage message = mailStore.awaitMessage(new Predicate<MailMessage>() {
+            @Override
+            public boolean test(MailMessage message)
+            {
+                return message.getBody().equals("2");
+            }
+        }, 10, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals("2", message.getBody());
+        assertTrue(mailStore.awaitMessageCount(4, 10, TimeUnit.SECONDS));
+        sender.join();
+    }
+
+    @Test
+    public void testAwaitTimesOut() throws InterruptedException
+    {
+        addAMessage();
+        assertFalse(mailStore.awaitMessageCount(2, 10, TimeUnit.MILLISECONDS));
+        assertNull(mailStore.awaitMessage(new Predicate<MailMessage>() {
+            @Override
+            public boolean test(MailMessage message)
+            {
+                return false;
+            }
+        }, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testListenerIsToldAboutNewMessages() throws InterruptedException
+    {
+        addAMessage();
+        final CountDownLatch received = new CountDownLatch(2);
+        mailStore.subscribe(new MessageListener() {
+            @Override
+            public void messageReceived(MailMessage message)
+            {
+                received.countDown();
+            }
+        });
+
+        addAMessage();
+        addAMessage();
+        assertTrue(received.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testMessagesSince()
+    {
+        long before = System.currentTimeMillis();
+        for (int i = 0; i < 3; i++) {
+            MailMessage message = new MailMessageImpl();
+            message.appendBody(String.valueOf(i));
+            mailStore.addMessage(message);
+        }
+
+        StoredMessage[] all = mailStore.getMessagesSince(0);
+        assertEquals(3, all.length);
+        assertEquals(1, all[0].getSequenceNumber());
+        assertTrue(all[0].getReceivedAt() >= before);
+
+        StoredMessage[] newer = mailStore.getMessagesSince(all[1].getSequenceNumber());
+        assertEquals(1, newer.length);
+        assertEquals("2", newer[0].getMessage().getBody());
+        assertEquals(0, mailStore.getMessagesSince(3).length);
+
+        mailStore.clearMessages();
+        addAMessage();
+        assertEquals(4, mailStore.getMessagesSince(3)[0].getSequenceNumber());
+    }
+
+    @Test
+    public void testMessagesSinceAfterRollingOff()
+    {
+        for (int i = 0; i < 150; i++) {
+            addAMessage();
+        }
+
+        StoredMessage[] messages = mailStore.getMessagesSince(0);
+        assertEquals(100, messages.length);
+        assertEquals(51, messages[0].getSequenceNumber());
+        assertEquals(150, messages[99].getSequenceNumber());
+        assertEquals(10, mailStore.getMessagesSince(140).length);
+    }
+
+    @Test
+    public void testMaxBytes()
+    {
+        RollingMailStore store = new RollingMailStore(100, null).withMaxBytes(250);
+        for (int i = 0; i < 5; i++) {
+            MailMessage message = new MailMessageImpl();
+            message.appendBody(StringUtil.longString(100));
+            store.addMessage(message);
+        }
+
+        assertEquals(2, store.getEmailCount());
+        assertEquals(200, store.getRetainedBytes());
+    }
+
+    @Test
+    public void testMaxBytesCountsWhatAnonymisedMessagesReceived()
+    {
+        RollingMailStore store = new RollingMailStore(100, null).withMaxBytes(250);
+        for (int i = 0; i < 5; i++) {
+            MailMessage message = new AnonymisedMailMessageImpl();
+            message.addHeader("Subject", "hello");
+            message.appendBody(StringUtil.longString(88));
+            store.addMessage(message);
+        }
+
+        assertEquals(2, store.getEmailCount());
+        assertEquals(200, store.getRetainedBytes());
+    }
+
+    @Test
+    public void testExpiredMessagesAreSweptInTheBackground() throws InterruptedException
+    {
+        RollingMailStore store = new RollingMailStore(100, null).withMaxAgeInMs(50);
+        store.addMessage(new MailMessageImpl());
+        assertEquals(1, store.getEmailCount());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (store.getEmailCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, store.getEmailCount());
+    }
 }
@@ -37,6 +37,7 @@ public class ServerOptionsTest
         options = new ServerOptions();
         assertEquals(25, options.getPort());
         assertEquals(true, options.isThreaded());
+        assertEquals(false, options.isNonBlocking());
         assertEquals(RollingMailStore.class, options.getMailStore().getClass());
     }
 
@@ -106,6 +107,56 @@ public class ServerOptionsTest
         assertEquals(RollingMailStore.class, options.getMailStore().getClass());
     }
 
+    @Test
+    public void virtualThreads()
+    {
+        String[] args = new String[] {"--virtualThreads"};
+        options = new ServerOptions(args);
+        assertEquals(true, options.isVirtualThreads());
+        assertEquals(true, options.isThreaded());
+    }
+
+    @Test
+    public void sessionLimits()
+    {
+        String[] args = new String[] {"--maxSessions=20", "--maxQueuedSessions=5", "--acceptors=4"};
+        options = new ServerOptions(args);
+        assertEquals(4, options.getAcceptors());
+        assertEquals(20, options.getMaxSessions());
+        assertEquals(5, options.getMaxQueuedSessions());
+    }
+
+    @Test
+    public void nonBlocking()
+    {
+        String[] args = new String[] {"--nonBlocking", "--eventLoops=3"};
+        options = new ServerOptions(args);
+        assertEquals(true, options.isNonBlocking());
+        assertEquals(3, options.getEventLoops());
+        assertEquals(25, options.getPort());
+    }
+
+    @Test
+    public void blocking()
+    {
+        String[] args = new String[] {"--nonBlocking=false"};
+        options = new ServerOptions(args);
+        assertEquals(false, options.isNonBlocking());
+    }
+
+    @Test
+    public void badEventLoops()
+    {
+        String[] args = new String[] {"--eventLoops=0"};
+        try {
+            options = new ServerOptions(args);
+            fail();
+        }
+        catch (Throwable t) {
+            assertEquals(IllegalArgumentException.class, t.getClass());
+        }
+    }
+
     @Test
     public void alternativePort()
     {
@@ -116,6 +167,74 @@ public class ServerOptionsTest
         assertEquals(RollingMailStore.class, options.getMailStore().getClass());
     }
 
+    @Test
+    public void optionLatency()
+    {
+        String[] args = new String[] {"--latency=RCPT=fixed:5,*=lognormal:10:100", "--latencySeed=7"};
+        options = new ServerOptions(args);
+        LatencyProfile profile = options.getLatencyProfile();
+        assertEquals("fixed:5", profile.latency(SmtpCommand.RCPT, SmtpState.RCPT).toString());
+        assertEquals("lognormal:10:100", profile.latency(SmtpCommand.MAIL, SmtpState.GREET).toString());
+    }
+
+    @Test
+    public void optionTimeouts()
+    {
+        String[] args = new String[] {"--idleTimeout=0", "--commandTimeout=300000", "--sessionTimeout=600000"};
+        options = new ServerOptions(args);
+        assertEquals(0, options.getIdleTimeout());
+        assertEquals(300000, options.getCommandTimeout());
+        assertEquals(600000, options.getSessionTimeout());
+    }
+
+    @Test
+    public void optionMemory()
+    {
+        String[] args = new String[] {"--memory=evict=70,headers=80,reject=90"};
+        options = new ServerOptions(args);
+        MemoryProfile profile = options.getMemoryProfile();
+        assertEquals(70, profile.thresholdOf(MemoryPressure.Level.EVICT));
+        assertEquals(80, profile.thresholdOf(MemoryPressure.Level.HEADERS_ONLY));
+        assertEquals(90, profile.thresholdOf(MemoryPressure.Level.REJECT));
+    }
+
+    @Test
+    public void badMemory()
+    {
+        String[] args = new String[] {"--memory=reject=120"};
+
+        try {
+            options = new ServerOptions(args);
+            fail();
+        }
+        catch (Throwable t) {
+            assertEquals(IllegalArgumentException.class, t.getClass());
+        }
+    }
+
+    @Test
+    public void defaultTimeouts()
+    {
+        options = new ServerOptions();
+        assertEquals(10000, options.getIdleTimeout());
+        assertEquals(0, options.getCommandTimeout());
+        assertEquals(0, options.getSessionTimeout());
+    }
+
+    @Test
+    public void badLatency()
+    {
+        String[] args = new String[] {"--latency=RCPT=slow"};
+
+        try {
+            options = new ServerOptions(args);
+            fail();
+        }
+        catch (Throwable t) {
+            assertEquals(IllegalArgumentException.class, t.getClass());
+        }
+    }
+
     @Test
     public void badPort()
     {
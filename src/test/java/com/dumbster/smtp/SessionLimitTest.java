@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class SessionLimitTest
+{
+    private SmtpServer server;
+
+    @After
+    public void teardown() throws InterruptedException
+    {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testBlockingServerRejectsWhenFull() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .withMaxSessions(1)
+            .withMaxQueuedSessions(1));
+
+        try (Socket active = new Socket("localhost", server.getPort());
+                Socket queued = new Socket("localhost", server.getPort());
+                Socket rejected = new Socket("localhost", server.getPort())) {
+            assertTrue(readLine(active).startsWith("220 "));
+            assertTrue(readLine(rejected).startsWith("421 "));
+
+            SessionStatistics statistics = server.getSessionStatistics();
+            assertEquals(1, statistics.getRejectedSessions());
+            assertEquals(1, statistics.getActiveSessions());
+            assertEquals(1, statistics.getQueuedSessions());
+        }
+    }
+
+    @Test
+    public void testRejectionIsNotThrottled() throws Exception
+    {
+        // Time stands still, a throttled reply would never get past its first byte.
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .withMaxSessions(1)
+            .withMaxQueuedSessions(1)
+            .withLinkProfile(new LinkProfile().withTarpit(100))
+            .withClock(new SimulatedClock()));
+
+        try (Socket active = new Socket("localhost", server.getPort());
+                Socket queued = new Socket("localhost", server.getPort());
+                Socket rejected = new Socket("localhost", server.getPort())) {
+            assertTrue(readLine(rejected).startsWith("421 "));
+            assertEquals(1, server.getSessionStatistics().getRejectedSessions());
+        }
+    }
+
+    @Test
+    public void testNonBlockingServerRejectsWhenFull() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .nonBlocking()
+            .withMaxSessions(1));
+
+        try (Socket active = new Socket("localhost", server.getPort());
+                Socket rejected = new Socket("localhost", server.getPort())) {
+            assertTrue(readLine(active).startsWith("220 "));
+            assertTrue(readLine(rejected).startsWith("421 "));
+            assertEquals(1, server.getSessionStatistics().getRejectedSessions());
+        }
+    }
+
+    private static String readLine(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1)).readLine();
+    }
+}
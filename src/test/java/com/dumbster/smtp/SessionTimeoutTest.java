@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class SessionTimeoutTest
+{
+    private static final int REAL_TIMEOUT_MILLIS = 5000;
+    // real time for the server to get to waiting for input
+    private static final int SETTLE_MILLIS = 100;
+
+    private final SimulatedClock clock = new SimulatedClock();
+    private SmtpServer server;
+
+    @After
+    public void teardown() throws InterruptedException
+    {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testCommandTimeout() throws Exception
+    {
+        assertCommandTimeout(new ServerOptions());
+    }
+
+    @Test
+    public void testNonBlockingCommandTimeout() throws Exception
+    {
+        assertCommandTimeout(new ServerOptions().nonBlocking().withEventLoops(1));
+    }
+
+    @Test
+    public void testSessionTimeoutFreesTheThread() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .notThreaded()
+            .withIdleTimeoutInMs(0)
+            .withSessionTimeoutInMs(30000)
+            .withClock(clock));
+
+        try (Socket first = new Socket("localhost", server.getPort());
+                Socket second = new Socket("localhost", server.getPort())) {
+            BufferedReader firstIn = reader(first);
+            assertTrue(firstIn.readLine().startsWith("220 "));
+            BufferedReader secondIn = reader(second);
+            assertStillOpen(second, secondIn);
+
+            clock.advance(30, TimeUnit.SECONDS);
+            second.setSoTimeout(REAL_TIMEOUT_MILLIS);
+            assertTrue(secondIn.readLine().startsWith("220 "));
+            first.setSoTimeout(REAL_TIMEOUT_MILLIS);
+            assertNull(firstIn.readLine());
+        }
+    }
+
+    @Test
+    public void testNonBlockingIdleTimeout() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .nonBlocking()
+            .withEventLoops(1)
+            .withIdleTimeoutInMs(5000)
+            .withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            assertTrue(in.readLine().startsWith("220 "));
+            assertStillOpen(socket, in);
+
+            clock.advance(4, TimeUnit.SECONDS);
+            assertStillOpen(socket, in);
+
+            clock.advance(1, TimeUnit.SECONDS);
+            socket.setSoTimeout(REAL_TIMEOUT_MILLIS);
+            assertNull(in.readLine());
+        }
+    }
+
+    /**
+     * A client trickling in a command one byte at a time is never idle, but cannot finish it in time.
+     */
+    private void assertCommandTimeout(ServerOptions options) throws Exception
+    {
+        server = SmtpServerFactory.startServer(options.withRandomSmtpPort()
+            .withIdleTimeoutInMs(3000)
+            .withCommandTimeoutInMs(5000)
+            .withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            OutputStream out = socket.getOutputStream();
+            assertTrue(in.readLine().startsWith("220 "));
+            assertStillOpen(socket, in);
+
+            for (int i = 0; i < 4; i++) {
+                out.write('N');
+                out.flush();
+                assertStillOpen(socket, in);
+                clock.advance(1, TimeUnit.SECONDS);
+            }
+            assertStillOpen(socket, in);
+
+            clock.advance(1, TimeUnit.SECONDS);
+            socket.setSoTimeout(REAL_TIMEOUT_MILLIS);
+            assertNull(in.readLine());
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(REAL_TIMEOUT_MILLIS);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Also gives the server the time to act on what happened before.
+     */
+    private static void assertStillOpen(Socket socket, BufferedReader in) throws IOException
+    {
+        socket.setSoTimeout(SETTLE_MILLIS);
+        try {
+            in.readLine();
+            throw new AssertionError("expected no input");
+        }
+        catch (SocketTimeoutException e) {
+            // expected
+        }
+    }
+}
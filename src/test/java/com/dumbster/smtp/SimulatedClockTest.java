@@ -0,0 +1,224 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+public class SimulatedClockTest
+{
+    private static final long REAL_TIMEOUT_SECONDS = 5;
+
+    private final SimulatedClock clock = new SimulatedClock();
+    private SmtpServer server;
+
+    @After
+    public void teardown() throws InterruptedException
+    {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testSleepEndsOnceTimeHasAdvanced() throws Exception
+    {
+        Thread sleeper = startSleeper(TimeUnit.SECONDS.toNanos(30));
+        assertTrue(clock.awaitSleepers(1, REAL_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        clock.advance(29, TimeUnit.SECONDS);
+        sleeper.join(50);
+        assertTrue(sleeper.isAlive());
+
+        clock.advance(1, TimeUnit.SECONDS);
+        sleeper.join(TimeUnit.SECONDS.toMillis(REAL_TIMEOUT_SECONDS));
+        assertFalse(sleeper.isAlive());
+        assertEquals(TimeUnit.SECONDS.toNanos(30), clock.nanoTime());
+    }
+
+    @Test
+    public void testAutoAdvanceMovesTimeInsteadOfWaiting() throws Exception
+    {
+        clock.autoAdvance();
+        long start = System.nanoTime();
+        clock.sleep(TimeUnit.HOURS.toNanos(1));
+
+        assertEquals(TimeUnit.HOURS.toNanos(1), clock.nanoTime());
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(REAL_TIMEOUT_SECONDS));
+    }
+
+    @Test
+    public void testBlockingSessionWaitsForTheClock() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .withWaitInResponseInMs(30000)
+            .withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            assertTrue(clock.awaitSleepers(1, REAL_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+            clock.advance(30, TimeUnit.SECONDS);
+            assertTrue(in.readLine().startsWith("220 "));
+        }
+    }
+
+    @Test
+    public void testNonBlockingSessionWaitsForTheClock() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .nonBlocking()
+            .withEventLoops(1)
+            .withWaitInResponseInMs(30000)
+            .withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoTimeout(100);
+            BufferedReader in = reader(socket);
+            assertReadTimesOut(in);
+
+            clock.advance(30, TimeUnit.SECONDS);
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(REAL_TIMEOUT_SECONDS));
+            assertTrue(in.readLine().startsWith("220 "));
+        }
+    }
+
+    @Test
+    public void testIdleClientIsDisconnectedBySimulatedTime() throws Exception
+    {
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort().withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            assertTrue(in.readLine().startsWith("220 "));
+            // gives the server the time to wait for the next command
+            socket.setSoTimeout(100);
+            assertReadTimesOut(in);
+
+            clock.advance(9, TimeUnit.SECONDS);
+            assertReadTimesOut(in);
+
+            clock.advance(1, TimeUnit.SECONDS);
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(REAL_TIMEOUT_SECONDS));
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void testSlowScenarioRunsInRealMilliseconds() throws Exception
+    {
+        clock.autoAdvance();
+        server = SmtpServerFactory.startServer(new ServerOptions().withRandomSmtpPort()
+            .withLatencyProfile(new LatencyProfile(0).forCommand(SmtpCommand.DATA_END, Latency.fixed(30000)))
+            .withClock(clock));
+
+        long start = System.nanoTime();
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            OutputStream out = socket.getOutputStream();
+            out.write(("HELO localhost\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<d@e.f>\r\nDATA\r\n"
+                + "Subject: slow\r\n\r\nbody\r\n.\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            for (int i = 0; i < 6; i++) {
+                assertTrue(in.readLine().startsWith(i == 4 ? "354 " : i == 0 ? "220 " : "250 "));
+            }
+        }
+
+        server.anticipateMessageCountFor(1, 10000);
+        assertEquals(1, server.getEmailCount());
+        assertTrue(clock.nanoTime() >= TimeUnit.SECONDS.toNanos(30));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(REAL_TIMEOUT_SECONDS));
+    }
+
+    @Test
+    public void testSilentClientKeepsItsBlockingSessionWhileAutoAdvancing() throws Exception
+    {
+        assertSilentClientKeepsItsSession(new ServerOptions());
+    }
+
+    @Test
+    public void testSilentClientKeepsItsNonBlockingSessionWhileAutoAdvancing() throws Exception
+    {
+        assertSilentClientKeepsItsSession(new ServerOptions().nonBlocking().withEventLoops(1));
+    }
+
+    /**
+     * Only pending timeouts would move the clock while the client is silent, which they must not.
+     */
+    private void assertSilentClientKeepsItsSession(ServerOptions options) throws Exception
+    {
+        clock.autoAdvance();
+        server = SmtpServerFactory.startServer(options.withRandomSmtpPort().withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            assertTrue(in.readLine().startsWith("220 "));
+            Thread.sleep(300);
+
+            OutputStream out = socket.getOutputStream();
+            out.write("HELO localhost\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            assertEquals("250 OK", in.readLine());
+        }
+        assertEquals(0, clock.nanoTime());
+    }
+
+    private Thread startSleeper(final long nanos)
+    {
+        Thread sleeper = new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    clock.sleep(nanos);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        sleeper.setDaemon(true);
+        sleeper.start();
+        return sleeper;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException
+    {
+        socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(REAL_TIMEOUT_SECONDS));
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+    }
+
+    private static void assertReadTimesOut(BufferedReader in) throws IOException
+    {
+        try {
+            in.readLine();
+            throw new AssertionError("expected no reply yet");
+        }
+        catch (java.net.SocketTimeoutException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class SmtpCommandTest
+{
+    @Test
+    public void testVerbsIgnoreCase()
+    {
+        assertEquals(SmtpCommand.MAIL, parse(SmtpState.MAIL, "mail FROM:<a@b.c>"));
+        assertEquals(SmtpCommand.RCPT, parse(SmtpState.RCPT, "Rcpt To:<a@b.c>"));
+        assertEquals(SmtpCommand.EHLO, parse(SmtpState.GREET, "ehlo localhost"));
+        assertEquals(SmtpCommand.HELO, parse(SmtpState.GREET, "helo"));
+        assertEquals(SmtpCommand.UNRECOGNIZED, parse(SmtpState.GREET, "ehlo"));
+        assertEquals(SmtpCommand.UNRECOGNIZED, parse(SmtpState.GREET, ""));
+    }
+
+    @Test
+    public void testDataLines()
+    {
+        assertEquals(SmtpCommand.DATA_END, parse(SmtpState.DATA_HDR, "."));
+        assertEquals(SmtpCommand.BLANK_LINE, parse(SmtpState.DATA_HDR, ""));
+        assertEquals(SmtpCommand.UNRECOGNIZED, parse(SmtpState.DATA_HDR, "QUIT"));
+        assertEquals(SmtpCommand.UNRECOGNIZED, parse(SmtpState.DATA_BODY, ""));
+    }
+
+    @Test
+    public void testBdatArguments()
+    {
+        assertEquals(SmtpCommand.BDAT, parse(SmtpState.RCPT, "BDAT 100"));
+        assertEquals(SmtpCommand.BDAT_LAST, parse(SmtpState.RCPT, "bdat 0 last "));
+        assertEquals(SmtpCommand.BDAT_INVALID, parse(SmtpState.RCPT, "BDAT 100LAST"));
+        assertEquals(SmtpCommand.BDAT_INVALID, parse(SmtpState.RCPT, "BDAT 100 FIRST"));
+        assertEquals(SmtpCommand.BDAT_INVALID, parse(SmtpState.RCPT, "BDAT "));
+
+        byte[] line = "BDAT 12345 LAST".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(12345, SmtpCommand.parseChunkSize(line, 0, line.length));
+    }
+
+    @Test
+    public void testResponsesAreShared()
+    {
+        Response response = SmtpCommand.RCPT.response(SmtpState.RCPT);
+        assertEquals(250, response.getCode());
+        assertSame(response, SmtpCommand.RCPT.response(SmtpState.RCPT));
+        assertEquals(503, SmtpCommand.RCPT.response(SmtpState.GREET).getCode());
+    }
+
+    private static SmtpCommand parse(SmtpState state, String line)
+    {
+        byte[] bytes = line.getBytes(StandardCharsets.ISO_8859_1);
+        return SmtpCommand.parse(state, bytes, 0, bytes.length);
+    }
+}
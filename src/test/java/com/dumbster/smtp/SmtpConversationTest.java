@@ -0,0 +1,280 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dumbster.smtp.mailstores.RollingMailStore;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class SmtpConversationTest
+{
+    private MailStore mailStore;
+    private SmtpConversation conversation;
+
+    @Before
+    public void setup()
+    {
+        mailStore = new RollingMailStore();
+        conversation = new SmtpConversation(mailStore);
+        conversation.connect();
+        receive("EHLO localhost");
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+    }
+
+    @Test
+    public void testChunksSplitInsideHeader()
+    {
+        assertEquals(-1, receive("BDAT 20").getCode());
+        assertEquals(20, conversation.getPendingChunkBytes());
+        assertEquals(250, receiveChunk("Date: Mon, 1 Jan\r\nFr").getCode());
+        assertEquals(SmtpState.DATA_CHUNK, conversation.getSmtpState());
+
+        String rest = "om: a@b.c\r\n\r\nattachment name=\"report.pdf\"\r\n";
+        assertEquals(-1, receive("BDAT " + rest.length() + " LAST").getCode());
+        assertEquals(-1, receiveChunk(rest.substring(0, 10)).getCode());
+        assertEquals(250, receiveChunk(rest.substring(10)).getCode());
+
+        assertEquals(SmtpState.QUIT, conversation.getSmtpState());
+        assertEquals(1, mailStore.getEmailCount());
+        String stored = mailStore.getMessage(0).toString();
+        assertTrue(stored, stored.startsWith("Mon, 1 Jan;"));
+        assertTrue(stored, stored.contains(".pdf"));
+    }
+
+    @Test
+    public void testEmptyLastChunk()
+    {
+        assertEquals(250, receive("BDAT 0 LAST").getCode());
+        assertEquals(0, conversation.getPendingChunkBytes());
+        assertEquals(1, mailStore.getEmailCount());
+    }
+
+    @Test
+    public void testChunkOutOfSequenceIsDiscarded()
+    {
+        receive("RSET");
+        assertEquals(-1, receive("BDAT 4").getCode());
+        assertEquals(503, receiveChunk("QUIT").getCode());
+        assertEquals(SmtpState.GREET, conversation.getSmtpState());
+    }
+
+    @Test
+    public void testRsetBetweenChunksDiscardsMessage()
+    {
+        String first = "Date: OLD\r\nFrom: a@b.c\r\n\r\nattachment name=\"old.pdf\"\r\n";
+        receive("BDAT " + first.length());
+        assertEquals(250, receiveChunk(first).getCode());
+        assertEquals(250, receive("RSET").getCode());
+        assertEquals(SmtpState.GREET, conversation.getSmtpState());
+
+        receive("EHLO localhost");
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+        String second = "From: a@b.c\r\n\r\nnew\r\n";
+        receive("BDAT " + second.length() + " LAST");
+        assertEquals(250, receiveChunk(second).getCode());
+
+        assertEquals(1, mailStore.getEmailCount());
+        String stored = mailStore.getMessage(0).toString();
+        assertTrue(stored, stored.startsWith(";"));
+        assertFalse(stored, stored.contains(".pdf"));
+    }
+
+    @Test
+    public void testInvalidChunkSize()
+    {
+        assertEquals(501, receive("BDAT many").getCode());
+        assertEquals(0, conversation.getPendingChunkBytes());
+    }
+
+    @Test
+    public void testRemembersLastCommandAndItsState()
+    {
+        receive("DATA");
+        assertEquals(SmtpCommand.DATA, conversation.getLastCommand());
+        assertEquals(SmtpState.RCPT, conversation.getLastCommandState());
+
+        receive(".");
+        assertEquals(SmtpCommand.DATA_END, conversation.getLastCommand());
+        assertEquals(SmtpState.DATA_HDR, conversation.getLastCommandState());
+    }
+
+    @Test
+    public void testStoredMessageSurvivesReuse()
+    {
+        receive("DATA");
+        receive("Date: Mon, 1 Jan");
+        receive("From: a@b.c");
+        receive("");
+        receive(".");
+        conversation.reset();
+
+        conversation.connect();
+        receive("EHLO localhost");
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+        receive("DATA");
+        receive("Date: Tue, 2 Jan");
+
+        assertEquals(1, mailStore.getEmailCount());
+        assertTrue(mailStore.getMessage(0).toString().startsWith("Mon, 1 Jan;"));
+    }
+
+    @Test
+    public void testInjectedReplyKeepsState()
+    {
+        conversation.injectFaults(new FaultProfile(0).forCommand(SmtpCommand.DATA, Fault.reply(451), 1).newInjector());
+
+        Response response = receive("DATA");
+        assertEquals(451, response.getCode());
+        assertEquals(SmtpState.RCPT, conversation.getSmtpState());
+    }
+
+    @Test
+    public void testInjectedReplyToMessageEndDiscardsMessage()
+    {
+        conversation.injectFaults(new FaultProfile(0).forCommand(SmtpCommand.DATA_END, Fault.reply(552), 1).newInjector());
+        receive("DATA");
+        receive("From: a@b.c");
+        receive("");
+
+        assertEquals(552, receive(".").getCode());
+        assertEquals(SmtpState.QUIT, conversation.getSmtpState());
+        assertEquals(0, mailStore.getEmailCount());
+    }
+
+    @Test
+    public void testInjectedReplyToChunkDiscardsIt()
+    {
+        conversation.injectFaults(new FaultProfile(0).forCommand(SmtpCommand.BDAT_LAST, Fault.reply(554), 1).newInjector());
+
+        assertEquals(-1, receive("BDAT 15 LAST").getCode());
+        assertEquals(554, receiveChunk("From: a@b.c\r\n\r\n").getCode());
+        assertEquals(SmtpState.QUIT, conversation.getSmtpState());
+        assertEquals(0, mailStore.getEmailCount());
+    }
+
+    @Test
+    public void testInjectedDropClosesMidData()
+    {
+        conversation.injectFaults(new FaultProfile(0).forState(SmtpState.DATA_BODY, Fault.DROP, 1).newInjector());
+        receive("DATA");
+        receive("From: a@b.c");
+        receive("");
+
+        assertTrue(receive("body").getCode() <= 0);
+        assertTrue(conversation.isClosed());
+        assertEquals(false, conversation.isAborted());
+        assertEquals(0, mailStore.getEmailCount());
+    }
+
+    @Test
+    public void testInjected421Closes()
+    {
+        conversation.injectFaults(new FaultProfile(0).forCommand(SmtpCommand.NOOP, Fault.reply(421), 1).newInjector());
+
+        assertEquals(421, receive("NOOP").getCode());
+        assertTrue(conversation.isClosed());
+    }
+
+    @Test
+    public void testResetClearsInjectedFaults()
+    {
+        conversation.injectFaults(new FaultProfile(0).forCommand(SmtpCommand.DATA_END, Fault.RESET, 1).newInjector());
+        receive("DATA");
+        receive(".");
+        assertTrue(conversation.isAborted());
+
+        conversation.reset();
+        assertEquals(false, conversation.isAborted());
+        conversation.connect();
+        receive("EHLO localhost");
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+        receive("DATA");
+        assertEquals(250, receive(".").getCode());
+    }
+
+    @Test
+    public void testHeadersOnlyUnderMemoryPressure()
+    {
+        MemoryPressure memoryPressure = new MemoryPressure(new MemoryProfile().withHeadersOnlyAt(80), mailStore);
+        conversation = new SmtpConversation(mailStore, memoryPressure);
+        conversation.connect();
+        receive("EHLO localhost");
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+        receive("DATA");
+        receive("Date: Mon, 1 Jan");
+        receive("From: a@b.c");
+        receive("");
+        receive("attachment name=\"first.pdf\"");
+        memoryPressure.update(85, false);
+        receive("attachment name=\"second.pdf\"");
+        memoryPressure.update(0, false);
+        receive("attachment name=\"third.pdf\"");
+        assertEquals(250, receive(".").getCode());
+
+        String stored = mailStore.getMessage(0).toString();
+        assertTrue(stored, stored.startsWith("Mon, 1 Jan;"));
+        // only the attachment before the body was dropped has been found
+        assertEquals(stored, stored.indexOf(".pdf"), stored.lastIndexOf(".pdf"));
+        assertTrue(stored, stored.contains(".pdf"));
+        assertEquals(1, memoryPressure.getTruncatedMessages());
+    }
+
+    @Test
+    public void testRejectsMessagesUnderMemoryPressure()
+    {
+        MemoryPressure memoryPressure = new MemoryPressure(new MemoryProfile().withRejectAt(90), mailStore);
+        conversation = new SmtpConversation(mailStore, memoryPressure);
+        conversation.connect();
+        receive("EHLO localhost");
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+        memoryPressure.update(95, false);
+
+        assertEquals(452, receive("DATA").getCode());
+        assertEquals(SmtpState.RCPT, conversation.getSmtpState());
+        assertEquals(-1, receive("BDAT 4 LAST").getCode());
+        assertEquals(452, receiveChunk("Hi\r\n").getCode());
+        assertEquals(0, mailStore.getEmailCount());
+        assertEquals(2, memoryPressure.getRejectedMessages());
+
+        memoryPressure.update(80, false);
+        receive("MAIL FROM:<sender@here.com>");
+        receive("RCPT TO:<receiver@there.com>");
+        assertEquals(354, receive("DATA").getCode());
+        assertEquals(250, receive(".").getCode());
+        assertEquals(1, mailStore.getEmailCount());
+    }
+
+    private Response receive(String line)
+    {
+        return conversation.receive(line);
+    }
+
+    private Response receiveChunk(String data)
+    {
+        byte[] bytes = data.getBytes(StandardCharsets.ISO_8859_1);
+        return conversation.receiveChunk(bytes, 0, bytes.length);
+    }
+}
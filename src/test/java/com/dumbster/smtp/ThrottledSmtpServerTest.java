@@ -0,0 +1,160 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+public class ThrottledSmtpServerTest
+{
+    private final SimulatedClock clock = new SimulatedClock().autoAdvance();
+    private SmtpServer server;
+
+    @After
+    public void teardown() throws InterruptedException
+    {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testTarpit() throws Exception
+    {
+        assertTarpit(new ServerOptions());
+    }
+
+    @Test
+    public void testNonBlockingTarpit() throws Exception
+    {
+        assertTarpit(new ServerOptions().nonBlocking().withEventLoops(1));
+    }
+
+    @Test
+    public void testSlowDataDrain() throws Exception
+    {
+        assertSlowDataDrain(new ServerOptions());
+    }
+
+    @Test
+    public void testNonBlockingSlowDataDrain() throws Exception
+    {
+        assertSlowDataDrain(new ServerOptions().nonBlocking().withEventLoops(1));
+    }
+
+    @Test
+    public void testThrottledSessionDoesNotTimeOutAnIdleOne() throws Exception
+    {
+        assertThrottledSessionDoesNotTimeOutAnIdleOne(new ServerOptions());
+    }
+
+    @Test
+    public void testNonBlockingThrottledSessionDoesNotTimeOutAnIdleOne() throws Exception
+    {
+        assertThrottledSessionDoesNotTimeOutAnIdleOne(new ServerOptions().nonBlocking().withEventLoops(1));
+    }
+
+    private void assertTarpit(ServerOptions options) throws Exception
+    {
+        server = SmtpServerFactory.startServer(options.withRandomSmtpPort()
+            .withLinkProfile(new LinkProfile().withTarpit(1000))
+            .withClock(clock));
+
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            String greeting = reader(socket).readLine();
+            assertTrue(greeting.startsWith("220 "));
+            // The first byte goes out right away, the reader ends the line at the CR that follows the last one.
+            long expectedSeconds = greeting.length();
+            assertTrue(clock.nanoTime() + " ns", clock.nanoTime() >= TimeUnit.SECONDS.toNanos(expectedSeconds));
+        }
+    }
+
+    private void assertSlowDataDrain(ServerOptions options) throws Exception
+    {
+        server = SmtpServerFactory.startServer(options.withRandomSmtpPort()
+            .withLinkProfile(new LinkProfile().withDataReadRate(1000))
+            .withClock(clock));
+        assertSlowDataDrain();
+    }
+
+    private void assertSlowDataDrain() throws Exception
+    {
+        char[] body = new char[10000];
+        Arrays.fill(body, 'x');
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            BufferedReader in = reader(socket);
+            OutputStream out = socket.getOutputStream();
+            out.write("HELO localhost\r\nMAIL FROM:<a@b.c>\r\nRCPT TO:<d@e.f>\r\nDATA\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            for (int i = 0; i < 5; i++) {
+                assertTrue(in.readLine().charAt(0) != '5');
+            }
+            long dataStart = clock.nanoTime();
+
+            out.write(("Subject: slow\r\n\r\n" + new String(body) + "\r\n.\r\n").getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+            assertEquals("250 OK", in.readLine());
+            // 10 kB at 1 kB/s, less the initial burst of a tenth of a second
+            assertTrue(clock.nanoTime() - dataStart >= TimeUnit.SECONDS.toNanos(9));
+        }
+        assertEquals(1, server.getEmailCount());
+    }
+
+    /**
+     * The drain takes 10 seconds of simulated time while the idle timeout is 1 second.
+     */
+    private void assertThrottledSessionDoesNotTimeOutAnIdleOne(ServerOptions options) throws Exception
+    {
+        server = SmtpServerFactory.startServer(options.withRandomSmtpPort()
+            .withLinkProfile(new LinkProfile().withDataReadRate(1000))
+            .withIdleTimeoutInMs(1000)
+            .withClock(clock));
+
+        try (Socket idle = new Socket("localhost", server.getPort())) {
+            BufferedReader idleIn = reader(idle);
+            assertTrue(idleIn.readLine().startsWith("220 "));
+
+            assertSlowDataDrain();
+
+            OutputStream idleOut = idle.getOutputStream();
+            idleOut.write("HELO localhost\r\n".getBytes(StandardCharsets.ISO_8859_1));
+            idleOut.flush();
+            assertEquals("250 OK", idleIn.readLine());
+
+            // gives the server the time to wait for the next command
+            Thread.sleep(100);
+            clock.advance(1, TimeUnit.SECONDS);
+            assertNull(idleIn.readLine());
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException
+    {
+        socket.setSoTimeout(10000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimingWheelTest
+{
+    private final List<String> ran = new ArrayList<>();
+    private final TimingWheel wheel = new TimingWheel(10, 4, 0);
+
+    @Test
+    public void testRunsTaskOnceDeadlinePassed()
+    {
+        wheel.schedule(task("a"), 25, 0);
+
+        assertEquals(0, wheel.expire(29));
+        assertTrue(ran.isEmpty());
+        assertEquals(1, wheel.expire(30));
+        assertEquals("[a]", ran.toString());
+        assertTrue(wheel.isEmpty());
+    }
+
+    @Test
+    public void testRunsTasksInLaterTurns()
+    {
+        wheel.schedule(task("late"), 95, 0);
+        wheel.schedule(task("early"), 15, 0);
+
+        wheel.expire(40);
+        assertEquals("[early]", ran.toString());
+        wheel.expire(80);
+        assertEquals("[early]", ran.toString());
+        wheel.expire(100);
+        assertEquals("[early, late]", ran.toString());
+    }
+
+    @Test
+    public void testLongPauseRunsEverythingDue()
+    {
+        wheel.schedule(task("a"), 10, 0);
+        wheel.schedule(task("b"), 70, 0);
+        wheel.schedule(task("c"), 500, 0);
+
+        wheel.expire(1000);
+        assertEquals(3, ran.size());
+    }
+
+    @Test
+    public void testCancelledTaskDoesNotRun()
+    {
+        TimingWheel.Timeout timeout = wheel.schedule(task("a"), 10, 0);
+        wheel.cancel(timeout);
+
+        assertFalse(timeout.isPending());
+        assertTrue(wheel.isEmpty());
+        assertEquals(0, wheel.expire(100));
+        assertTrue(ran.isEmpty());
+    }
+
+    @Test
+    public void testTaskMayScheduleAnother()
+    {
+        wheel.schedule(new Runnable() {
+            @Override
+            public void run()
+            {
+                wheel.schedule(task("again"), 10, 20);
+            }
+        }, 10, 0);
+
+        wheel.expire(20);
+        assertTrue(ran.isEmpty());
+        wheel.expire(30);
+        assertEquals("[again]", ran.toString());
+    }
+
+    @Test
+    public void testNextDeadlineIsTheEarliestTask()
+    {
+        assertEquals(Long.MAX_VALUE, wheel.nextDeadline());
+        wheel.schedule(task("late"), 95, 0);
+        assertEquals(100, wheel.nextDeadline());
+        wheel.schedule(task("early"), 15, 0);
+        assertEquals(20, wheel.nextDeadline());
+
+        wheel.expire(12);
+        assertEquals(20, wheel.nextDeadline());
+        wheel.expire(20);
+        assertEquals(100, wheel.nextDeadline());
+    }
+
+    @Test
+    public void testNextDeadlineSkipsCancelledTasksOncePassed()
+    {
+        TimingWheel.Timeout early = wheel.schedule(task("early"), 15, 0);
+        wheel.schedule(task("late"), 35, 0);
+        wheel.cancel(early);
+
+        assertEquals(20, wheel.nextDeadline());
+        assertEquals(0, wheel.expire(20));
+        assertEquals(40, wheel.nextDeadline());
+    }
+
+    private Runnable task(final String name)
+    {
+        return new Runnable() {
+            @Override
+            public void run()
+            {
+                ran.add(name);
+            }
+        };
+    }
+}
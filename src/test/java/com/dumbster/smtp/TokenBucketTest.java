@@ -0,0 +1,63 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TokenBucketTest
+{
+    @Test
+    public void testStartsFull()
+    {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        assertEquals(5, bucket.available(0));
+        assertEquals(0, bucket.nanosUntilFull(0));
+    }
+
+    @Test
+    public void testRefillsAtRate()
+    {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        bucket.consume(5);
+        assertEquals(0, bucket.available(0));
+        assertEquals(50, bucket.nanosUntilFull(0));
+        assertEquals(44, bucket.nanosUntilFull(6));
+
+        assertEquals(2, bucket.available(25));
+        assertEquals(25, bucket.nanosUntilFull(25));
+        assertEquals(3, bucket.available(30));
+    }
+
+    @Test
+    public void testRefillsUpToCapacity()
+    {
+        TokenBucket bucket = new TokenBucket(10, 5, 0);
+        bucket.consume(5);
+        assertEquals(5, bucket.available(1000));
+
+        bucket.consume(5);
+        assertEquals(1, bucket.available(1010));
+    }
+
+    @Test
+    public void testRate()
+    {
+        TokenBucket bucket = TokenBucket.forRate(1000, 0);
+        assertEquals(100, bucket.available(0));
+        bucket.consume(100);
+        assertEquals(100000000, bucket.nanosUntilFull(0));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.benchmark;
+
+import com.dumbster.smtp.ServerOptions;
+import com.dumbster.smtp.SmtpServer;
+import com.dumbster.smtp.SmtpServerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connections per second a server accepts with a varying number of acceptors.
+ * Every operation connects, reads the greeting, sends QUIT and waits for the reply.
+ * <br>
+ * Run the scaling series with e.g.
+ * <pre>
+ * java -cp target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main ConnectionRateBenchmark -p acceptors=1,2,4,8 -t 8
+ * </pre>
+ * where cp.txt is written by {@code mvn dependency:build-classpath -Dmdep.outputFile=cp.txt}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Threads(Threads.MAX)
+public class ConnectionRateBenchmark
+{
+    private static final byte[] QUIT = "QUIT\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    @Param({"1", "2", "4"})
+    public int acceptors;
+
+    @Param({"false", "true"})
+    public boolean nonBlocking;
+
+    private SmtpServer server;
+
+    @Setup
+    public void startServer()
+    {
+        ServerOptions options = new ServerOptions().withRandomSmtpPort()
+            .withAcceptors(acceptors)
+            .withMaxSessions(4096);
+        if (nonBlocking) {
+            options.nonBlocking();
+        }
+        server = SmtpServerFactory.startServer(options);
+    }
+
+    @TearDown
+    public void stopServer() throws InterruptedException
+    {
+        server.stop();
+    }
+
+    @Benchmark
+    public int connectAndQuit() throws IOException
+    {
+        try (Socket socket = new Socket("localhost", server.getPort())) {
+            socket.setSoLinger(true, 0);
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            int greeting = readReplyCode(in);
+            out.write(QUIT);
+            out.flush();
+            return greeting + readReplyCode(in);
+        }
+    }
+
+    private static int readReplyCode(InputStream in) throws IOException
+    {
+        int code = 0;
+        int c;
+        int read = 0;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (read++ < 3) {
+                code = code * 10 + (c - '0');
+            }
+        }
+        return code;
+    }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.dumbster.smtp.MailMessage;
 import com.dumbster.smtp.MailMessageImpl;
+import com.dumbster.smtp.StoredMessage;
 import com.dumbster.smtp.mailstores.EMLMailStore;
 import com.dumbster.smtp.mailstores.EMLMailStore.EMLFilenameFilter;
 import org.junit.After;
@@ -29,6 +30,7 @@ import org.junit.Test;
 import java.io.File;
 import java.io.IOException;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 public class EMLMailStoreTest
 {
@@ -191,6 +193,79 @@ public class EMLMailStoreTest
         assertNotNull(mailStore.getMessage(0));
     }
 
+    @Test
+    public void testRangeAndStream()
+    {
+        givenMailStoreDirectoryExists();
+
+        givenMailStoreDirectoryIsEmpty();
+
+        whenAMessageIsAdded();
+        whenAMessageIsAdded();
+        whenAMessageIsAdded();
+
+        assertEquals(2, mailStore.getMessages(1, 5).length);
+        assertEquals(mailStore.getMessage(2), mailStore.getMessages(1, 5)[1]);
+        assertEquals(0, mailStore.getMessages(3, 1).length);
+        assertEquals(3, mailStore.stream().count());
+    }
+
+    @Test
+    public void testAwaitMessageCount() throws InterruptedException
+    {
+        givenMailStoreDirectoryExists();
+
+        givenMailStoreDirectoryIsEmpty();
+
+        whenAMessageIsAdded();
+
+        assertTrue(mailStore.awaitMessageCount(1, 10, TimeUnit.SECONDS));
+        assertFalse(mailStore.awaitMessageCount(2, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testMessagesSince()
+    {
+        givenMailStoreDirectoryExists();
+
+        givenMailStoreDirectoryIsEmpty();
+
+        whenAMessageIsAdded();
+        whenAMessageIsAdded();
+
+        assertEquals(2, mailStore.getMessagesSince(0).length);
+        StoredMessage[] newer = mailStore.getMessagesSince(1);
+        assertEquals(1, newer.length);
+        assertEquals(2, newer[0].getSequenceNumber());
+        assertEquals(0, mailStore.getMessagesSince(2).length);
+    }
+
+    @Test
+    public void testExpiredMessagesAreDeleted() throws InterruptedException
+    {
+        givenMailStoreDirectoryExists();
+
+        givenMailStoreDirectoryIsEmpty();
+
+        mailStore.setMaxAgeInMs(50);
+        whenAMessageIsAdded();
+        whenAMessageIsAdded();
+        assertEquals(2, mailStore.getEmailCount());
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (emlStoreDir.listFiles().length > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(0, emlStoreDir.listFiles().length);
+        assertEquals(0, mailStore.getEmailCount());
+        assertEquals(0, mailStore.getMessages().length);
+        assertEquals(0, mailStore.getMessagesSince(0).length);
+
+        whenAMessageIsAdded();
+        assertEquals(1, mailStore.getEmailCount());
+        assertEquals(3, mailStore.getMessagesSince(0)[0].getSequenceNumber());
+    }
+
     /*
      * BDD methods.
      */
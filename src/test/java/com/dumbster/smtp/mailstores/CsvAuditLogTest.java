@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.MailMessageImpl;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CsvAuditLogTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWritesEveryMessage() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("mails.csv");
+        CsvAuditLog log = new CsvAuditLog(path)
+            .withQueueCapacity(1)
+            .withOverflowPolicy(CsvAuditLog.OverflowPolicy.BLOCK);
+        for (int i = 0; i < 1000; i++) {
+            log.append(message(i));
+        }
+        log.close();
+
+        String content = read(path);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(content.contains("\nmessage " + i + "\n"));
+        }
+        assertEquals(0, log.getDroppedCount());
+    }
+
+    @Test
+    public void testWritesWithinTheFlushInterval() throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve("mails.csv");
+        CsvAuditLog log = new CsvAuditLog(path).withFlushIntervalInMs(10);
+        log.append(message(1));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!(Files.exists(path) && read(path).contains("message 1")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(read(path).contains("message 1"));
+        log.close();
+    }
+
+    @Test
+    public void testRotatesBySize() throws IOException
+    {
+        Path path = folder.getRoot().toPath().resolve("mails.csv");
+        int recordSize = message(0).toString().getBytes(Charset.defaultCharset()).length;
+        CsvAuditLog log = new CsvAuditLog(path).withMaxFileSize(recordSize);
+        for (int i = 0; i < 3; i++) {
+            log.append(message(i));
+            // one record per batch
+            log.close();
+        }
+
+        assertTrue(read(path.resolveSibling("mails.csv.1")).contains("message 0"));
+        assertTrue(read(path.resolveSibling("mails.csv.2")).contains("message 1"));
+        assertTrue(read(path).contains("message 2"));
+        assertFalse(Files.exists(path.resolveSibling("mails.csv.3")));
+    }
+
+    @Test
+    public void testRotatesByIntervalWhenMessagesArriveAfterTheWriterIdled() throws Exception
+    {
+        Path path = folder.getRoot().toPath().resolve("mails.csv");
+        CsvAuditLog log = new CsvAuditLog(path)
+            .withRotationIntervalInMs(300)
+            .withFlushIntervalInMs(10)
+            .withIdleTimeInMs(50);
+        log.append(message(0));
+        // the writer closes the file after 50 ms, the next message opens it again
+        Thread.sleep(400);
+        log.append(message(1));
+        log.close();
+
+        assertTrue(read(path.resolveSibling("mails.csv.1")).contains("message 0"));
+        assertTrue(read(path).contains("message 1"));
+        assertFalse(read(path).contains("message 0"));
+    }
+
+    @Test
+    public void testRollingMailStoreWithoutAuditLog()
+    {
+        RollingMailStore store = new RollingMailStore(10, null);
+        store.addMessage(message(1));
+        assertEquals(1, store.getEmailCount());
+    }
+
+    private static MailMessage message(int number)
+    {
+        MailMessage message = new MailMessageImpl();
+        message.appendBody("message " + number);
+        return message;
+    }
+
+    private static String read(Path path) throws IOException
+    {
+        return new String(Files.readAllBytes(path), Charset.defaultCharset());
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+public class FileExpiryIndexTest
+{
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDeletesWholeExpiredBuckets() throws IOException
+    {
+        // buckets of 100 ms
+        FileExpiryIndex index = new FileExpiryIndex(1600);
+        File first = folder.newFile("1_first.eml");
+        File second = folder.newFile("2_second.eml");
+        File third = folder.newFile("3_third.eml");
+        index.add(1, 10, first);
+        index.add(2, 90, second);
+        index.add(3, 150, third);
+
+        index.evict(1699);
+        assertEquals(0, index.expiredSequence());
+        assertTrue(first.exists());
+
+        index.evict(1700);
+        assertEquals(2, index.expiredSequence());
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+        assertTrue(third.exists());
+
+        index.evict(1800);
+        assertEquals(3, index.expiredSequence());
+        assertFalse(third.exists());
+    }
+}
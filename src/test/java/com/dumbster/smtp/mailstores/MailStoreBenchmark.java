@@ -0,0 +1,93 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.MailMessageImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Deque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deliveries per second into the in-memory store of {@link RollingMailStore} from parallel sessions,
+ * comparing the {@link MessageRing} with the synchronized {@link LinkedBlockingDeque} it replaced.
+ * The append to mails.csv is the same for both and left out. Every operation delivers one message,
+ * every 16th also takes a snapshot like a test polling the store would.
+ * <br>
+ * Kept in this package because the ring is package private. Run the series of writer threads with e.g.
+ * <pre>
+ * for t in 1 2 4 8 16 32 64; do java -cp target/test-classes:$(cat cp.txt) org.openjdk.jmh.Main MailStoreBenchmark -t $t; done
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MailStoreBenchmark
+{
+    private static final MailMessage MESSAGE = new MailMessageImpl();
+
+    @Param({"ring", "deque"})
+    public String store;
+
+    @Param({"100", "10000"})
+    public int size;
+
+    private MessageRing ring;
+    private Deque<MailMessage> deque;
+
+    @Setup
+    public void createStore()
+    {
+        if (store.equals("ring")) {
+            ring = new MessageRing(size);
+        }
+        else {
+            deque = new LinkedBlockingDeque<>(size);
+        }
+    }
+
+    @Benchmark
+    public int deliver(ThreadCounter counter)
+    {
+        boolean snapshot = (++counter.deliveries & 15) == 0;
+        if (ring != null) {
+            ring.add(MESSAGE, 0, 0);
+            return snapshot ? ring.toArray().length : 0;
+        }
+
+        // RollingMailStore before the ring
+        synchronized (deque) {
+            if (!deque.offer(MESSAGE)) {
+                deque.remove();
+                deque.add(MESSAGE);
+            }
+        }
+        return snapshot ? deque.toArray(new MailMessage[deque.size()]).length : 0;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadCounter
+    {
+        private int deliveries;
+    }
+}
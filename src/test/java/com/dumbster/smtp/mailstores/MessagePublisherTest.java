@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import static org.junit.Assert.assertEquals;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.MailMessageImpl;
+import com.dumbster.smtp.MessageSubscriber;
+import com.dumbster.smtp.MessageSubscription;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+public class MessagePublisherTest
+{
+    // delivers on the publishing thread, so that the tests see every delivery right away
+    private final MessagePublisher publisher = new MessagePublisher(new Executor() {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    });
+
+    @Test
+    public void testDeliversRequestedMessagesOnly()
+    {
+        RecordingSubscriber subscriber = new RecordingSubscriber(2);
+        publisher.subscribe(subscriber, 10);
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(message(i));
+        }
+        assertEquals(2, subscriber.received.size());
+
+        subscriber.subscription.request(1);
+        assertEquals(3, subscriber.received.size());
+        assertEquals("2", subscriber.received.get(2).getBody());
+    }
+
+    @Test
+    public void testDropsMessagesBeyondTheBuffer()
+    {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        MessageSubscription subscription = publisher.subscribe(subscriber, 2);
+        for (int i = 0; i < 3; i++) {
+            publisher.publish(message(i));
+        }
+        assertEquals(1, subscription.getDroppedCount());
+
+        subscription.request(Long.MAX_VALUE);
+        assertEquals(2, subscriber.received.size());
+        assertEquals("1", subscriber.received.get(1).getBody());
+    }
+
+    @Test
+    public void testCancel()
+    {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber, 10);
+        publisher.publish(message(0));
+        subscriber.subscription.cancel();
+        publisher.publish(message(1));
+        assertEquals(1, subscriber.received.size());
+    }
+
+    @Test
+    public void testFailingSubscriberIsCancelled()
+    {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onMessage(MailMessage message)
+            {
+                super.onMessage(message);
+                throw new IllegalStateException("failing on purpose");
+            }
+        };
+        RecordingSubscriber other = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber, 10);
+        publisher.subscribe(other, 10);
+        publisher.publish(message(0));
+        publisher.publish(message(1));
+        assertEquals(1, subscriber.received.size());
+        assertEquals(2, other.received.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequestMustBePositive()
+    {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        publisher.subscribe(subscriber, 10);
+        subscriber.subscription.request(0);
+    }
+
+    private static MailMessage message(int number)
+    {
+        MailMessage message = new MailMessageImpl();
+        message.appendBody(String.valueOf(number));
+        return message;
+    }
+
+    private static class RecordingSubscriber implements MessageSubscriber
+    {
+        private final long initialRequest;
+        private final List<MailMessage> received = new ArrayList<>();
+        private MessageSubscription subscription;
+
+        private RecordingSubscriber(long initialRequest)
+        {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(MessageSubscription subscription)
+        {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onMessage(MailMessage message)
+        {
+            received.add(message);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.dumbster.smtp.mailstores;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.dumbster.smtp.MailMessage;
+import com.dumbster.smtp.MailMessageImpl;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+
+public class MessageRingTest
+{
+    @Test
+    public void testKeepsTheLatestMessagesInOrder()
+    {
+        MessageRing ring = new MessageRing(3);
+        for (int i = 0; i < 5; i++) {
+            ring.add(message(i), 0, 0);
+        }
+
+        assertEquals(3, ring.size());
+        MailMessage[] messages = ring.toArray();
+        assertEquals(3, messages.length);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(String.valueOf(i + 2), messages[i].getBody());
+            assertEquals(String.valueOf(i + 2), ring.get(i).getBody());
+        }
+    }
+
+    @Test
+    public void testRangeAfterRollingOff()
+    {
+        MessageRing ring = new MessageRing(3);
+        for (int i = 0; i < 5; i++) {
+            ring.add(message(i), 0, 0);
+        }
+
+        MailMessage[] messages = ring.toArray(1, 5);
+        assertEquals(2, messages.length);
+        assertEquals("3", messages[0].getBody());
+        assertEquals("4", messages[1].getBody());
+        assertEquals(0, ring.toArray(3, 1).length);
+    }
+
+    @Test
+    public void testSpliteratorSkipsClearedMessages()
+    {
+        MessageRing ring = new MessageRing(3);
+        ring.add(message(0), 0, 0);
+        ring.add(message(1), 0, 0);
+        Spliterator<MailMessage> spliterator = ring.spliterator();
+        assertEquals(2, spliterator.estimateSize());
+
+        ring.clear();
+        ring.add(message(2), 0, 0);
+        assertFalse(spliterator.tryAdvance(new Consumer<MailMessage>() {
+            @Override
+            public void accept(MailMessage message)
+            {
+                fail("Should have skipped " + message.getBody());
+            }
+        }));
+    }
+
+    @Test
+    public void testEvictsBeyondTheByteLimit()
+    {
+        MessageRing ring = new MessageRing(100);
+        ring.setMaxBytes(100);
+        for (int i = 0; i < 5; i++) {
+            ring.add(message(i), 30, 0);
+        }
+        assertEquals(3, ring.size());
+        assertEquals(90, ring.retainedBytes());
+        assertEquals("2", ring.get(0).getBody());
+
+        // the most recent message is kept even if it is larger than the limit
+        ring.add(message(5), 500, 0);
+        assertEquals(1, ring.size());
+        assertEquals(500, ring.retainedBytes());
+
+        ring.add(message(6), 10, 0);
+        assertEquals(1, ring.size());
+        assertEquals(10, ring.retainedBytes());
+    }
+
+    @Test
+    public void testEvictsBeyondTheAgeLimit()
+    {
+        MessageRing ring = new MessageRing(100);
+        ring.setMaxAge(1000);
+        ring.add(message(0), 1, 0);
+        ring.add(message(1), 1, 500);
+        ring.add(message(2), 1, 1200);
+        assertEquals(2, ring.size());
+        assertEquals("1", ring.get(0).getBody());
+        assertEquals(2, ring.retainedBytes());
+    }
+
+    @Test
+    public void testSweepEvictsAllExpiredMessages()
+    {
+        MessageRing ring = new MessageRing(100);
+        ring.setMaxAge(1000);
+        ring.add(message(0), 1, 0);
+        ring.add(message(1), 1, 500);
+
+        ring.evict(1400);
+        assertEquals(1, ring.size());
+        ring.evict(1600);
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.retainedBytes());
+    }
+
+    @Test
+    public void testCountsBytesOfRolledOffAndClearedMessages()
+    {
+        MessageRing ring = new MessageRing(3);
+        for (int i = 0; i < 5; i++) {
+            ring.add(message(i), 10, 0);
+        }
+        assertEquals(30, ring.retainedBytes());
+
+        ring.clear();
+        assertEquals(0, ring.retainedBytes());
+    }
+
+    @Test
+    public void testEvictsOldestMessages()
+    {
+        MessageRing ring = new MessageRing(3);
+        for (int i = 0; i < 5; i++) {
+            ring.add(message(i), 10, 0);
+        }
+        assertEquals(2, ring.evictOldest(2));
+        assertEquals(1, ring.size());
+        assertEquals("4", ring.get(0).getBody());
+        assertEquals(10, ring.retainedBytes());
+
+        assertEquals(1, ring.evictOldest(5));
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.retainedBytes());
+        assertEquals(0, ring.evictOldest(1));
+    }
+
+    @Test
+    public void testIndexOutOfBounds()
+    {
+        MessageRing ring = new MessageRing(3);
+        ring.add(message(0), 0, 0);
+        try {
+            ring.get(1);
+            fail("Should have raised exception.");
+        }
+        catch (IndexOutOfBoundsException ignored) {
+        }
+    }
+
+    @Test
+    public void testClear()
+    {
+        MessageRing ring = new MessageRing(3);
+        ring.add(message(0), 0, 0);
+        ring.add(message(1), 0, 0);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertEquals(0, ring.toArray().length);
+
+        ring.add(message(2), 0, 0);
+        assertEquals(1, ring.size());
+        assertEquals("2", ring.get(0).getBody());
+    }
+
+    @Test
+    public void testBytesStayExactWithRacingWritersAndEvictions() throws InterruptedException
+    {
+        final int writers = 8;
+        final int messagesPerWriter = 10000;
+        // a small ring makes writers replace slots and race with evictions all the time
+        final MessageRing ring = new MessageRing(2);
+        ring.setMaxBytes(3);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            final int writer = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        ring.add(message(i), 2, 0);
+                        if (i % 10 == writer) {
+                            ring.evictOldest(1);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(2 * ring.size(), ring.retainedBytes());
+        ring.clear();
+        assertEquals(0, ring.retainedBytes());
+    }
+
+    @Test
+    public void testConcurrentWriters() throws InterruptedException
+    {
+        final int writers = 8;
+        final int messagesPerWriter = 10000;
+        final MessageRing ring = new MessageRing(100);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[writers];
+        for (int t = 0; t < writers; t++) {
+            final int writer = t;
+            threads[t] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < messagesPerWriter; i++) {
+                        ring.add(message(writer * messagesPerWriter + i), 1, 0);
+                        ring.size();
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        MailMessage[] messages = ring.toArray();
+        assertEquals(100, messages.length);
+        assertEquals(100, ring.retainedBytes());
+        Set<String> bodies = new HashSet<>();
+        for (MailMessage message : messages) {
+            assertTrue(bodies.add(message.getBody()));
+        }
+    }
+
+    private static MailMessage message(int number)
+    {
+        MailMessage message = new MailMessageImpl();
+        message.appendBody(String.valueOf(number));
+        return message;
+    }
+}